@@ -43,15 +43,20 @@ public class PendulumMain {
                 rbfBasis,
                 Matrices.random(rbfBasis.size()));
 
-        logger.info("Sampling 1000 episodes with 50 steps using random policy");
-        List<Sample> samples = PolicySampler.sample(simulator, 1000, 50, randomPolicy);
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        logger.info("Sampling 1000 episodes with 50 steps using random policy on {} threads",
+                numThreads);
+        List<Sample> samples =
+                PolicySampler.sample(Pendulum::new, 1000, 50, randomPolicy, 0, numThreads);
 
         logger.info("Running Lspi");
         learnedPolicy = Lspi.learn(samples, learnedPolicy, .9, 1e-5, 20, Lspi.PolicyImprover.LSTDQ_MTJ);
 
         logger.info("Evaluating random and learned policy");
-        double avgRandomRewards = PolicySampler.evaluatePolicy(simulator, 1000, 50, randomPolicy);
-        double avgLearnedRewards = PolicySampler.evaluatePolicy(simulator, 1000, 50, learnedPolicy);
+        double avgRandomRewards = PolicySampler.evaluatePolicy(Pendulum::new, 1000, 50,
+                randomPolicy, 1, numThreads);
+        double avgLearnedRewards = PolicySampler.evaluatePolicy(Pendulum::new, 1000, 50,
+                learnedPolicy, 1, numThreads);
 
         logger.info("Random Policy Average Rewards: " + avgRandomRewards);
         logger.info("Learned Policy Average Rewards: " + avgLearnedRewards);
@@ -3,12 +3,24 @@ package edu.cwru.eecs.rl.agent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 import edu.cwru.eecs.rl.domains.Simulator;
 import edu.cwru.eecs.rl.types.Policy;
 import edu.cwru.eecs.rl.types.Sample;
+import edu.cwru.eecs.rl.types.SampleBatch;
+import edu.cwru.eecs.rl.types.SampleFileWriter;
+import edu.cwru.eecs.rl.types.SplitMix;
+import edu.cwru.eecs.rl.types.TrajectoryBatch;
 
 public class PolicySampler {
 
@@ -28,27 +40,131 @@ public class PolicySampler {
                                       int numEpisodes,
                                       int episodeLength,
                                       Policy policy) {
-
         List<Sample> samples = new ArrayList<Sample>();
-        for (int i = 0; i < numEpisodes; i++) {
-            simulator.reset();
-            for (int j = 0; j < episodeLength; j++) {
-
-                Sample sample = null;
-                try {
-                    sample = simulator.step(policy.evaluate(simulator.getState()));
-                } catch (Exception e) {
-                    logger.error("{}", e.getMessage(), e);
-                }
-                samples.add(sample);
-                // if this episode has ended early then start the next one
-                if (simulator.isTerminal(sample.nextState)) {
-                    break;
-                }
+        runEpisodes(simulator, numEpisodes, episodeLength, policy, samples::add);
+        return samples;
+    }
+
+    /**
+     * Collects samples from the specified number of episodes on several threads.
+     *
+     * <p>
+     * Every thread gets its own simulator from the factory. Before episode i the simulator is
+     * reseeded and the policy's exploration generator is reset from a seed derived from seed and
+     * i alone, so the samples, and their order, are the same for any number of threads. Each
+     * episode is collected into its own list and the lists are concatenated in episode order at
+     * the end, so the threads do not share anything while sampling.
+     *
+     * @param simulatorFactory Creates one simulator per thread
+     * @param numEpisodes      Number of episodes to collect samples from
+     * @param episodeLength    Maximum number of steps per episode
+     * @param policy           Sampling policy to collect samples with. Its basis must be safe to
+     *                         evaluate from several threads.
+     * @param seed             Seed the episode seeds are derived from
+     * @param numThreads       Number of sampling threads
+     * @return List of samples collected.
+     */
+    public static List<Sample> sample(Supplier<? extends Simulator> simulatorFactory,
+                                      int numEpisodes,
+                                      int episodeLength,
+                                      Policy policy,
+                                      long seed,
+                                      int numThreads) {
+        List<List<Sample>> episodes = runEpisodes(simulatorFactory, numEpisodes, seed, numThreads,
+            (simulator, random) -> {
+                List<Sample> episode = new ArrayList<Sample>();
+                runEpisode(simulator, episodeLength, policy, random, episode::add);
+                return episode;
+            });
+
+        int numSamples = 0;
+        for (List<Sample> episode : episodes) {
+            numSamples += episode.size();
+        }
+        List<Sample> samples = new ArrayList<Sample>(numSamples);
+        for (List<Sample> episode : episodes) {
+            samples.addAll(episode);
+        }
+        return samples;
+    }
+
+    /**
+     * Same as sample, but the samples are stored in a columnar SampleBatch instead of a list of
+     * Sample objects.
+     *
+     * @param simulator     Domain to collect from
+     * @param numEpisodes   Number of episodes to collect samples from
+     * @param episodeLength Maximum number of steps per episode
+     * @param policy        Sampling policy to collect samples with
+     * @return Batch of samples collected.
+     */
+    public static SampleBatch sampleBatch(Simulator simulator,
+                                          int numEpisodes,
+                                          int episodeLength,
+                                          Policy policy) {
+        SampleBatch[] samples = new SampleBatch[1];
+        runEpisodes(simulator, numEpisodes, episodeLength, policy, sample -> {
+            if (samples[0] == null) {
+                samples[0] = new SampleBatch(stateDimension(sample));
             }
+            samples[0].add(sample);
+        });
+
+        if (samples[0] == null) {
+            return new SampleBatch(simulator.getState().size());
         }
+        return samples[0];
+    }
 
-        return samples;
+    /**
+     * Same as sample, but each episode is stored as a trajectory in which every state is kept
+     * once.
+     *
+     * @param simulator     Domain to collect from
+     * @param numEpisodes   Number of episodes to collect samples from
+     * @param episodeLength Maximum number of steps per episode
+     * @param policy        Sampling policy to collect samples with
+     * @return Trajectories collected.
+     */
+    public static TrajectoryBatch sampleTrajectories(Simulator simulator,
+                                                     int numEpisodes,
+                                                     int episodeLength,
+                                                     Policy policy) {
+        TrajectoryBatch[] samples = new TrajectoryBatch[1];
+        runEpisodes(simulator, numEpisodes, episodeLength, policy, sample -> {
+            if (samples[0] == null) {
+                samples[0] = new TrajectoryBatch(stateDimension(sample));
+            }
+            samples[0].add(sample);
+        });
+
+        if (samples[0] == null) {
+            return new TrajectoryBatch(simulator.getState().size());
+        }
+        return samples[0];
+    }
+
+    /**
+     * Same as sample, but the samples are appended to a sample file as they are collected instead
+     * of being kept in memory. The writer is not closed.
+     *
+     * @param simulator     Domain to collect from
+     * @param numEpisodes   Number of episodes to collect samples from
+     * @param episodeLength Maximum number of steps per episode
+     * @param policy        Sampling policy to collect samples with
+     * @param writer        Sample file to append to. Its state dimension must fit both the reset
+     *                      states and the next states of the simulator.
+     * @return Number of samples written
+     * @throws IOException If the file cannot be written
+     */
+    public static long sample(Simulator simulator,
+                              int numEpisodes,
+                              int episodeLength,
+                              Policy policy,
+                              SampleFileWriter writer) throws IOException {
+        long start = writer.getCount();
+        runEpisodes(simulator, numEpisodes, episodeLength, policy, writer::write);
+        return writer.getCount() - start;
     }
 
     /**
@@ -65,24 +181,152 @@ public class PolicySampler {
                                         int numEpisodes,
                                         int episodeLength,
                                         Policy policy) {
+        double[] totalRewards = new double[1];
+        runEpisodes(simulator, numEpisodes, episodeLength, policy,
+            sample -> totalRewards[0] += sample.reward);
+        return totalRewards[0] / numEpisodes;
+    }
+
+    /**
+     * Same as evaluatePolicy, but the episodes are run on several threads, seeded the same way as
+     * in the parallel sample. The result does not depend on the number of threads.
+     *
+     * @param simulatorFactory Creates one simulator per thread
+     * @param numEpisodes      Number of episodes to sample from
+     * @param episodeLength    Maximum number of steps per episode
+     * @param policy           Policy to sample with. Its basis must be safe to evaluate from
+     *                         several threads.
+     * @param seed             Seed the episode seeds are derived from
+     * @param numThreads       Number of sampling threads
+     * @return The average reward over all of the samples
+     */
+    public static double evaluatePolicy(Supplier<? extends Simulator> simulatorFactory,
+                                        int numEpisodes,
+                                        int episodeLength,
+                                        Policy policy,
+                                        long seed,
+                                        int numThreads) {
+        List<Double> episodeRewards = runEpisodes(simulatorFactory, numEpisodes, seed, numThreads,
+            (simulator, random) -> {
+                double[] rewards = new double[1];
+                runEpisode(simulator, episodeLength, policy, random,
+                    sample -> rewards[0] += sample.reward);
+                return rewards[0];
+            });
+
+        // summed in episode order so rounding does not depend on the threads
         double totalRewards = 0;
+        for (double rewards : episodeRewards) {
+            totalRewards += rewards;
+        }
+        return totalRewards / numEpisodes;
+    }
 
+    /**
+     * Receives the samples of an episode as they are collected.
+     */
+    private interface SampleSink<E extends Exception> {
+        void accept(Sample sample) throws E;
+    }
+
+    /**
+     * Runs episodes one after the other on a single simulator, passing every sample to the sink.
+     */
+    private static <E extends Exception> void runEpisodes(Simulator simulator,
+                                                          int numEpisodes,
+                                                          int episodeLength,
+                                                          Policy policy,
+                                                          SampleSink<E> sink) throws E {
         for (int i = 0; i < numEpisodes; i++) {
             simulator.reset();
-            for (int j = 0; j < episodeLength; j++) {
-                Sample sample = null;
-                try {
-                    sample = simulator.step(policy.evaluate(simulator.getState()));
-                } catch (Exception e) {
-                    logger.error("{}", e.getMessage(), e);
-                }
-                totalRewards += sample.reward;
-                if (simulator.isTerminal(sample.nextState)) {
-                    break;
-                }
+            runEpisode(simulator, episodeLength, policy, policy.getRandom(), sink);
+        }
+    }
+
+    /**
+     * Steps a reset simulator with the policy until the episode ends or episodeLength steps have
+     * been taken, passing every sample to the sink. Every sampling and evaluation method runs its
+     * episodes through this.
+     *
+     * @throws IllegalStateException If the policy cannot be evaluated on a state
+     */
+    private static <E extends Exception> void runEpisode(Simulator simulator,
+                                                         int episodeLength,
+                                                         Policy policy,
+                                                         Random random,
+                                                         SampleSink<E> sink) throws E {
+        for (int j = 0; j < episodeLength; j++) {
+            int action;
+            try {
+                action = policy.evaluate(simulator.getState(), random);
+            } catch (Exception e) {
+                logger.error("{}", e.getMessage(), e);
+                throw new IllegalStateException("Failed to evaluate the policy", e);
+            }
+            Sample sample = simulator.step(action);
+            sink.accept(sample);
+            // if this episode has ended early then start the next one
+            if (simulator.isTerminal(sample.nextState)) {
+                break;
             }
         }
+    }
 
-        return totalRewards / numEpisodes;
+    private static int stateDimension(Sample sample) {
+        // the first next state can be larger than the reset state
+        return Math.max(sample.currState.size(), sample.nextState.size());
+    }
+
+    /**
+     * One episode, run on a freshly reset simulator.
+     */
+    private interface Episode<T> {
+        T run(Simulator simulator, Random random) throws Exception;
+    }
+
+    private static <T> List<T> runEpisodes(Supplier<? extends Simulator> simulatorFactory,
+                                           int numEpisodes,
+                                           long seed,
+                                           int numThreads,
+                                           Episode<T> episode) {
+        Object[] results = new Object[numEpisodes];
+        AtomicInteger nextEpisode = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<?>> workers = new ArrayList<Future<?>>();
+            for (int i = 0; i < numThreads; i++) {
+                workers.add(executor.submit(() -> {
+                    Simulator simulator = simulatorFactory.get();
+                    Random random = new Random();
+                    int index;
+                    while ((index = nextEpisode.getAndIncrement()) < numEpisodes) {
+                        simulator.seed(SplitMix.seed(seed, index));
+                        random.setSeed(SplitMix.seed(~seed, index));
+                        simulator.reset();
+                        results[index] = episode.run(simulator, random);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while sampling", e);
+        } catch (ExecutionException e) {
+            logger.error("{}", e.getCause().getMessage(), e.getCause());
+            throw new IllegalStateException("Sampling failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<T> episodes = new ArrayList<T>(numEpisodes);
+        for (Object result : results) {
+            @SuppressWarnings("unchecked")
+            T typed = (T) result;
+            episodes.add(typed);
+        }
+        return episodes;
     }
 }
@@ -1,16 +1,20 @@
 package edu.cwru.eecs.rl.basisfunctions;
 
-import edu.cwru.eecs.rl.types.BasisFunctions;
+import edu.cwru.eecs.rl.types.SparseBasisFunctions;
 import no.uib.cipr.matrix.Vector;
 import no.uib.cipr.matrix.sparse.SparseVector;
 
 import java.io.Serializable;
+import java.util.Arrays;
 
-public class ExactBasis implements BasisFunctions, Serializable {
+public class ExactBasis implements SparseBasisFunctions, Serializable {
 
     protected int[] numStates;
     protected int[] offsets;
     protected int numActions;
+    // number of states and of features, computed once since every index lookup needs them
+    protected int statesPerAction;
+    protected int size;
 
     /**
      * Constructs ExactBasis instance.
@@ -22,6 +26,7 @@ public class ExactBasis implements BasisFunctions, Serializable {
      *
      * @param numStates  Number of possible values for each part of the state
      * @param numActions Number of possible actions
+     * @throws ArithmeticException If there are more features than an int can index
      */
     public ExactBasis(int[] numStates, int numActions) {
         this.numStates = new int[numStates.length];
@@ -32,6 +37,13 @@ public class ExactBasis implements BasisFunctions, Serializable {
             offsets[i] = offsets[i - 1] * numStates[i - 1];
         }
         this.numActions = numActions;
+
+        int totalStates = 1;
+        for (int i : numStates) {
+            totalStates = Math.multiplyExact(totalStates, i);
+        }
+        this.statesPerAction = totalStates;
+        this.size = Math.multiplyExact(totalStates, numActions);
     }
 
     /**
@@ -43,7 +55,7 @@ public class ExactBasis implements BasisFunctions, Serializable {
      * @return Index in sparse vector equal to 1
      */
     public int getStateActionIndex(Vector state, int action) {
-        int base = action * (this.size() / numActions);
+        int base = action * statesPerAction;
 
         int offset = 0;
         for (int i = 0; i < state.size(); i++) {
@@ -52,6 +64,42 @@ public class ExactBasis implements BasisFunctions, Serializable {
         return base + offset;
     }
 
+    /**
+     * Same as getStateActionIndex(Vector, int) for a state given as an array.
+     *
+     * @param state  Environment state
+     * @param action Action being performed
+     * @return Index in sparse vector equal to 1
+     */
+    public int getStateActionIndex(double[] state, int action) {
+        int base = action * statesPerAction;
+
+        int offset = 0;
+        for (int i = 0; i < state.length; i++) {
+            offset += offsets[i] * state[i];
+        }
+        return base + offset;
+    }
+
+    /**
+     * Same as getStateActionIndex(Vector, int) for a state given by its index among all states,
+     * the sum of offset times value over the state variables. For a basis over bits, with every
+     * entry of numStates equal to 2, that index is the state packed into a long with bit i holding
+     * variable i, as PackedBinary.getPackedState() returns it.
+     *
+     * @param stateIndex Index of the environment state
+     * @param action     Action being performed
+     * @return Index in sparse vector equal to 1
+     * @throws IllegalArgumentException If stateIndex is not the index of a state
+     */
+    public int getStateActionIndex(long stateIndex, int action) {
+        if (stateIndex < 0 || stateIndex >= statesPerAction) {
+            throw new IllegalArgumentException("Expected a state index below " + statesPerAction
+                    + " but got " + stateIndex);
+        }
+        return action * statesPerAction + (int) stateIndex;
+    }
+
     @Override
     public Vector evaluate(Vector state, int action) {
         Vector result = new SparseVector(this.size());
@@ -62,12 +110,36 @@ public class ExactBasis implements BasisFunctions, Serializable {
         return result;
     }
 
+    @Override
+    public void evaluateInto(double[] state, int action, double[] out) {
+        Arrays.fill(out, 0);
+        out[getStateActionIndex(state, action)] = 1;
+    }
+
+    @Override
+    public double dot(double[] state, int action, double[] weights) {
+        return weights[getStateActionIndex(state, action)];
+    }
+
+    @Override
+    public int maxNonZeros() {
+        return 1;
+    }
+
+    @Override
+    public int evaluateSparse(double[] state, int action, int[] indices, double[] values) {
+        indices[0] = getStateActionIndex(state, action);
+        values[0] = 1;
+        return 1;
+    }
+
+    /**
+     * Number of features, one per state-action pair.
+     *
+     * @return Number of states times number of actions
+     */
     @Override
     public int size() {
-        int totalStates = 1;
-        for (int i : numStates) {
-            totalStates *= i;
-        }
-        return totalStates * numActions;
+        return size;
     }
 }
\ No newline at end of file
@@ -1,18 +1,40 @@
 package edu.cwru.eecs.rl.basisfunctions;
 
-import edu.cwru.eecs.rl.types.BasisFunctions;
+import edu.cwru.eecs.rl.types.SparseBasisFunctions;
 import no.uib.cipr.matrix.DenseVector;
 import no.uib.cipr.matrix.Vector;
 
 import java.io.Serializable;
 
-public class FakeBasis implements BasisFunctions, Serializable {
+public class FakeBasis implements SparseBasisFunctions, Serializable {
 
     @Override
     public Vector evaluate(Vector state, int action) {
         return new DenseVector(new double[]{1});
     }
 
+    @Override
+    public void evaluateInto(double[] state, int action, double[] out) {
+        out[0] = 1;
+    }
+
+    @Override
+    public double dot(double[] state, int action, double[] weights) {
+        return weights[0];
+    }
+
+    @Override
+    public int maxNonZeros() {
+        return 1;
+    }
+
+    @Override
+    public int evaluateSparse(double[] state, int action, int[] indices, double[] values) {
+        indices[0] = 0;
+        values[0] = 1;
+        return 1;
+    }
+
     @Override
     public int size() {
         return 1;
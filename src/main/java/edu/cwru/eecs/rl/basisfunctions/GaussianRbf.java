@@ -1,12 +1,13 @@
 package edu.cwru.eecs.rl.basisfunctions;
 
-import edu.cwru.eecs.rl.types.BasisFunctions;
+import edu.cwru.eecs.rl.types.ActionBlockBasisFunctions;
 import no.uib.cipr.matrix.DenseVector;
 import no.uib.cipr.matrix.Vector;
 
 import java.io.Serializable;
+import java.util.Arrays;
 
-public class GaussianRbf implements BasisFunctions, Serializable {
+public class GaussianRbf implements ActionBlockBasisFunctions, Serializable {
 
     private int numActions;
     private int numBasis;
@@ -27,31 +28,91 @@ public class GaussianRbf implements BasisFunctions, Serializable {
         this.numBasis = (numFx * numFy + 1) * numActions;
     }
 
+    // the constant feature and the 3 x 3 centers
+    private static final int NUM_FEATURES = 10;
+
+    // features of one action for dot, so that it does not allocate
+    private static final ThreadLocal<double[]> DOT_SCRATCH =
+            ThreadLocal.withInitial(() -> new double[NUM_FEATURES]);
+
     @Override
     public Vector evaluate(Vector state, int action) {
-        Vector phi = new DenseVector(numBasis);
+        DenseVector phi = new DenseVector(numBasis);
+        features(state.get(0), state.get(1), action, phi.getData(), blockSize() * action);
+        return phi;
+    }
 
-        if (action >= numActions || action < 0) {
-            return phi; // return 0's if action number is invalid
+    @Override
+    public void evaluateInto(double[] state, int action, double[] out) {
+        Arrays.fill(out, 0);
+        features(state[0], state[1], action, out, blockSize() * action);
+    }
+
+    @Override
+    public double dot(double[] state, int action, double[] weights) {
+        double[] values = DOT_SCRATCH.get();
+        int count = features(state[0], state[1], action, values, 0);
+        int base = blockSize() * action;
+        double result = 0;
+        for (int i = 0; i < count; i++) {
+            result += values[i] * weights[base + i];
         }
+        return result;
+    }
+
+    @Override
+    public int maxNonZeros() {
+        // the centers are fixed at 3 x 3 whatever numFx and numFy are, plus the constant
+        return Math.max(numBasis / numActions, NUM_FEATURES);
+    }
 
-        if (Math.abs(state.get(0)) > Math.PI / 2.0) {
-            return phi;
+    @Override
+    public int evaluateSparse(double[] state, int action, int[] indices, double[] values) {
+        int count = features(state[0], state[1], action, values, 0);
+        int base = blockSize() * action;
+        for (int i = 0; i < count; i++) {
+            indices[i] = base + i;
+        }
+        return count;
+    }
+
+    /**
+     * Writes the features of an action, the constant followed by the Gaussian of each center, to
+     * consecutive entries of out. Every other method evaluates the basis through this one.
+     *
+     * @param angle    Pendulum angle
+     * @param velocity Pendulum angular velocity
+     * @param action   Action to evaluate the features for
+     * @param out      Array to write the features to
+     * @param offset   Index in out of the first feature
+     * @return Number of features written. 0 if the action is invalid or the pendulum has fallen
+     *         past horizontal, in which case every feature is 0.
+     */
+    private int features(double angle, double velocity, int action, double[] out, int offset) {
+        if (action >= numActions || action < 0) {
+            return 0;
         }
 
-        int base = (numBasis / numActions) * action;
+        if (Math.abs(angle) > Math.PI / 2.0) {
+            return 0;
+        }
 
-        phi.set(base++, 1.0);
+        int used = 0;
+        out[offset + used++] = 1.0;
 
         double sigma2 = 1.0;
         for (double x = -Math.PI / 4.0; x <= Math.PI / 4.0; x += Math.PI / 4.0) {
             for (double y = -1.0; y <= 1.0; y += 1.0) {
-                double dist = Math.pow(state.get(0) - x, 2) + Math.pow(state.get(1) - y, 2);
-                phi.set(base++, Math.exp(-dist / (2 * sigma2)));
+                double dist = Math.pow(angle - x, 2) + Math.pow(velocity - y, 2);
+                out[offset + used++] = Math.exp(-dist / (2 * sigma2));
             }
         }
+        return used;
+    }
 
-        return phi;
+    @Override
+    public int blockSize() {
+        return numBasis / numActions;
     }
 
     @Override
@@ -1,12 +1,13 @@
 package edu.cwru.eecs.rl.basisfunctions;
 
-import edu.cwru.eecs.rl.types.BasisFunctions;
+import edu.cwru.eecs.rl.types.ActionBlockBasisFunctions;
 import no.uib.cipr.matrix.DenseVector;
 import no.uib.cipr.matrix.Vector;
 
 import java.io.Serializable;
+import java.util.Arrays;
 
-public class PolynomialBasis implements BasisFunctions, Serializable {
+public class PolynomialBasis implements ActionBlockBasisFunctions, Serializable {
 
     private int polynomialDegree;
     private int numActions;
@@ -27,6 +28,42 @@ public class PolynomialBasis implements BasisFunctions, Serializable {
         return results;
     }
 
+    @Override
+    public void evaluateInto(double[] state, int action, double[] out) {
+        Arrays.fill(out, 0);
+        for (int i = 0; i < polynomialDegree; i++) {
+            out[action * polynomialDegree + i] = Math.pow(state[0], i);
+        }
+    }
+
+    @Override
+    public double dot(double[] state, int action, double[] weights) {
+        double result = 0;
+        for (int i = 0; i < polynomialDegree; i++) {
+            result += Math.pow(state[0], i) * weights[action * polynomialDegree + i];
+        }
+        return result;
+    }
+
+    @Override
+    public int maxNonZeros() {
+        return polynomialDegree;
+    }
+
+    @Override
+    public int evaluateSparse(double[] state, int action, int[] indices, double[] values) {
+        for (int i = 0; i < polynomialDegree; i++) {
+            indices[i] = action * polynomialDegree + i;
+            values[i] = Math.pow(state[0], i);
+        }
+        return polynomialDegree;
+    }
+
+    @Override
+    public int blockSize() {
+        return polynomialDegree;
+    }
+
     @Override
     public int size() {
         return polynomialDegree * numActions;
@@ -0,0 +1,60 @@
+package edu.cwru.eecs.rl.benchmarks;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.cwru.eecs.rl.agent.PolicySampler;
+import edu.cwru.eecs.rl.basisfunctions.ExactBasis;
+import edu.cwru.eecs.rl.basisfunctions.FakeBasis;
+import edu.cwru.eecs.rl.core.lspi.Lspi;
+import edu.cwru.eecs.rl.domains.Chain;
+import edu.cwru.eecs.rl.types.Policy;
+import edu.cwru.eecs.rl.types.SampleBatch;
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Vector;
+
+public class ChainBenchmark {
+
+    public static final Logger logger = LoggerFactory.getLogger(ChainBenchmark.class);
+
+    private static final int NUM_STATES = 1000000;
+    private static final int EPISODES = 10000;
+    private static final int EPISODE_LENGTH = 500;
+
+    /**
+     * Samples a chain of a million states with a random policy and reports the construction time
+     * and the samples per second, then runs one exact-basis LSTDQ evaluation on the samples.
+     *
+     * @param args Optional number of states, episodes and steps per episode
+     */
+    public static void main(String[] args) {
+        int numStates = args.length > 0 ? Integer.parseInt(args[0]) : NUM_STATES;
+        int numEpisodes = args.length > 1 ? Integer.parseInt(args[1]) : EPISODES;
+        int episodeLength = args.length > 2 ? Integer.parseInt(args[2]) : EPISODE_LENGTH;
+
+        long startTime = System.nanoTime();
+        Chain chain = new Chain(numStates, .9, 0);
+        logger.info("Constructed a chain of {} states in {} ms", numStates,
+                (System.nanoTime() - startTime) / 1e6);
+
+        Policy randomPolicy = new Policy(1, chain.numActions(), new FakeBasis());
+        // warm up
+        PolicySampler.sampleBatch(chain, numEpisodes / 10, episodeLength, randomPolicy);
+
+        startTime = System.nanoTime();
+        SampleBatch samples =
+                PolicySampler.sampleBatch(chain, numEpisodes, episodeLength, randomPolicy);
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        logger.info("Sampled {} transitions in {} s: {} samples per second", samples.size(),
+                seconds, samples.size() / seconds);
+
+        ExactBasis basis = new ExactBasis(new int[]{numStates}, chain.numActions());
+        Vector weights = new DenseVector(basis.size());
+        Policy policy = new Policy(0, chain.numActions(), basis, weights);
+        startTime = System.nanoTime();
+        Vector newWeights = Lspi.lstdqExactMtj(samples, policy, .9);
+        logger.info("lstdqExactMtj over {} features took {} s{}", basis.size(),
+                (System.nanoTime() - startTime) / 1e9,
+                newWeights == null ? " and failed" : "");
+    }
+}
@@ -0,0 +1,84 @@
+package edu.cwru.eecs.rl.benchmarks;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+
+import edu.cwru.eecs.rl.basisfunctions.GaussianRbf;
+import edu.cwru.eecs.rl.basisfunctions.PolynomialBasis;
+import edu.cwru.eecs.rl.types.BasisFunctions;
+import edu.cwru.eecs.rl.types.Policy;
+import no.uib.cipr.matrix.Matrices;
+
+public class GreedyActionsBenchmark {
+
+    public static final Logger logger = LoggerFactory.getLogger(GreedyActionsBenchmark.class);
+
+    private static final int STATE_DIMENSION = 2;
+    private static final int NUM_STATES = 100000;
+    private static final int WARMUP_REPETITIONS = 20;
+    private static final int REPETITIONS = 50;
+
+    /**
+     * Compares choosing the greedy actions of many pendulum states with one call to
+     * Policy.greedyActions against calling greedyAction on each state, for the bases the
+     * pendulum and chain examples use. Reports the states per second of both and checks that
+     * they choose the same actions.
+     *
+     * @param args Optional number of states
+     */
+    public static void main(String[] args) {
+        int numStates = args.length > 0 ? Integer.parseInt(args[0]) : NUM_STATES;
+        benchmark("GaussianRbf", new GaussianRbf(3, 3, 3), numStates);
+        benchmark("PolynomialBasis", new PolynomialBasis(4, 3), numStates);
+    }
+
+    private static void benchmark(String name, BasisFunctions basis, int numStates) {
+        Policy policy = new Policy(0, 3, basis, Matrices.random(basis.size()));
+        Random random = new Random(0);
+        double[] states = new double[numStates * STATE_DIMENSION];
+        for (int i = 0; i < numStates; i++) {
+            states[i * STATE_DIMENSION] = (2 * random.nextDouble() - 1) * Math.PI / 2;
+            states[i * STATE_DIMENSION + 1] = 4 * random.nextDouble() - 2;
+        }
+
+        int[] loopActions = new int[numStates];
+        int[] batchActions = null;
+        for (int i = 0; i < WARMUP_REPETITIONS; i++) {
+            loop(policy, states, loopActions);
+            batchActions = policy.greedyActions(states, STATE_DIMENSION);
+        }
+
+        long startTime = System.nanoTime();
+        for (int i = 0; i < REPETITIONS; i++) {
+            loop(policy, states, loopActions);
+        }
+        double loopSeconds = (System.nanoTime() - startTime) / 1e9;
+
+        startTime = System.nanoTime();
+        for (int i = 0; i < REPETITIONS; i++) {
+            batchActions = policy.greedyActions(states, STATE_DIMENSION);
+        }
+        double batchSeconds = (System.nanoTime() - startTime) / 1e9;
+
+        int mismatches = 0;
+        for (int i = 0; i < numStates; i++) {
+            if (loopActions[i] != batchActions[i]) {
+                mismatches++;
+            }
+        }
+        double totalStates = (double) numStates * REPETITIONS;
+        logger.info("{}: greedyAction loop {} states per second, greedyActions {} states per "
+                + "second, speedup {}, {} different actions", name, totalStates / loopSeconds,
+                totalStates / batchSeconds, loopSeconds / batchSeconds, mismatches);
+    }
+
+    private static void loop(Policy policy, double[] states, int[] actions) {
+        double[] state = new double[STATE_DIMENSION];
+        for (int i = 0; i < actions.length; i++) {
+            System.arraycopy(states, i * STATE_DIMENSION, state, 0, STATE_DIMENSION);
+            actions[i] = policy.greedyAction(state);
+        }
+    }
+}
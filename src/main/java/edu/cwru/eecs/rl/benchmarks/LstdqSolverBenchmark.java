@@ -0,0 +1,98 @@
+package edu.cwru.eecs.rl.benchmarks;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+import edu.cwru.eecs.rl.agent.PolicySampler;
+import edu.cwru.eecs.rl.basisfunctions.ExactBasis;
+import edu.cwru.eecs.rl.basisfunctions.FakeBasis;
+import edu.cwru.eecs.rl.basisfunctions.GaussianRbf;
+import edu.cwru.eecs.rl.basisfunctions.PolynomialBasis;
+import edu.cwru.eecs.rl.core.lspi.LstdqAccumulator;
+import edu.cwru.eecs.rl.core.lspi.LstdqSolver;
+import edu.cwru.eecs.rl.domains.Chain;
+import edu.cwru.eecs.rl.domains.Pendulum;
+import edu.cwru.eecs.rl.domains.Simulator;
+import edu.cwru.eecs.rl.types.BasisFunctions;
+import edu.cwru.eecs.rl.types.Policy;
+import edu.cwru.eecs.rl.types.Sample;
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Matrix;
+import no.uib.cipr.matrix.Vector;
+
+public class LstdqSolverBenchmark {
+
+    public static final Logger logger = LoggerFactory.getLogger(LstdqSolverBenchmark.class);
+
+    private static final int REPETITIONS = 10;
+
+    /**
+     * Compares the time each LstdqSolver method takes to solve the first LSTDQ system of the
+     * ChainMain and PendulumMain setups, plus a long chain with an exact basis to show how the
+     * methods scale with the number of features.
+     *
+     * @param args Not used
+     */
+    public static void main(String[] args) {
+        Simulator chain = new Chain(10, .9, 0);
+        benchmark("Chain/PolynomialBasis", chain, 10, 500,
+                new PolynomialBasis(3, chain.numActions()));
+
+        Simulator pendulum = new Pendulum();
+        benchmark("Pendulum/GaussianRbf", pendulum, 1000, 50, new GaussianRbf(3, 3, 3));
+
+        Simulator longChain = new Chain(1000, .9, 0);
+        benchmark("Chain(1000)/ExactBasis", longChain, 100, 500,
+                new ExactBasis(new int[]{longChain.numStates()}, longChain.numActions()));
+    }
+
+    private static void benchmark(String name,
+                                  Simulator simulator,
+                                  int numEpisodes,
+                                  int episodeLength,
+                                  BasisFunctions basis) {
+        BasisFunctions fakeBasis = new FakeBasis();
+        Policy randomPolicy = new Policy(1, simulator.numActions(), fakeBasis);
+        List<Sample> samples =
+                PolicySampler.sample(simulator, numEpisodes, episodeLength, randomPolicy);
+        Policy policy = new Policy(0, simulator.numActions(), basis);
+
+        LstdqAccumulator accumulator = new LstdqAccumulator(basis.size());
+        for (Sample sample : samples) {
+            int bestAction = 0;
+            try {
+                bestAction = policy.evaluate(sample.nextState);
+            } catch (Exception e) {
+                logger.error("{}", e.getMessage(), e);
+            }
+            accumulator.add(policy.getPhi(sample.currState, sample.action),
+                    sample.absorb ? null : policy.getPhi(sample.nextState, bestAction),
+                    sample.reward, .9);
+        }
+        Matrix matA = accumulator.getA();
+        Vector vecB = accumulator.getB();
+
+        logger.info("{}: {} samples, {} features", name, samples.size(), basis.size());
+        for (LstdqSolver.Method method : LstdqSolver.Method.values()) {
+            LstdqSolver solver = new LstdqSolver(method);
+            Vector vecX = solver.solve(matA, vecB);
+
+            long startTime = System.nanoTime();
+            for (int i = 0; i < REPETITIONS; i++) {
+                vecX = solver.solve(matA, vecB);
+            }
+            double millis = (System.nanoTime() - startTime) / 1e6 / REPETITIONS;
+
+            double residual = Double.NaN;
+            if (vecX != null) {
+                Vector vecR = vecB.copy();
+                matA.multAdd(-1, vecX, vecR);
+                residual = vecR.norm(Vector.Norm.Two) / vecB.norm(Vector.Norm.Two);
+            }
+            logger.info("{} {}: {} ms per solve, relative residual {}",
+                    name, method, millis, residual);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package edu.cwru.eecs.rl.benchmarks;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Random;
+
+import edu.cwru.eecs.rl.agent.PolicySampler;
+import edu.cwru.eecs.rl.basisfunctions.FakeBasis;
+import edu.cwru.eecs.rl.basisfunctions.GaussianRbf;
+import edu.cwru.eecs.rl.core.lspi.Lspi;
+import edu.cwru.eecs.rl.domains.BatchPendulum;
+import edu.cwru.eecs.rl.domains.Pendulum;
+import edu.cwru.eecs.rl.types.Policy;
+import edu.cwru.eecs.rl.types.Sample;
+import edu.cwru.eecs.rl.types.SampleBatch;
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Matrices;
+
+public class PendulumBenchmark {
+
+    public static final Logger logger = LoggerFactory.getLogger(PendulumBenchmark.class);
+
+    private static final int WARMUP_STEPS = 200000;
+    private static final int STEPS = 1000000;
+    private static final int DEVIATION_STEPS = 100000;
+    private static final int EPISODES = 1000;
+    private static final int EPISODE_LENGTH = 50;
+    private static final int EVALUATION_EPISODES = 100;
+    private static final int EVALUATION_LENGTH = 1000;
+    private static final int BATCH_ENVIRONMENTS = 1024;
+
+    /**
+     * Compares the Pendulum integrators against RKF45 with the default settings. For each
+     * integrator it reports the steps per second with random actions, recording the samples in a
+     * SampleBatch, the error of a single step from the states RKF45 visits, how far whole
+     * episodes drift from the RKF45 episodes with the same seeds and actions, and the average
+     * reward over long episodes on the RKF45 pendulum of a policy learned from the integrator's
+     * samples the way PendulumMain learns one. That reward is minus the fraction of episodes in
+     * which the pendulum falls. Finally it reports the steps per second of a BatchPendulum with
+     * each fixed-step integrator, recording the samples the same way.
+     *
+     * @param args Optional number of steps to time
+     */
+    public static void main(String[] args) {
+        int steps = args.length > 0 ? Integer.parseInt(args[0]) : STEPS;
+        int numThreads = Runtime.getRuntime().availableProcessors();
+
+        for (Pendulum.Integrator integrator : Pendulum.Integrator.values()) {
+            run(integrator, WARMUP_STEPS);
+            long startTime = System.nanoTime();
+            run(integrator, steps);
+            double seconds = (System.nanoTime() - startTime) / 1e9;
+            logger.info("{}: {} steps per second", integrator, steps / seconds);
+
+            double[] stepError = stepError(integrator);
+            logger.info("{}: one step error: mean angle {}, max angle {}, mean velocity {}, "
+                    + "max velocity {}", integrator, stepError[0], stepError[1], stepError[2],
+                    stepError[3]);
+
+            double[] drift = episodeDrift(integrator);
+            logger.info("{}: episode drift: mean final angle difference {}, "
+                    + "episodes that end at another step {}", integrator, drift[0], drift[1]);
+
+            Policy randomPolicy = new Policy(1, 3, new FakeBasis());
+            List<Sample> samples = PolicySampler.sample(() -> new Pendulum(0, integrator),
+                    EPISODES, EPISODE_LENGTH, randomPolicy, 0, numThreads);
+            GaussianRbf basis = new GaussianRbf(3, 3, 3);
+            Policy learnedPolicy = Lspi.learn(samples,
+                    new Policy(0, 3, basis, Matrices.random(basis.size())), .9, 1e-5, 20,
+                    Lspi.PolicyImprover.LSTDQ_MTJ);
+            double reward = PolicySampler.evaluatePolicy(Pendulum::new, EVALUATION_EPISODES,
+                    EVALUATION_LENGTH, learnedPolicy, 1, numThreads);
+            logger.info("{}: learned policy average reward over {} steps on RKF45 {}",
+                    integrator, EVALUATION_LENGTH, reward);
+        }
+
+        for (Pendulum.Integrator integrator : new Pendulum.Integrator[]{Pendulum.Integrator.RK4,
+            Pendulum.Integrator.SEMI_IMPLICIT_EULER}) {
+            runBatch(integrator, WARMUP_STEPS);
+            long startTime = System.nanoTime();
+            runBatch(integrator, steps);
+            double seconds = (System.nanoTime() - startTime) / 1e9;
+            logger.info("BatchPendulum {}: {} steps per second", integrator, steps / seconds);
+        }
+    }
+
+    private static SampleBatch runBatch(Pendulum.Integrator integrator, int steps) {
+        BatchPendulum batch = new BatchPendulum(BATCH_ENVIRONMENTS, .1, 10, 0, integrator);
+        int rounds = Math.max(1, steps / BATCH_ENVIRONMENTS);
+        SampleBatch samples = new SampleBatch(BatchPendulum.STATE_DIMENSION,
+                rounds * BATCH_ENVIRONMENTS);
+        Random random = new Random(0);
+        int[] actions = new int[BATCH_ENVIRONMENTS];
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < BATCH_ENVIRONMENTS; i++) {
+                actions[i] = random.nextInt(3);
+            }
+            batch.step(actions, samples);
+        }
+        return samples;
+    }
+
+    private static SampleBatch run(Pendulum.Integrator integrator, int steps) {
+        Pendulum pendulum = new Pendulum(0, integrator);
+        SampleBatch samples = new SampleBatch(BatchPendulum.STATE_DIMENSION, steps);
+        Random random = new Random(0);
+        for (int i = 0; i < steps; i++) {
+            Sample sample = pendulum.step(random.nextInt(pendulum.numActions()));
+            samples.add(sample);
+            if (sample.reward < 0) {
+                pendulum.reset();
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Steps RKF45 with random actions and, from every state it visits, steps the integrator once
+     * with the same action and noise.
+     *
+     * @return Mean and max absolute error of the angle, then of the velocity
+     */
+    private static double[] stepError(Pendulum.Integrator integrator) {
+        Pendulum reference = new Pendulum(0);
+        Pendulum candidate = new Pendulum(0, integrator);
+        Random random = new Random(0);
+        double[] error = new double[4];
+        for (int i = 0; i < DEVIATION_STEPS; i++) {
+            candidate.setState(new DenseVector(new double[]{reference.getState().get(0),
+                reference.getState().get(1)}));
+            int action = random.nextInt(reference.numActions());
+            Sample expected = reference.step(action);
+            Sample actual = candidate.step(action);
+            for (int j = 0; j < 2; j++) {
+                double difference = Math.abs(expected.nextState.get(j) - actual.nextState.get(j));
+                error[2 * j] += difference / DEVIATION_STEPS;
+                error[2 * j + 1] = Math.max(error[2 * j + 1], difference);
+            }
+            if (expected.reward < 0) {
+                reference.reset();
+                candidate.reset();
+            }
+        }
+        return error;
+    }
+
+    /**
+     * Runs episodes on RKF45 and on the integrator from the same initial states, noise and
+     * random actions, without ever synchronizing their states.
+     *
+     * @return Mean absolute difference of the final angles and the fraction of episodes whose
+     *     pendulums fall at different steps
+     */
+    private static double[] episodeDrift(Pendulum.Integrator integrator) {
+        double angleDifference = 0;
+        int differentLength = 0;
+        for (int episode = 0; episode < EPISODES; episode++) {
+            Pendulum reference = new Pendulum(episode);
+            Pendulum candidate = new Pendulum(episode, integrator);
+            Random random = new Random(episode);
+            int referenceLength = EPISODE_LENGTH;
+            int candidateLength = EPISODE_LENGTH;
+            for (int i = 0; i < EPISODE_LENGTH; i++) {
+                int action = random.nextInt(reference.numActions());
+                if (referenceLength == EPISODE_LENGTH && reference.step(action).reward < 0) {
+                    referenceLength = i;
+                }
+                if (candidateLength == EPISODE_LENGTH && candidate.step(action).reward < 0) {
+                    candidateLength = i;
+                }
+            }
+            angleDifference += Math.abs(reference.getState().get(0)
+                    - candidate.getState().get(0)) / EPISODES;
+            if (referenceLength != candidateLength) {
+                differentLength++;
+            }
+        }
+        return new double[]{angleDifference, differentLength / (double) EPISODES};
+    }
+}
@@ -0,0 +1,176 @@
+package edu.cwru.eecs.rl.core.lspi;
+
+import no.uib.cipr.matrix.DenseVector;
+
+/**
+ * Accumulates the LSTDQ system of an ActionBlockBasisFunctions into a BlockLstdqMatrix.
+ *
+ * <p>
+ * A sample taken with action a whose next action is a' only updates blocks (a, a) and (a, a'),
+ * so each sample costs O(blockSize^2) and only the blocks that some sample touches are ever
+ * allocated. Every entry receives exactly the same additions, in the same order, as in an
+ * LstdqAccumulator over the same samples.
+ */
+public class BlockLstdqAccumulator {
+
+    private final int numActions;
+    private final int blockSize;
+    private final BlockLstdqMatrix matrix;
+    private final double[] vecB;
+
+    // scratch space reused by every update, all zero between updates
+    private final double[] phi;
+    private final double[] phiNext;
+    private final int[] nonZeroRows;
+
+    private long numSamples;
+
+    /**
+     * Constructs an accumulator whose A starts as .01 times the identity.
+     *
+     * @param numActions Number of actions
+     * @param blockSize  Number of features per action
+     */
+    public BlockLstdqAccumulator(int numActions, int blockSize) {
+        this(numActions, blockSize, .01);
+    }
+
+    /**
+     * Constructs an accumulator whose A starts as ridge times the identity. The diagonal blocks
+     * are always allocated.
+     *
+     * @param numActions Number of actions
+     * @param blockSize  Number of features per action
+     * @param ridge      Initial value of the diagonal of A
+     */
+    public BlockLstdqAccumulator(int numActions, int blockSize, double ridge) {
+        this.numActions = numActions;
+        this.blockSize = blockSize;
+        this.matrix = new BlockLstdqMatrix(numActions, blockSize);
+        this.vecB = new double[numActions * blockSize];
+        this.phi = new double[blockSize];
+        this.phiNext = new double[blockSize];
+        this.nonZeroRows = new int[blockSize];
+
+        for (int action = 0; action < numActions; action++) {
+            double[] block = matrix.block(action, action);
+            for (int i = 0; i < blockSize; i++) {
+                block[i * blockSize + i] = ridge;
+            }
+        }
+    }
+
+    /**
+     * Adds a single sample given the non-zero features of phi(s, a) and phi(s', a').
+     *
+     * @param action      a
+     * @param currIndices Global feature indices of phi(s, a), all inside block a
+     * @param currValues  Feature values of phi(s, a)
+     * @param currCount   Number of features of phi(s, a)
+     * @param nextAction  a' = pi(s'). Ignored when nextCount is 0.
+     * @param nextIndices Global feature indices of phi(s', a'), all inside block a'
+     * @param nextValues  Feature values of phi(s', a')
+     * @param nextCount   Number of features of phi(s', a'). 0 for absorbing samples.
+     * @param reward      r
+     * @param gamma       Discount factor
+     * @throws IllegalArgumentException If a feature lies outside of its action's block
+     */
+    public void add(int action, int[] currIndices, double[] currValues, int currCount,
+                    int nextAction, int[] nextIndices, double[] nextValues, int nextCount,
+                    double reward, double gamma) {
+        // check every index before anything is written, so a rejected sample leaves b and the
+        // scratch space untouched
+        for (int j = 0; j < currCount; j++) {
+            checkIndex(currIndices[j], action);
+        }
+        for (int j = 0; j < nextCount; j++) {
+            checkIndex(nextIndices[j], nextAction);
+        }
+
+        int rowOffset = action * blockSize;
+        int numNonZero = 0;
+        for (int j = 0; j < currCount; j++) {
+            int local = currIndices[j] - rowOffset;
+            if (currValues[j] != 0) {
+                phi[local] = currValues[j];
+                nonZeroRows[numNonZero++] = local;
+                vecB[rowOffset + local] += reward * currValues[j];
+            }
+        }
+        if (numNonZero == 0) {
+            numSamples++;
+            return;
+        }
+        for (int j = 0; j < nextCount; j++) {
+            phiNext[nextIndices[j] - nextAction * blockSize] = nextValues[j];
+        }
+
+        double[] diagonal = matrix.block(action, action);
+        if (nextCount == 0 || nextAction == action) {
+            // A_aa += phi (phi - gamma phi')^T
+            for (int col = 0; col < blockSize; col++) {
+                addColumn(diagonal, col, phi[col] - gamma * phiNext[col], numNonZero);
+            }
+        } else {
+            // A_aa += phi phi^T and A_aa' -= gamma phi phi'^T
+            double[] offDiagonal = matrix.block(action, nextAction);
+            for (int col = 0; col < blockSize; col++) {
+                addColumn(diagonal, col, phi[col], numNonZero);
+                addColumn(offDiagonal, col, -gamma * phiNext[col], numNonZero);
+            }
+        }
+
+        for (int k = 0; k < numNonZero; k++) {
+            phi[nonZeroRows[k]] = 0;
+        }
+        for (int j = 0; j < nextCount; j++) {
+            phiNext[nextIndices[j] - nextAction * blockSize] = 0;
+        }
+        numSamples++;
+    }
+
+    private void addColumn(double[] block, int col, double delta, int numNonZero) {
+        if (delta == 0) {
+            return;
+        }
+        int offset = col * blockSize;
+        for (int k = 0; k < numNonZero; k++) {
+            int row = nonZeroRows[k];
+            block[offset + row] += phi[row] * delta;
+        }
+    }
+
+    private void checkIndex(int index, int action) {
+        int local = index - action * blockSize;
+        if (local < 0 || local >= blockSize) {
+            throw new IllegalArgumentException("Feature " + index + " is outside of the block of "
+                    + "action " + action);
+        }
+    }
+
+    /**
+     * Returns A. The matrix shares storage with this accumulator.
+     *
+     * @return A
+     */
+    public BlockLstdqMatrix getA() {
+        return matrix;
+    }
+
+    /**
+     * Returns b wrapped as an MTJ vector. The vector shares storage with this accumulator.
+     *
+     * @return b
+     */
+    public DenseVector getB() {
+        return new DenseVector(vecB, false);
+    }
+
+    public long getNumSamples() {
+        return numSamples;
+    }
+
+    public int numActions() {
+        return numActions;
+    }
+}
@@ -0,0 +1,245 @@
+package edu.cwru.eecs.rl.core.lspi;
+
+import no.uib.cipr.matrix.AbstractMatrix;
+import no.uib.cipr.matrix.DenseLU;
+import no.uib.cipr.matrix.DenseMatrix;
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Matrix;
+import no.uib.cipr.matrix.Vector;
+import no.uib.cipr.matrix.sparse.Preconditioner;
+
+/**
+ * An LSTDQ matrix for an ActionBlockBasisFunctions, stored as a grid of numActions x numActions
+ * dense blocks of which only the touched ones are allocated.
+ *
+ * <p>
+ * Block (a, a') collects the samples taken with action a whose next action pi(s') is a', and the
+ * diagonal blocks also hold the phi phi^T terms of every sample. Products only visit the
+ * allocated blocks, so a policy that only ever chooses a few next actions costs proportionally
+ * less memory and time than a dense k x k matrix. Each block is stored column-major.
+ */
+public class BlockLstdqMatrix extends AbstractMatrix {
+
+    private final int numActions;
+    private final int blockSize;
+    // blocks[rowBlock * numActions + colBlock], null if the block is all zeros
+    private final double[][] blocks;
+
+    /**
+     * Constructs a matrix with no blocks allocated.
+     *
+     * @param numActions Number of action blocks in each direction
+     * @param blockSize  Number of features per action
+     */
+    public BlockLstdqMatrix(int numActions, int blockSize) {
+        super(numActions * blockSize, numActions * blockSize);
+        this.numActions = numActions;
+        this.blockSize = blockSize;
+        this.blocks = new double[numActions * numActions][];
+    }
+
+    public int numActions() {
+        return numActions;
+    }
+
+    public int blockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Number of allocated blocks, out of numActions^2.
+     *
+     * @return Allocated block count
+     */
+    public int numBlocks() {
+        int count = 0;
+        for (double[] block : blocks) {
+            if (block != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the storage of a block, allocating it if needed.
+     *
+     * @param rowBlock Action of the block's rows
+     * @param colBlock Action of the block's columns
+     * @return Column-major blockSize x blockSize array
+     */
+    double[] block(int rowBlock, int colBlock) {
+        int index = rowBlock * numActions + colBlock;
+        if (blocks[index] == null) {
+            blocks[index] = new double[blockSize * blockSize];
+        }
+        return blocks[index];
+    }
+
+    @Override
+    public double get(int row, int column) {
+        check(row, column);
+        double[] block = blocks[(row / blockSize) * numActions + column / blockSize];
+        if (block == null) {
+            return 0;
+        }
+        return block[(column % blockSize) * blockSize + row % blockSize];
+    }
+
+    @Override
+    public void set(int row, int column, double value) {
+        check(row, column);
+        if (value == 0 && blocks[(row / blockSize) * numActions + column / blockSize] == null) {
+            return;
+        }
+        block(row / blockSize, column / blockSize)[(column % blockSize) * blockSize
+                + row % blockSize] = value;
+    }
+
+    @Override
+    public void add(int row, int column, double value) {
+        set(row, column, get(row, column) + value);
+    }
+
+    @Override
+    public Vector multAdd(double alpha, Vector x, Vector y) {
+        checkMultAdd(x, y);
+
+        double[] xData = FeatureCache.toArray(x);
+        double[] yData = y instanceof DenseVector
+                ? ((DenseVector) y).getData() : new double[numRows];
+
+        for (int rowBlock = 0; rowBlock < numActions; rowBlock++) {
+            int rowOffset = rowBlock * blockSize;
+            for (int colBlock = 0; colBlock < numActions; colBlock++) {
+                double[] block = blocks[rowBlock * numActions + colBlock];
+                if (block == null) {
+                    continue;
+                }
+                int colOffset = colBlock * blockSize;
+                for (int j = 0; j < blockSize; j++) {
+                    double value = alpha * xData[colOffset + j];
+                    if (value == 0) {
+                        continue;
+                    }
+                    int offset = j * blockSize;
+                    for (int i = 0; i < blockSize; i++) {
+                        yData[rowOffset + i] += block[offset + i] * value;
+                    }
+                }
+            }
+        }
+
+        if (!(y instanceof DenseVector)) {
+            for (int i = 0; i < numRows; i++) {
+                y.add(i, yData[i]);
+            }
+        }
+        return y;
+    }
+
+    @Override
+    public Vector transMultAdd(double alpha, Vector x, Vector y) {
+        checkTransMultAdd(x, y);
+
+        double[] xData = FeatureCache.toArray(x);
+        double[] yData = y instanceof DenseVector
+                ? ((DenseVector) y).getData() : new double[numColumns];
+
+        for (int rowBlock = 0; rowBlock < numActions; rowBlock++) {
+            int rowOffset = rowBlock * blockSize;
+            for (int colBlock = 0; colBlock < numActions; colBlock++) {
+                double[] block = blocks[rowBlock * numActions + colBlock];
+                if (block == null) {
+                    continue;
+                }
+                int colOffset = colBlock * blockSize;
+                for (int j = 0; j < blockSize; j++) {
+                    int offset = j * blockSize;
+                    double sum = 0;
+                    for (int i = 0; i < blockSize; i++) {
+                        sum += block[offset + i] * xData[rowOffset + i];
+                    }
+                    yData[colOffset + j] += alpha * sum;
+                }
+            }
+        }
+
+        if (!(y instanceof DenseVector)) {
+            for (int i = 0; i < numColumns; i++) {
+                y.add(i, yData[i]);
+            }
+        }
+        return y;
+    }
+
+    /**
+     * Creates a block Jacobi preconditioner, which solves with each diagonal block on its own. The
+     * diagonal blocks hold most of the weight of an LSTDQ matrix, so GMRES usually converges in a
+     * few iterations with it. Blocks that are singular are left unpreconditioned.
+     *
+     * @return Preconditioner for this matrix
+     */
+    public Preconditioner blockJacobi() {
+        return new BlockJacobi();
+    }
+
+    private class BlockJacobi implements Preconditioner {
+
+        private final DenseLU[] factors = new DenseLU[numActions];
+
+        BlockJacobi() {
+            setMatrix(BlockLstdqMatrix.this);
+        }
+
+        @Override
+        public void setMatrix(Matrix matrix) {
+            double[][] source = matrix instanceof BlockLstdqMatrix
+                    ? ((BlockLstdqMatrix) matrix).blocks : blocks;
+            for (int action = 0; action < numActions; action++) {
+                double[] block = source[action * numActions + action];
+                factors[action] = null;
+                if (block != null) {
+                    // factorize copies the block
+                    DenseLU lu = DenseLU.factorize(
+                            new DenseMatrix(blockSize, blockSize, block, false));
+                    if (!lu.isSingular()) {
+                        factors[action] = lu;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public Vector apply(Vector b, Vector x) {
+            return solve(b, x, false);
+        }
+
+        @Override
+        public Vector transApply(Vector b, Vector x) {
+            return solve(b, x, true);
+        }
+
+        private Vector solve(Vector b, Vector x, boolean transpose) {
+            double[] rhs = new double[blockSize];
+            for (int action = 0; action < numActions; action++) {
+                int offset = action * blockSize;
+                for (int i = 0; i < blockSize; i++) {
+                    rhs[i] = b.get(offset + i);
+                }
+                if (factors[action] != null) {
+                    DenseMatrix column = new DenseMatrix(blockSize, 1, rhs, false);
+                    if (transpose) {
+                        factors[action].transSolve(column);
+                    } else {
+                        factors[action].solve(column);
+                    }
+                }
+                for (int i = 0; i < blockSize; i++) {
+                    x.set(offset + i, rhs[i]);
+                }
+            }
+            return x;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package edu.cwru.eecs.rl.core.lspi;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+
+import edu.cwru.eecs.rl.types.BasisFunctions;
+import edu.cwru.eecs.rl.types.Sample;
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Vector;
+import no.uib.cipr.matrix.sparse.SparseVector;
+
+/**
+ * Basis function features for a fixed sample set, evaluated once and reused by every LSPI
+ * iteration.
+ *
+ * <p>
+ * For every sample the cache stores phi(s, a) and phi(s', a') for every action a'. Rows are
+ * stored in compressed sparse row form while that is smaller, otherwise as one dense block. With
+ * the features cached an LSTDQ iteration only has to pick the greedy next action for each sample
+ * and accumulate the selected rows.
+ */
+public class FeatureCache {
+
+    public static final Logger logger = LoggerFactory.getLogger(FeatureCache.class);
+
+    /**
+     * Rows are stored densely once more than this fraction of the entries are non-zero. A sparse
+     * entry costs an int and a double, 12 bytes against 8 for a dense one, so dense storage is
+     * smaller past two thirds.
+     */
+    public static final double DENSE_THRESHOLD = 2.0 / 3;
+
+    private final int numFeatures;
+    private final int numActions;
+    private final int numSamples;
+    private final int rowsPerSample;
+
+    private final int[] actions;
+    private final double[] rewards;
+    private final boolean[] absorb;
+
+    // exactly one of the two layouts is in use
+    private double[] dense;
+    private int[] rowPointers;
+    private int[] columnIndices;
+    private double[] values;
+
+    /**
+     * Evaluates and caches the features of every sample.
+     *
+     * @param samples    Samples that will be used for every LSPI iteration
+     * @param basis      Basis function of the policy being learned
+     * @param numActions Number of actions in the domain
+     */
+    public FeatureCache(List<Sample> samples, BasisFunctions basis, int numActions) {
+        this.numFeatures = basis.size();
+        this.numActions = numActions;
+        this.numSamples = samples.size();
+        this.rowsPerSample = numActions + 1;
+
+        this.actions = new int[numSamples];
+        this.rewards = new double[numSamples];
+        this.absorb = new boolean[numSamples];
+
+        long numRows = (long) numSamples * rowsPerSample;
+        if (numRows > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many samples to cache: " + numSamples);
+        }
+        rowPointers = new int[(int) numRows + 1];
+        columnIndices = new int[Math.max(16, (int) numRows)];
+        values = new double[columnIndices.length];
+
+        int row = 0;
+        int sampleIndex = 0;
+        for (Sample sample : samples) {
+            actions[sampleIndex] = sample.action;
+            rewards[sampleIndex] = sample.reward;
+            absorb[sampleIndex] = sample.absorb;
+            sampleIndex++;
+
+            appendRow(row++, basis.evaluate(sample.currState, sample.action));
+            for (int action = 0; action < numActions; action++) {
+                appendRow(row++, basis.evaluate(sample.nextState, action));
+            }
+        }
+
+        long nonZeros = rowPointers[row];
+        double density = numRows == 0 ? 0 : nonZeros / ((double) numRows * numFeatures);
+        if (density > DENSE_THRESHOLD && numRows * numFeatures <= Integer.MAX_VALUE) {
+            toDense((int) numRows);
+        } else {
+            columnIndices = Arrays.copyOf(columnIndices, (int) nonZeros);
+            values = Arrays.copyOf(values, (int) nonZeros);
+        }
+        logger.info("Cached {} feature rows with density {} ({})",
+                numRows, density, isDense() ? "dense" : "sparse");
+    }
+
+    private void appendRow(int row, Vector phi) {
+        int used = rowPointers[row];
+        if (phi instanceof SparseVector) {
+            SparseVector sparse = (SparseVector) phi;
+            int[] index = sparse.getRawIndex();
+            double[] data = sparse.getRawData();
+            for (int i = 0; i < sparse.getUsed(); i++) {
+                if (data[i] != 0) {
+                    used = append(used, index[i], data[i]);
+                }
+            }
+        } else {
+            for (int i = 0; i < phi.size(); i++) {
+                double value = phi.get(i);
+                if (value != 0) {
+                    used = append(used, i, value);
+                }
+            }
+        }
+        rowPointers[row + 1] = used;
+    }
+
+    private int append(int used, int column, double value) {
+        if (used == columnIndices.length) {
+            int newLength = (int) Math.min(Integer.MAX_VALUE - 8, 2L * columnIndices.length);
+            if (newLength == used) {
+                throw new IllegalStateException("Too many non-zero features to cache");
+            }
+            columnIndices = Arrays.copyOf(columnIndices, newLength);
+            values = Arrays.copyOf(values, newLength);
+        }
+        columnIndices[used] = column;
+        values[used] = value;
+        return used + 1;
+    }
+
+    private void toDense(int numRows) {
+        dense = new double[numRows * numFeatures];
+        for (int row = 0; row < numRows; row++) {
+            int offset = row * numFeatures;
+            for (int i = rowPointers[row]; i < rowPointers[row + 1]; i++) {
+                dense[offset + columnIndices[i]] = values[i];
+            }
+        }
+        rowPointers = null;
+        columnIndices = null;
+        values = null;
+    }
+
+    public boolean isDense() {
+        return dense != null;
+    }
+
+    public int numSamples() {
+        return numSamples;
+    }
+
+    public int numFeatures() {
+        return numFeatures;
+    }
+
+    public int numActions() {
+        return numActions;
+    }
+
+    public int action(int sample) {
+        return actions[sample];
+    }
+
+    public double reward(int sample) {
+        return rewards[sample];
+    }
+
+    public boolean absorb(int sample) {
+        return absorb[sample];
+    }
+
+    /**
+     * Index of the row holding phi(s, a) for the given sample.
+     */
+    public int currentRow(int sample) {
+        return sample * rowsPerSample;
+    }
+
+    /**
+     * Index of the row holding phi(s', action) for the given sample.
+     */
+    public int nextRow(int sample, int action) {
+        return sample * rowsPerSample + 1 + action;
+    }
+
+    /**
+     * Dot product of a cached row with a weight vector.
+     *
+     * @param row     Cached row
+     * @param weights Weights with one entry per feature
+     * @return phi . weights
+     */
+    public double dot(int row, double[] weights) {
+        double result = 0;
+        if (dense != null) {
+            int offset = row * numFeatures;
+            for (int i = 0; i < numFeatures; i++) {
+                result += dense[offset + i] * weights[i];
+            }
+        } else {
+            for (int i = rowPointers[row]; i < rowPointers[row + 1]; i++) {
+                result += values[i] * weights[columnIndices[i]];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The action with the highest cached Q value in the sample's next state. Ties go to the lowest
+     * action, the same as Policy.evaluate.
+     *
+     * @param sample  Sample index
+     * @param weights Policy weights
+     * @return Greedy next action
+     */
+    public int greedyAction(int sample, double[] weights) {
+        int bestAction = 0;
+        double bestQ = Double.NEGATIVE_INFINITY;
+        for (int action = 0; action < numActions; action++) {
+            double currQ = dot(nextRow(sample, action), weights);
+            if (currQ > bestQ) {
+                bestQ = currQ;
+                bestAction = action;
+            }
+        }
+        return bestAction;
+    }
+
+    /**
+     * Copies a cached row into a dense array, overwriting every entry.
+     *
+     * @param row Cached row
+     * @param out Destination with one entry per feature
+     */
+    public void copyRow(int row, double[] out) {
+        if (dense != null) {
+            System.arraycopy(dense, row * numFeatures, out, 0, numFeatures);
+        } else {
+            Arrays.fill(out, 0);
+            for (int i = rowPointers[row]; i < rowPointers[row + 1]; i++) {
+                out[columnIndices[i]] = values[i];
+            }
+        }
+    }
+
+    /**
+     * Adds a scaled cached row to a dense array.
+     *
+     * @param row   Cached row
+     * @param scale Multiplier applied to the row
+     * @param out   Destination with one entry per feature
+     */
+    public void addRow(int row, double scale, double[] out) {
+        if (scale == 0) {
+            return;
+        }
+        if (dense != null) {
+            int offset = row * numFeatures;
+            for (int i = 0; i < numFeatures; i++) {
+                out[i] += scale * dense[offset + i];
+            }
+        } else {
+            for (int i = rowPointers[row]; i < rowPointers[row + 1]; i++) {
+                out[columnIndices[i]] += scale * values[i];
+            }
+        }
+    }
+
+    /**
+     * Converts a weight vector to a plain array for use with the methods above.
+     *
+     * @param weights Policy weights
+     * @return The weights as an array. Shares storage with weights if it is a DenseVector.
+     */
+    public static double[] toArray(Vector weights) {
+        if (weights instanceof DenseVector) {
+            return ((DenseVector) weights).getData();
+        }
+        double[] result = new double[weights.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = weights.get(i);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,145 @@
+package edu.cwru.eecs.rl.core.lspi;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+
+import edu.cwru.eecs.rl.types.Policy;
+import no.uib.cipr.matrix.Vector;
+
+/**
+ * LSTDQ over a feature cache that keeps A and b between LSPI iterations.
+ *
+ * <p>
+ * b does not depend on the policy and A only depends on it through the next action pi(s') of
+ * each sample. When a sample's next action changes from a to a' its term in A changes by
+ * gamma phi(s, a) (phi(s', a) - phi(s', a'))^T, so only the samples whose action changed need to
+ * be visited. Late in learning very few actions change and an iteration costs
+ * O(changed k^2) instead of O(n k^2). A is rebuilt from scratch on the first call and whenever
+ * more than rebuildFraction of the samples changed, where the corrections would cost more than
+ * starting over.
+ */
+public class IncrementalLstdq {
+
+    public static final Logger logger = LoggerFactory.getLogger(IncrementalLstdq.class);
+
+    /**
+     * A correction copies one more row than adding a sample does, so once about half of the
+     * samples changed a rebuild is no slower and does not carry over any rounding error.
+     */
+    public static final double DEFAULT_REBUILD_FRACTION = .5;
+
+    public double rebuildFraction = DEFAULT_REBUILD_FRACTION;
+
+    private final FeatureCache featureCache;
+    private final double gamma;
+
+    // next action used for each sample in A, -1 for absorbing samples
+    private final int[] previousActions;
+    private final int[] nextActions;
+    private LstdqAccumulator accumulator;
+    private int lastChanged;
+
+    // scratch space reused by every update
+    private final double[] phi;
+    private final double[] phiNext;
+    private final double[] phiOld;
+
+    /**
+     * Constructs an incremental evaluator. Nothing is accumulated until the first call to
+     * evaluate.
+     *
+     * @param featureCache Features of the samples under the policy's basis
+     * @param gamma        Discount factor
+     */
+    public IncrementalLstdq(FeatureCache featureCache, double gamma) {
+        this.featureCache = featureCache;
+        this.gamma = gamma;
+        this.previousActions = new int[featureCache.numSamples()];
+        this.nextActions = new int[featureCache.numSamples()];
+        this.phi = new double[featureCache.numFeatures()];
+        this.phiNext = new double[featureCache.numFeatures()];
+        this.phiOld = new double[featureCache.numFeatures()];
+    }
+
+    /**
+     * Evaluates the policy, updating A for the samples whose next action changed since the last
+     * call, and solves the system.
+     *
+     * @param policy Policy being evaluated. Must use the basis the cache was built with.
+     * @param solver Solver for the accumulated system
+     * @return New policy weights or null if the solver failed
+     */
+    public Vector evaluate(Policy policy, LstdqSolver solver) {
+        int numSamples = featureCache.numSamples();
+        double[] weights = FeatureCache.toArray(policy.weights);
+
+        long startTime = System.nanoTime();
+        lastChanged = 0;
+        for (int i = 0; i < numSamples; i++) {
+            if (featureCache.absorb(i)) {
+                nextActions[i] = -1;
+            } else {
+                nextActions[i] = Lspi.cachedAction(featureCache, i, policy, weights);
+            }
+            if (nextActions[i] != previousActions[i]) {
+                lastChanged++;
+            }
+        }
+
+        if (accumulator == null || lastChanged > rebuildFraction * numSamples) {
+            logger.info("Rebuilding A from {} samples", numSamples);
+            rebuild();
+        } else {
+            logger.info("Updating A for {} of {} samples", lastChanged, numSamples);
+            for (int i = 0; i < numSamples; i++) {
+                if (nextActions[i] != previousActions[i]) {
+                    correct(i);
+                }
+            }
+        }
+        System.arraycopy(nextActions, 0, previousActions, 0, numSamples);
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        logger.info("Updated the system in {} s", seconds);
+
+        return solver.solve(accumulator.getA(), accumulator.getB(), policy.weights);
+    }
+
+    /**
+     * Number of samples whose next action changed in the last call to evaluate.
+     *
+     * @return Changed sample count
+     */
+    public int getLastChanged() {
+        return lastChanged;
+    }
+
+    /**
+     * Discards the accumulated system so the next evaluation starts from scratch.
+     */
+    public void reset() {
+        accumulator = null;
+    }
+
+    private void rebuild() {
+        accumulator = new LstdqAccumulator(featureCache.numFeatures());
+        for (int i = 0; i < featureCache.numSamples(); i++) {
+            featureCache.copyRow(featureCache.currentRow(i), phi);
+            if (nextActions[i] < 0) {
+                Arrays.fill(phiNext, 0);
+            } else {
+                featureCache.copyRow(featureCache.nextRow(i, nextActions[i]), phiNext);
+            }
+            accumulator.add(phi, phiNext, featureCache.reward(i), gamma);
+        }
+    }
+
+    private void correct(int sample) {
+        // A += gamma phi(s, a) (phi(s', old) - phi(s', new))^T
+        featureCache.copyRow(featureCache.currentRow(sample), phi);
+        featureCache.copyRow(featureCache.nextRow(sample, previousActions[sample]), phiOld);
+        featureCache.addRow(featureCache.nextRow(sample, nextActions[sample]), -1, phiOld);
+        accumulator.addOuter(phi, phiOld, gamma);
+    }
+}
@@ -5,14 +5,19 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import edu.cwru.eecs.rl.basisfunctions.ExactBasis;
+import edu.cwru.eecs.rl.types.ActionBlockBasisFunctions;
 import edu.cwru.eecs.rl.types.Policy;
 import edu.cwru.eecs.rl.types.Sample;
-import no.uib.cipr.matrix.DenseMatrix;
+import edu.cwru.eecs.rl.types.SampleBatch;
+import edu.cwru.eecs.rl.types.SampleFile;
+import edu.cwru.eecs.rl.types.TrajectoryBatch;
 import no.uib.cipr.matrix.DenseVector;
-import no.uib.cipr.matrix.Matrices;
 import no.uib.cipr.matrix.Matrix;
 import no.uib.cipr.matrix.Vector;
 
@@ -20,12 +25,14 @@ public class Lspi implements Serializable {
 
     public static final Logger logger = LoggerFactory.getLogger(Lspi.class);
 
-    public enum PolicyImprover {LSTDQ_MTJ, LSTDQ_EXACT_MTJ}
+    public enum PolicyImprover {LSTDQ_MTJ, LSTDQ_EXACT_MTJ, LSTDQ_MTJ_PARALLEL,
+        LSTDQ_EXACT_MTJ_PARALLEL, LSTDQ_MTJ_CACHED, LSTDQ_MATRIX_FREE, LSTDQ_MTJ_INCREMENTAL,
+        LSTDQ_MTJ_BLOCK}
 
     /**
      * Learn the policy given the samples and initial policy. Uses the lstdq Policy Improver.
      *
-     * @param samples        List of samples from the enviroment that the policy applies to
+     * @param samples        Samples from the enviroment that the policy applies to
      * @param initialPolicy  Starting policy. Can be random weights.
      * @param gamma          Discount factor
      * @param epsilon        lstdq policy improvement tolerance. Stops when policy changes by less
@@ -34,35 +41,181 @@ public class Lspi implements Serializable {
      * @param policyImprover Specifies the lstdq strategy
      * @return The learned policy
      */
-    public static Policy learn(List<Sample> samples,
+    public static Policy learn(Iterable<Sample> samples,
                                Policy initialPolicy,
                                double gamma,
                                double epsilon,
                                int maxIterations,
                                PolicyImprover policyImprover) {
+        return learn(samples, initialPolicy, gamma, epsilon, maxIterations, policyImprover,
+                ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Learn the policy given the samples and initial policy. The parallel policy improvers split
+     * the samples across the given fork-join pool.
+     *
+     * @param samples        Samples from the enviroment that the policy applies to
+     * @param initialPolicy  Starting policy. Can be random weights.
+     * @param gamma          Discount factor
+     * @param epsilon        lstdq policy improvement tolerance. Stops when policy changes by less
+     *                       than epsilon.
+     * @param maxIterations  If tolerance is not achieved by maxIterations then stop.
+     * @param policyImprover Specifies the lstdq strategy
+     * @param pool           Pool used by the parallel policy improvers
+     * @return The learned policy
+     */
+    public static Policy learn(Iterable<Sample> samples,
+                               Policy initialPolicy,
+                               double gamma,
+                               double epsilon,
+                               int maxIterations,
+                               PolicyImprover policyImprover,
+                               ForkJoinPool pool) {
+        return learn(samples, initialPolicy, gamma, epsilon, maxIterations, policyImprover,
+                pool, new LstdqSolver());
+    }
+
+    /**
+     * Learn the policy given the samples and initial policy, solving each LSTDQ system with the
+     * given solver.
+     *
+     * @param samples        Samples from the enviroment that the policy applies to
+     * @param initialPolicy  Starting policy. Can be random weights.
+     * @param gamma          Discount factor
+     * @param epsilon        lstdq policy improvement tolerance. Stops when policy changes by less
+     *                       than epsilon.
+     * @param maxIterations  If tolerance is not achieved by maxIterations then stop.
+     * @param policyImprover Specifies the lstdq strategy
+     * @param solver         Solves the LSTDQ systems. Its iteration count is logged at the end.
+     * @return The learned policy
+     */
+    public static Policy learn(Iterable<Sample> samples,
+                               Policy initialPolicy,
+                               double gamma,
+                               double epsilon,
+                               int maxIterations,
+                               PolicyImprover policyImprover,
+                               LstdqSolver solver) {
+        return learn(samples, initialPolicy, gamma, epsilon, maxIterations, policyImprover,
+                ForkJoinPool.commonPool(), solver);
+    }
+
+    /**
+     * Learn the policy given the samples and initial policy.
+     *
+     * <p>
+     * LSTDQ_MTJ, LSTDQ_EXACT_MTJ and LSTDQ_MTJ_BLOCK make one pass over the samples per iteration
+     * and do not keep them, so samples can be any re-iterable source, such as one that reads them
+     * back from disk on every call to iterator(). Memory is then bounded by the size of A. The
+     * other improvers need random access to the samples: a List, a SampleBatch, a TrajectoryBatch
+     * or a SampleFile.
+     *
+     * @param samples        Samples from the enviroment that the policy applies to
+     * @param initialPolicy  Starting policy. Can be random weights.
+     * @param gamma          Discount factor
+     * @param epsilon        lstdq policy improvement tolerance. Stops when policy changes by less
+     *                       than epsilon.
+     * @param maxIterations  If tolerance is not achieved by maxIterations then stop.
+     * @param policyImprover Specifies the lstdq strategy
+     * @param pool           Pool used by the parallel policy improvers
+     * @param solver         Solves the LSTDQ systems. Its iteration count is logged at the end.
+     * @return The learned policy
+     * @throws IllegalArgumentException If samples is not a List and the improver requires one
+     */
+    public static Policy learn(Iterable<Sample> samples,
+                               Policy initialPolicy,
+                               double gamma,
+                               double epsilon,
+                               int maxIterations,
+                               PolicyImprover policyImprover,
+                               ForkJoinPool pool,
+                               LstdqSolver solver) {
+        List<Sample> sampleList = null;
+        if (samples instanceof List) {
+            sampleList = (List<Sample>) samples;
+        } else if (samples instanceof SampleBatch) {
+            sampleList = ((SampleBatch) samples).asList();
+        } else if (samples instanceof TrajectoryBatch) {
+            sampleList = ((TrajectoryBatch) samples).asList();
+        } else if (samples instanceof SampleFile
+                && ((SampleFile) samples).size() <= Integer.MAX_VALUE) {
+            sampleList = ((SampleFile) samples).asList();
+        } else if (policyImprover != PolicyImprover.LSTDQ_MTJ
+                && policyImprover != PolicyImprover.LSTDQ_EXACT_MTJ
+                && policyImprover != PolicyImprover.LSTDQ_MTJ_BLOCK) {
+            throw new IllegalArgumentException(policyImprover + " requires a List of samples. "
+                    + "Only LSTDQ_MTJ, LSTDQ_EXACT_MTJ and LSTDQ_MTJ_BLOCK can stream the "
+                    + "samples.");
+        }
+
         Policy oldPolicy;
         Policy newPolicy = initialPolicy;
         int iteration = 0;
         double normInf;
+
+        // the basis does not change between iterations so its features only need evaluating once
+        FeatureCache featureCache = null;
+        if (policyImprover == PolicyImprover.LSTDQ_MTJ_CACHED
+                || policyImprover == PolicyImprover.LSTDQ_MATRIX_FREE
+                || policyImprover == PolicyImprover.LSTDQ_MTJ_INCREMENTAL) {
+            logger.info("Caching sample features");
+            featureCache =
+                    new FeatureCache(sampleList, initialPolicy.basis, initialPolicy.actions);
+        }
+        // A and b carry over between iterations, only the changed samples are updated
+        IncrementalLstdq incrementalLstdq = null;
+        if (policyImprover == PolicyImprover.LSTDQ_MTJ_INCREMENTAL) {
+            incrementalLstdq = new IncrementalLstdq(featureCache, gamma);
+        }
+
+        long startKrylovIterations = solver.getTotalIterations();
+        long startSorSweeps = solver.getTotalSorSweeps();
+        solver.resetTolerance();
         do {
             logger.info("Starting iteration {}", iteration);
             oldPolicy = new Policy(newPolicy);
             switch (policyImprover) {
                 case LSTDQ_EXACT_MTJ:
-                    newPolicy.weights = lstdqExactMtj(samples, oldPolicy, gamma);
+                    newPolicy.weights = lstdqExactMtj(samples, oldPolicy, gamma, solver);
+                    break;
+                case LSTDQ_EXACT_MTJ_PARALLEL:
+                    newPolicy.weights =
+                            lstdqExactMtjParallel(sampleList, oldPolicy, gamma, pool, solver);
+                    break;
+                case LSTDQ_MTJ_PARALLEL:
+                    newPolicy.weights =
+                            lstdqMtjParallel(sampleList, oldPolicy, gamma, pool, solver);
+                    break;
+                case LSTDQ_MTJ_CACHED:
+                    newPolicy.weights = lstdqMtj(featureCache, oldPolicy, gamma, solver);
+                    break;
+                case LSTDQ_MATRIX_FREE:
+                    newPolicy.weights = lstdqMatrixFree(featureCache, oldPolicy, gamma, solver);
+                    break;
+                case LSTDQ_MTJ_INCREMENTAL:
+                    newPolicy.weights = incrementalLstdq.evaluate(oldPolicy, solver);
+                    break;
+                case LSTDQ_MTJ_BLOCK:
+                    newPolicy.weights = lstdqBlockMtj(samples, oldPolicy, gamma, solver);
                     break;
                 case LSTDQ_MTJ:
                     // fall through
                 default:
-                    newPolicy.weights = lstdqMtj(samples, oldPolicy, gamma);
+                    newPolicy.weights = lstdqMtj(samples, oldPolicy, gamma, solver);
             }
             iteration++;
             assert newPolicy.weights != null;
             Vector newWeights = newPolicy.weights.copy();
             normInf = newWeights.add(-1, oldPolicy.weights).norm(Vector.Norm.Infinity);
             logger.info("normInf: {}", normInf);
+            solver.updateTolerance(normInf);
         } while (normInf > epsilon && iteration <= maxIterations);
 
+        logger.info("Total Krylov iterations: {}",
+                solver.getTotalIterations() - startKrylovIterations);
+        logger.info("Total SOR sweeps: {}", solver.getTotalSorSweeps() - startSorSweeps);
+
         if (iteration >= maxIterations) {
             logger.info("Lspi failed to converge within {}", maxIterations);
             logger.info("Epsilon: {} normInf: {}", epsilon, normInf);
@@ -71,126 +224,432 @@ public class Lspi implements Serializable {
         return newPolicy;
     }
 
-    public static Vector lstdqMtj(List<Sample> samples,
+    public static Vector lstdqMtj(Iterable<Sample> samples,
                                   Policy policy,
                                   double gamma) {
+        return lstdqMtj(samples, policy, gamma, new LstdqSolver());
+    }
+
+    /**
+     * Evaluates the policy on the samples and solves the LSTDQ system with the given solver.
+     *
+     * @param samples Samples to evaluate the policy with
+     * @param policy  Policy being evaluated
+     * @param gamma   Discount factor
+     * @param solver  Solver for the accumulated system
+     * @return New policy weights or null if the solver failed
+     */
+    public static Vector lstdqMtj(Iterable<Sample> samples,
+                                  Policy policy,
+                                  double gamma,
+                                  LstdqSolver solver) {
         int basisSize = policy.basis.size();
-        Matrix matA = Matrices.identity(basisSize).scale(.01);
+        LstdqAccumulator accumulator = new LstdqAccumulator(basisSize);
 
-        Vector vecB = new DenseVector(basisSize);
+        logger.info("Evaluating the samples");
+        long startTime = System.nanoTime();
+        SparseSampleAdder sparseAdder = SparseSampleAdder.forPolicy(policy);
+        for (Sample sample : samples) {
+            if (sparseAdder != null) {
+                sparseAdder.addSample(sample, gamma, accumulator);
+            } else {
+                addSample(sample, policy, gamma, accumulator);
+            }
+        }
+        logSampleRate(accumulator.getNumSamples(), System.nanoTime() - startTime);
+
+        return solver.solve(accumulator.getA(), accumulator.getB(), policy.weights);
+    }
+
+    public static Vector lstdqBlockMtj(Iterable<Sample> samples,
+                                       Policy policy,
+                                       double gamma) {
+        return lstdqBlockMtj(samples, policy, gamma, new LstdqSolver());
+    }
+
+    /**
+     * Same as lstdqMtj for a basis made of one block of features per action. A sample taken with
+     * action a whose next action is a' only touches the blocks (a, a) and (a, a') of A, so A is
+     * stored as a grid of action blocks of which only the touched ones are allocated, and the
+     * solver's products skip the rest. With k features and n actions each sample costs
+     * O((k/n)^2) and a policy that only chooses a few next actions per action needs a fraction of
+     * the k^2 entries of a dense A. GMRES is preconditioned with the diagonal blocks unless the
+     * solver is told otherwise. A is not a DenseMatrix, so there is no LU fallback when GMRES
+     * runs out of budget; the best iterate is returned and a warning is logged.
+     *
+     * @param samples Samples to evaluate the policy with
+     * @param policy  Policy being evaluated
+     * @param gamma   Discount factor
+     * @param solver  Solver for the accumulated system
+     * @return New policy weights, which may not have converged
+     * @throws IllegalArgumentException If the policy's basis is not an ActionBlockBasisFunctions
+     */
+    public static Vector lstdqBlockMtj(Iterable<Sample> samples,
+                                       Policy policy,
+                                       double gamma,
+                                       LstdqSolver solver) {
+        if (!(policy.basis instanceof ActionBlockBasisFunctions)) {
+            throw new IllegalArgumentException("Block LSTDQ requires an "
+                    + "ActionBlockBasisFunctions but got " + policy.basis.getClass().getName());
+        }
+        int blockSize = ((ActionBlockBasisFunctions) policy.basis).blockSize();
+        BlockLstdqAccumulator accumulator = new BlockLstdqAccumulator(policy.actions, blockSize);
 
         logger.info("Evaluating the samples");
+        long startTime = System.nanoTime();
+        SparseSampleAdder sparseAdder = SparseSampleAdder.forPolicy(policy);
         for (Sample sample : samples) {
+            sparseAdder.addSample(sample, gamma, accumulator);
+        }
+        logSampleRate(accumulator.getNumSamples(), System.nanoTime() - startTime);
+        logger.info("A has {} of {} action blocks", accumulator.getA().numBlocks(),
+                policy.actions * policy.actions);
+
+        Vector vecX = solver.solve(accumulator.getA(), accumulator.getB(), policy.weights);
+        if (!solver.isLastConverged()) {
+            logger.warn("Block LSTDQ solve did not converge, relative residual {}",
+                    solver.getLastResidual());
+        }
+        return vecX;
+    }
+
+    /**
+     * Same as lstdqMtj, but the samples are split across a fork-join pool. Each task accumulates
+     * its own A and b and the partial systems are summed pairwise as the tasks join.
+     *
+     * @param samples Samples to evaluate the policy with
+     * @param policy  Policy being evaluated
+     * @param gamma   Discount factor
+     * @param pool    Pool to run the accumulation on
+     * @return New policy weights or null if the solver did not converge
+     */
+    public static Vector lstdqMtjParallel(List<Sample> samples,
+                                          Policy policy,
+                                          double gamma,
+                                          ForkJoinPool pool) {
+        return lstdqMtjParallel(samples, policy, gamma, pool, new LstdqSolver());
+    }
+
+    /**
+     * Same as lstdqMtjParallel, solving the summed system with the given solver.
+     *
+     * @param samples Samples to evaluate the policy with
+     * @param policy  Policy being evaluated
+     * @param gamma   Discount factor
+     * @param pool    Pool to run the accumulation on
+     * @param solver  Solver for the accumulated system
+     * @return New policy weights or null if the solver failed
+     */
+    public static Vector lstdqMtjParallel(List<Sample> samples,
+                                          Policy policy,
+                                          double gamma,
+                                          ForkJoinPool pool,
+                                          LstdqSolver solver) {
+        logger.info("Evaluating the samples on {} threads", pool.getParallelism());
+        long startTime = System.nanoTime();
+        LstdqAccumulator accumulator = ParallelLstdq.accumulate(samples, policy, gamma, pool);
+        logSampleRate(accumulator.getNumSamples(), System.nanoTime() - startTime);
+
+        return solver.solve(accumulator.getA(), accumulator.getB(), policy.weights);
+    }
+
+    /**
+     * Same as lstdqMtj, but reads the features from a cache instead of evaluating the basis. Only
+     * the greedy next action has to be recomputed for each sample.
+     *
+     * @param featureCache Features of the samples under the policy's basis
+     * @param policy       Policy being evaluated
+     * @param gamma        Discount factor
+     * @return New policy weights or null if the solver did not converge
+     */
+    public static Vector lstdqMtj(FeatureCache featureCache,
+                                  Policy policy,
+                                  double gamma) {
+        return lstdqMtj(featureCache, policy, gamma, new LstdqSolver());
+    }
+
+    /**
+     * Same as lstdqMtj over a feature cache, solving the system with the given solver.
+     *
+     * @param featureCache Features of the samples under the policy's basis
+     * @param policy       Policy being evaluated
+     * @param gamma        Discount factor
+     * @param solver       Solver for the accumulated system
+     * @return New policy weights or null if the solver failed
+     */
+    public static Vector lstdqMtj(FeatureCache featureCache,
+                                  Policy policy,
+                                  double gamma,
+                                  LstdqSolver solver) {
+        int basisSize = featureCache.numFeatures();
+        LstdqAccumulator accumulator = new LstdqAccumulator(basisSize);
+        double[] weights = FeatureCache.toArray(policy.weights);
+        double[] phi = new double[basisSize];
+        double[] phiNext = new double[basisSize];
+
+        logger.info("Evaluating the cached samples");
+        long startTime = System.nanoTime();
+        for (int i = 0; i < featureCache.numSamples(); i++) {
             // Find the value of pi(s')
-            int bestAction = 0;
-            try {
-                bestAction = policy.evaluate(sample.nextState);
-            } catch (Exception e) {
-                logger.error("Failed to evaluate the policy. Reason: {}", e.getMessage(), e);
-            }
+            int bestAction = cachedAction(featureCache, i, policy, weights);
 
-            // phi(s,a)
-            Vector phi1 = policy.getPhi(sample.currState, sample.action);
-            // phi(s,a)
-            Vector phi2 = phi1.copy();
-            // phi(s', pi(s'))
-            Vector phi3 = new SparseVector(phi2.size());
-            if(!sample.absorb) {
-                phi3 = policy.getPhi(sample.nextState, bestAction);
+            featureCache.copyRow(featureCache.currentRow(i), phi);
+            if (featureCache.absorb(i)) {
+                Arrays.fill(phiNext, 0);
+            } else {
+                featureCache.copyRow(featureCache.nextRow(i, bestAction), phiNext);
             }
 
-            // update matA
-            Matrix y = new DenseMatrix(phi2.add(phi3.scale(-gamma)));
-            Matrix x = new DenseMatrix(phi1);
-            x.transBmultAdd(y, matA);
+            accumulator.add(phi, phiNext, featureCache.reward(i), gamma);
+        }
+        logSampleRate(accumulator.getNumSamples(), System.nanoTime() - startTime);
+
+        return solver.solve(accumulator.getA(), accumulator.getB(), policy.weights);
+    }
+
+    /**
+     * Evaluates the policy without ever forming A. GMRES is given an LstdqOperator that applies
+     * A = .01 I + Phi^T (Phi - gamma Phi') through the cached features, so memory scales with the
+     * number of cached non-zeros instead of with the square of the basis size.
+     *
+     * @param featureCache Features of the samples under the policy's basis
+     * @param policy       Policy being evaluated
+     * @param gamma        Discount factor
+     * @return New policy weights or null if the solver did not converge
+     */
+    public static Vector lstdqMatrixFree(FeatureCache featureCache,
+                                         Policy policy,
+                                         double gamma) {
+        return lstdqMatrixFree(featureCache, policy, gamma, new LstdqSolver());
+    }
+
+    /**
+     * Same as lstdqMatrixFree with the given solver. The operator can only be used with iterative
+     * methods, so direct methods fall back to GMRES.
+     *
+     * @param featureCache Features of the samples under the policy's basis
+     * @param policy       Policy being evaluated
+     * @param gamma        Discount factor
+     * @param solver       Solver for the operator system
+     * @return New policy weights or null if the solver did not converge
+     */
+    public static Vector lstdqMatrixFree(FeatureCache featureCache,
+                                         Policy policy,
+                                         double gamma,
+                                         LstdqSolver solver) {
+        int basisSize = featureCache.numFeatures();
+        int numSamples = featureCache.numSamples();
+        double[] weights = FeatureCache.toArray(policy.weights);
+        int[] currRows = new int[numSamples];
+        int[] nextRows = new int[numSamples];
+        double[] vecB = new double[basisSize];
 
-            // update vecB
-            vecB.add(sample.reward, phi1);
+        logger.info("Selecting greedy actions for the cached samples");
+        long startTime = System.nanoTime();
+        for (int i = 0; i < numSamples; i++) {
+            int bestAction = cachedAction(featureCache, i, policy, weights);
+            currRows[i] = featureCache.currentRow(i);
+            nextRows[i] = featureCache.absorb(i) ? -1 : featureCache.nextRow(i, bestAction);
+            featureCache.addRow(currRows[i], featureCache.reward(i), vecB);
         }
+        logSampleRate(numSamples, System.nanoTime() - startTime);
+
+        Matrix matA = new LstdqOperator(featureCache, currRows, nextRows, gamma, .01);
+        return solver.solve(matA, new DenseVector(vecB, false), policy.weights);
+    }
 
-        logger.info("Solving matrix equations");
-        IterativeSolver solver = new GMRES(vecB);
+    /**
+     * The next action for a cached sample: random with probability policy.explore, drawn from the
+     * policy's random source, otherwise greedy with respect to the weights.
+     */
+    static int cachedAction(FeatureCache featureCache,
+                            int sample,
+                            Policy policy,
+                            double[] weights) {
+        if (policy.explore > 0) {
+            Random random = policy.getRandom();
+            if (random.nextDouble() < policy.explore) {
+                return (int) (random.nextDouble() * policy.actions);
+            }
+        }
+        return featureCache.greedyAction(sample, weights);
+    }
 
-        Vector vecX = new DenseVector(basisSize);
+    /**
+     * Adds the contribution of a single sample to the LSTDQ system.
+     */
+    static void addSample(Sample sample,
+                          Policy policy,
+                          double gamma,
+                          LstdqAccumulator accumulator) {
+        // Find the value of pi(s')
+        int bestAction = 0;
         try {
-            vecX = solver.solve(matA, vecB, vecX);
-        } catch (IterativeSolverNotConvergedException e) {
-            logger.error("IterativeSolverNotConvergedException: {}", e.getMessage(), e);
-            return null;
+            bestAction = policy.evaluate(sample.nextState);
+        } catch (Exception e) {
+            logger.error("Failed to evaluate the policy. Reason: {}", e.getMessage(), e);
         }
 
-        return vecX;
+        // phi(s,a)
+        Vector phi1 = policy.getPhi(sample.currState, sample.action);
+        // phi(s', pi(s'))
+        Vector phi2 = null;
+        if (!sample.absorb) {
+            phi2 = policy.getPhi(sample.nextState, bestAction);
+        }
+
+        // update matA and vecB in place
+        accumulator.add(phi1, phi2, sample.reward, gamma);
+    }
+
+    private static void logSampleRate(long numSamples, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        logger.info("Accumulated {} samples in {} s ({} samples/s)",
+                numSamples, seconds, seconds > 0 ? numSamples / seconds : 0);
     }
 
-    public static Vector lstdqExactMtj(List<Sample> samples,
+    public static Vector lstdqExactMtj(Iterable<Sample> samples,
                                        Policy policy,
                                        double gamma) {
-        ExactBasis basis;
-        if (policy.basis instanceof ExactBasis) {
-            basis = (ExactBasis) policy.basis;
-        } else {
+        return lstdqExactMtj(samples, policy, gamma, new LstdqSolver());
+    }
+
+    /**
+     * Evaluates a policy with an ExactBasis by building the sparse LSTDQ system directly from the
+     * state-action indices.
+     *
+     * @param samples Samples to evaluate the policy with
+     * @param policy  Policy being evaluated. Should use an ExactBasis.
+     * @param gamma   Discount factor
+     * @param solver  Solves the sparse system within its iteration and time budget
+     * @return New policy weights
+     */
+    public static Vector lstdqExactMtj(Iterable<Sample> samples,
+                                       Policy policy,
+                                       double gamma,
+                                       LstdqSolver solver) {
+        if (!(policy.basis instanceof ExactBasis)) {
             logger.error("LSTDQExact requires a policy with a "
                     + "basis function of class ExactBasis.class. "
                     + "Running normal LSTDQ instead.");
-            return lstdqMtj(samples, policy, gamma);
-        }
-
-        int basisSize = policy.basis.size();
-        Matrix matA = new LinkedSparseMatrix(basisSize, basisSize);
-        logger.info("Preconditioning matrix");
-        for (int i = 0; i < basisSize; i++) {
-            matA.set(i, i, .01);
+            return lstdqMtj(samples, policy, gamma, solver);
         }
-        Vector vecB = new DenseVector(basisSize);
+        ExactBasis basis = (ExactBasis) policy.basis;
 
         logger.info("Evaluating samples");
+        long startTime = System.nanoTime();
+        SparseLstdqAccumulator accumulator = new SparseLstdqAccumulator(basis.size());
+        // indices of the current sample, the samples are not retained
+        int[] currIndex = new int[1];
+        int[] nextIndex = new int[1];
+        long numSamples = 0;
         for (Sample sample : samples) {
-            int bestAction = 0;
-            try {
-                bestAction = policy.evaluate(sample.nextState);
-            } catch (Exception e) {
-                logger.error("Failed to evaluate the policy. Reason: {}", e.getMessage(), e);
-            }
+            addExactIndices(sample, policy, basis, 0, currIndex, nextIndex);
+            accumulator.addExactSample(currIndex[0], nextIndex[0], sample.reward, gamma);
+            numSamples++;
+        }
+        logSampleRate(numSamples, System.nanoTime() - startTime);
 
-            int currStateIndex = basis.getStateActionIndex(sample.currState, sample.action);
-            int nextStateIndex = basis.getStateActionIndex(sample.nextState, bestAction);
+        return solveExact(accumulator, policy, solver);
+    }
 
-            if(sample.absorb) {
-                matA.set(currStateIndex, currStateIndex, matA.get(currStateIndex, currStateIndex) + 1);
-            } else {
-                if (currStateIndex == nextStateIndex) {
-                    matA.set(currStateIndex, currStateIndex, matA.get(currStateIndex, currStateIndex) + 1 - gamma);
-                } else {
-                    matA.set(currStateIndex, currStateIndex, matA.get(currStateIndex, currStateIndex) + 1);
-                    matA.set(currStateIndex, nextStateIndex, matA.get(currStateIndex, nextStateIndex) - gamma);
-                }
-            }
+    /**
+     * Same as lstdqExactMtj, but the greedy next actions and state-action indices are computed on
+     * a fork-join pool. With an exact basis that is where the time goes; the resulting indices are
+     * then assembled into the sparse system on the calling thread.
+     *
+     * @param samples Samples to evaluate the policy with
+     * @param policy  Policy being evaluated. Must use an ExactBasis.
+     * @param gamma   Discount factor
+     * @param pool    Pool to run the sample evaluation on
+     * @return New policy weights
+     */
+    public static Vector lstdqExactMtjParallel(List<Sample> samples,
+                                               Policy policy,
+                                               double gamma,
+                                               ForkJoinPool pool) {
+        return lstdqExactMtjParallel(samples, policy, gamma, pool, new LstdqSolver());
+    }
+
+    /**
+     * Same as lstdqExactMtjParallel, using the given solver's GMRES settings.
+     *
+     * @param samples Samples to evaluate the policy with
+     * @param policy  Policy being evaluated. Must use an ExactBasis.
+     * @param gamma   Discount factor
+     * @param pool    Pool to run the sample evaluation on
+     * @param solver  Solves the sparse system within its iteration and time budget
+     * @return New policy weights
+     */
+    public static Vector lstdqExactMtjParallel(List<Sample> samples,
+                                               Policy policy,
+                                               double gamma,
+                                               ForkJoinPool pool,
+                                               LstdqSolver solver) {
+        if (!(policy.basis instanceof ExactBasis)) {
+            logger.error("LSTDQExact requires a policy with a "
+                    + "basis function of class ExactBasis.class. "
+                    + "Running parallel LSTDQ instead.");
+            return lstdqMtjParallel(samples, policy, gamma, pool, solver);
+        }
+        ExactBasis basis = (ExactBasis) policy.basis;
+
+        logger.info("Evaluating samples on {} threads", pool.getParallelism());
+        long startTime = System.nanoTime();
+        int[] currIndices = new int[samples.size()];
+        int[] nextIndices = new int[samples.size()];
+        ParallelLstdq.exactIndices(samples, policy, basis, currIndices, nextIndices, pool);
+        logSampleRate(samples.size(), System.nanoTime() - startTime);
 
-            vecB.set(currStateIndex, vecB.get(currStateIndex) + sample.reward);
+        SparseLstdqAccumulator accumulator = new SparseLstdqAccumulator(basis.size());
+        int sampleIndex = 0;
+        for (Sample sample : samples) {
+            accumulator.addExactSample(currIndices[sampleIndex], nextIndices[sampleIndex],
+                    sample.reward, gamma);
+            sampleIndex++;
         }
+        return solveExact(accumulator, policy, solver);
+    }
 
-        logger.info("Solving matrix equations");
-        IterativeSolver solver = new GMRES(vecB);
-        int maxGmresIterations = 1000000;
-        solver.setIterationMonitor(new DefaultIterationMonitor(maxGmresIterations, 1e-5, 1e-50, 1e+5));
+    /**
+     * Stores the ExactBasis index of (s, a) and of (s', pi(s')) for a single sample. Absorbing
+     * samples get a next index of -1.
+     */
+    static void addExactIndices(Sample sample,
+                                Policy policy,
+                                ExactBasis basis,
+                                int sampleIndex,
+                                int[] currIndices,
+                                int[] nextIndices) {
+        int bestAction = 0;
+        try {
+            bestAction = policy.evaluate(sample.nextState);
+        } catch (Exception e) {
+            logger.error("Failed to evaluate the policy. Reason: {}", e.getMessage(), e);
+        }
 
-        Vector vecX = new DenseVector(basisSize);
+        currIndices[sampleIndex] = basis.getStateActionIndex(sample.currState, sample.action);
+        if (sample.absorb) {
+            nextIndices[sampleIndex] = -1;
+        } else {
+            nextIndices[sampleIndex] = basis.getStateActionIndex(sample.nextState, bestAction);
+        }
+    }
 
-        while (maxGmresIterations <= 1000000000) {
-            try {
-                vecX = solver.solve(matA, vecB, vecX);
-                break;
-            } catch (IterativeSolverNotConvergedException e) {
-                logger.error("IterativeSolverNotConvergedException: {}", e.getMessage(), e);
-                logger.error("Ran for {} iterations", solver.getIterationMonitor().iterations());
-            }
-            maxGmresIterations *= 10;
-            solver.setIterationMonitor(new DefaultIterationMonitor(maxGmresIterations,
-                    1e-5,
-                    1e-50,
-                    1e+5));
-            logger.info("Trying again with {} iterations", maxGmresIterations);
+    private static Vector solveExact(SparseLstdqAccumulator accumulator,
+                                     Policy policy,
+                                     LstdqSolver solver) {
+        logger.info("Compressing {} entries", accumulator.numEntries());
+        Matrix matA = accumulator.getA();
+        Vector vecB = accumulator.getB();
+
+        // warm start from the weights of the policy being evaluated. The solver stops at its
+        // budget and returns its best iterate rather than running until it converges.
+        Vector vecX = solver.solve(matA, vecB, policy.weights);
+        if (!solver.isLastConverged()) {
+            logger.warn("LSTDQ solve did not converge, relative residual {}",
+                    solver.getLastResidual());
         }
         return vecX;
     }
-}
\ No newline at end of file
+}
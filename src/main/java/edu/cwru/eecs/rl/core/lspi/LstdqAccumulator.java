@@ -0,0 +1,307 @@
+package edu.cwru.eecs.rl.core.lspi;
+
+import no.uib.cipr.matrix.DenseMatrix;
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Vector;
+import no.uib.cipr.matrix.sparse.SparseVector;
+
+import java.util.Arrays;
+
+/**
+ * Accumulates the LSTDQ linear system A w = b directly into primitive arrays.
+ *
+ * <p>
+ * Every sample applies the rank-one update A += phi (phi - gamma phi')^T and b += r phi in place.
+ * A is stored column-major so that it can be handed to MTJ as a DenseMatrix without copying. No
+ * objects are allocated per sample.
+ */
+public class LstdqAccumulator {
+
+    private final int size;
+    private final DenseMatrix matrix;
+    private final double[] matA;
+    private final double[] vecB;
+
+    // scratch space reused by every update
+    private final double[] phi;
+    private final double[] phiNext;
+    private final int[] nonZeroRows;
+
+    // scratch space of the sparse update, allocated on first use. The dense arrays are kept all
+    // zero between updates and columns are marked with the update's stamp.
+    private double[] sparsePhi;
+    private double[] sparsePhiNext;
+    private int[] columns;
+    private int[] columnStamps;
+    private int stamp;
+
+    private long numSamples;
+
+    /**
+     * Constructs an accumulator for a basis with the given number of features. A starts as .01
+     * times the identity, the same regularization the other LSTDQ implementations use.
+     *
+     * @param size Number of basis features
+     */
+    public LstdqAccumulator(int size) {
+        this(size, .01);
+    }
+
+    /**
+     * Constructs an accumulator whose A starts as ridge times the identity. Partial accumulators
+     * that are later merged with addAll should use a ridge of 0 so the regularization is only
+     * counted once.
+     *
+     * @param size  Number of basis features
+     * @param ridge Initial value of the diagonal of A
+     */
+    public LstdqAccumulator(int size, double ridge) {
+        this.size = size;
+        // allocate through MTJ and keep its storage. Wrapping an existing array with
+        // new DenseMatrix(n, n, data, false) briefly allocates a second n x n array.
+        this.matrix = new DenseMatrix(size, size);
+        this.matA = matrix.getData();
+        this.vecB = new double[size];
+        this.phi = new double[size];
+        this.phiNext = new double[size];
+        this.nonZeroRows = new int[size];
+
+        for (int i = 0; i < size; i++) {
+            matA[i * size + i] = ridge;
+        }
+    }
+
+    /**
+     * Adds a single sample to the system.
+     *
+     * @param phiCurr phi(s, a)
+     * @param phiNext phi(s', pi(s')) or null if the sample is absorbing
+     * @param reward  r
+     * @param gamma   Discount factor
+     */
+    public void add(Vector phiCurr, Vector phiNext, double reward, double gamma) {
+        copyInto(phiCurr, this.phi);
+        if (phiNext == null) {
+            Arrays.fill(this.phiNext, 0);
+        } else {
+            copyInto(phiNext, this.phiNext);
+        }
+        add(this.phi, this.phiNext, reward, gamma);
+    }
+
+    /**
+     * Adds a single sample to the system given dense features.
+     *
+     * @param phiCurr phi(s, a). Must have length size()
+     * @param phiNext phi(s', pi(s')). Must have length size(). All zeros for absorbing samples.
+     * @param reward  r
+     * @param gamma   Discount factor
+     */
+    public void add(double[] phiCurr, double[] phiNext, double reward, double gamma) {
+        int numNonZero = 0;
+        for (int i = 0; i < size; i++) {
+            if (phiCurr[i] != 0) {
+                nonZeroRows[numNonZero++] = i;
+                vecB[i] += reward * phiCurr[i];
+            }
+        }
+        if (numNonZero == 0) {
+            numSamples++;
+            return;
+        }
+
+        // A += phi (phi - gamma phi')^T, one column at a time
+        for (int col = 0; col < size; col++) {
+            double delta = phiCurr[col] - gamma * phiNext[col];
+            if (delta == 0) {
+                continue;
+            }
+            int offset = col * size;
+            for (int k = 0; k < numNonZero; k++) {
+                int row = nonZeroRows[k];
+                matA[offset + row] += phiCurr[row] * delta;
+            }
+        }
+        numSamples++;
+    }
+
+    /**
+     * Adds a single sample to the system given only its non-zero features, as reported by a
+     * SparseBasisFunctions. Only the columns where phi or phi' is non-zero are visited, so this
+     * takes O(nnz^2) time, and the result is exactly what the dense add gives.
+     *
+     * @param currIndices Feature indices of phi(s, a), without duplicates
+     * @param currValues  Feature values of phi(s, a)
+     * @param currCount   Number of features of phi(s, a)
+     * @param nextIndices Feature indices of phi(s', pi(s')), without duplicates
+     * @param nextValues  Feature values of phi(s', pi(s'))
+     * @param nextCount   Number of features of phi(s', pi(s')). 0 for absorbing samples.
+     * @param reward      r
+     * @param gamma       Discount factor
+     */
+    public void add(int[] currIndices, double[] currValues, int currCount,
+                    int[] nextIndices, double[] nextValues, int nextCount,
+                    double reward, double gamma) {
+        if (sparsePhi == null) {
+            sparsePhi = new double[size];
+            sparsePhiNext = new double[size];
+            columns = new int[size];
+            columnStamps = new int[size];
+        }
+        if (stamp == Integer.MAX_VALUE) {
+            Arrays.fill(columnStamps, 0);
+            stamp = 0;
+        }
+        stamp++;
+
+        int numNonZero = 0;
+        for (int j = 0; j < currCount; j++) {
+            int i = currIndices[j];
+            if (currValues[j] != 0) {
+                nonZeroRows[numNonZero++] = i;
+                vecB[i] += reward * currValues[j];
+                sparsePhi[i] = currValues[j];
+            }
+        }
+        if (numNonZero == 0) {
+            numSamples++;
+            return;
+        }
+
+        // the columns of A that can change are those where phi or phi' is non-zero
+        int numColumns = 0;
+        for (int k = 0; k < numNonZero; k++) {
+            int col = nonZeroRows[k];
+            columnStamps[col] = stamp;
+            columns[numColumns++] = col;
+        }
+        for (int j = 0; j < nextCount; j++) {
+            int col = nextIndices[j];
+            sparsePhiNext[col] = nextValues[j];
+            if (columnStamps[col] != stamp) {
+                columnStamps[col] = stamp;
+                columns[numColumns++] = col;
+            }
+        }
+
+        // A += phi (phi - gamma phi')^T, one column at a time
+        for (int c = 0; c < numColumns; c++) {
+            int col = columns[c];
+            double delta = sparsePhi[col] - gamma * sparsePhiNext[col];
+            if (delta == 0) {
+                continue;
+            }
+            int offset = col * size;
+            for (int k = 0; k < numNonZero; k++) {
+                int row = nonZeroRows[k];
+                matA[offset + row] += sparsePhi[row] * delta;
+            }
+        }
+
+        for (int c = 0; c < numColumns; c++) {
+            sparsePhi[columns[c]] = 0;
+            sparsePhiNext[columns[c]] = 0;
+        }
+        numSamples++;
+    }
+
+    /**
+     * Adds a scaled outer product to A without touching b or the sample count. Used to correct A
+     * when the next action of an already accumulated sample changes.
+     *
+     * @param left  Column vector. Must have length size()
+     * @param right Row vector. Must have length size()
+     * @param scale Multiplier applied to left right^T
+     */
+    public void addOuter(double[] left, double[] right, double scale) {
+        int numNonZero = 0;
+        for (int i = 0; i < size; i++) {
+            if (left[i] != 0) {
+                nonZeroRows[numNonZero++] = i;
+            }
+        }
+        if (numNonZero == 0) {
+            return;
+        }
+
+        for (int col = 0; col < size; col++) {
+            double value = scale * right[col];
+            if (value == 0) {
+                continue;
+            }
+            int offset = col * size;
+            for (int k = 0; k < numNonZero; k++) {
+                int row = nonZeroRows[k];
+                matA[offset + row] += left[row] * value;
+            }
+        }
+    }
+
+    /**
+     * Adds another accumulator's A and b into this one.
+     *
+     * @param other Accumulator over the same basis
+     */
+    public void addAll(LstdqAccumulator other) {
+        if (other.size != size) {
+            throw new IllegalArgumentException("Accumulator sizes do not match: "
+                    + size + " != " + other.size);
+        }
+        for (int i = 0; i < matA.length; i++) {
+            matA[i] += other.matA[i];
+        }
+        for (int i = 0; i < size; i++) {
+            vecB[i] += other.vecB[i];
+        }
+        numSamples += other.numSamples;
+    }
+
+    /**
+     * Returns A as an MTJ matrix. The matrix shares storage with this accumulator.
+     *
+     * @return A
+     */
+    public DenseMatrix getA() {
+        return matrix;
+    }
+
+    /**
+     * Returns b wrapped as an MTJ vector. The vector shares storage with this accumulator.
+     *
+     * @return b
+     */
+    public DenseVector getB() {
+        return new DenseVector(vecB, false);
+    }
+
+    /**
+     * Number of samples added so far.
+     *
+     * @return Sample count
+     */
+    public long getNumSamples() {
+        return numSamples;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static void copyInto(Vector source, double[] dest) {
+        if (source instanceof DenseVector) {
+            System.arraycopy(((DenseVector) source).getData(), 0, dest, 0, dest.length);
+        } else if (source instanceof SparseVector) {
+            Arrays.fill(dest, 0);
+            SparseVector sparse = (SparseVector) source;
+            int[] index = sparse.getRawIndex();
+            double[] data = sparse.getRawData();
+            for (int i = 0; i < sparse.getUsed(); i++) {
+                dest[index[i]] = data[i];
+            }
+        } else {
+            for (int i = 0; i < dest.length; i++) {
+                dest[i] = source.get(i);
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package edu.cwru.eecs.rl.core.lspi;
+
+import no.uib.cipr.matrix.AbstractMatrix;
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Vector;
+
+/**
+ * The LSTDQ matrix A = .01 I + Phi^T (Phi - gamma Phi') applied as an operator.
+ *
+ * <p>
+ * A is never formed. Each product makes two passes over the cached features of the selected
+ * rows: the first computes (Phi - gamma Phi') x one sample at a time and the second scatters those
+ * values back through Phi^T. Memory therefore scales with the number of cached non-zeros rather
+ * than with the square of the basis size, which lets iterative solvers such as GMRES handle bases
+ * far too large for a dense A.
+ */
+public class LstdqOperator extends AbstractMatrix {
+
+    private final FeatureCache featureCache;
+    private final int[] currRows;
+    private final int[] nextRows;
+    private final double gamma;
+    private final double ridge;
+
+    // (Phi - gamma Phi') x for the last product
+    private final double[] projected;
+
+    /**
+     * Constructs the operator for one policy evaluation step.
+     *
+     * @param featureCache Features of the samples
+     * @param currRows     Cache row holding phi(s, a) for each sample
+     * @param nextRows     Cache row holding phi(s', pi(s')) for each sample, -1 for absorbing
+     *                     samples
+     * @param gamma        Discount factor
+     * @param ridge        Multiple of the identity added to A
+     */
+    public LstdqOperator(FeatureCache featureCache,
+                         int[] currRows,
+                         int[] nextRows,
+                         double gamma,
+                         double ridge) {
+        super(featureCache.numFeatures(), featureCache.numFeatures());
+        this.featureCache = featureCache;
+        this.currRows = currRows;
+        this.nextRows = nextRows;
+        this.gamma = gamma;
+        this.ridge = ridge;
+        this.projected = new double[currRows.length];
+    }
+
+    @Override
+    public Vector multAdd(double alpha, Vector x, Vector y) {
+        checkMultAdd(x, y);
+
+        double[] xData = FeatureCache.toArray(x);
+
+        // first pass: t = (Phi - gamma Phi') x
+        for (int i = 0; i < currRows.length; i++) {
+            double value = featureCache.dot(currRows[i], xData);
+            if (nextRows[i] >= 0) {
+                value -= gamma * featureCache.dot(nextRows[i], xData);
+            }
+            projected[i] = value;
+        }
+
+        // second pass: y += alpha (ridge x + Phi^T t)
+        if (y instanceof DenseVector) {
+            double[] yData = ((DenseVector) y).getData();
+            for (int i = 0; i < currRows.length; i++) {
+                featureCache.addRow(currRows[i], alpha * projected[i], yData);
+            }
+            for (int i = 0; i < xData.length; i++) {
+                yData[i] += alpha * ridge * xData[i];
+            }
+        } else {
+            double[] result = new double[numRows];
+            for (int i = 0; i < currRows.length; i++) {
+                featureCache.addRow(currRows[i], alpha * projected[i], result);
+            }
+            for (int i = 0; i < result.length; i++) {
+                y.add(i, result[i] + alpha * ridge * xData[i]);
+            }
+        }
+        return y;
+    }
+}
@@ -0,0 +1,522 @@
+package edu.cwru.eecs.rl.core.lspi;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Serializable;
+
+import no.uib.cipr.matrix.DenseLU;
+import no.uib.cipr.matrix.DenseMatrix;
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Matrix;
+import no.uib.cipr.matrix.MatrixSingularException;
+import no.uib.cipr.matrix.NotConvergedException;
+import no.uib.cipr.matrix.QR;
+import no.uib.cipr.matrix.Vector;
+import no.uib.cipr.matrix.sparse.CompRowMatrix;
+import no.uib.cipr.matrix.sparse.DefaultIterationMonitor;
+import no.uib.cipr.matrix.sparse.DiagonalPreconditioner;
+import no.uib.cipr.matrix.sparse.GMRES;
+import no.uib.cipr.matrix.sparse.ILU;
+import no.uib.cipr.matrix.sparse.IterativeSolver;
+import no.uib.cipr.matrix.sparse.IterativeSolverNotConvergedException;
+import no.uib.cipr.matrix.sparse.Preconditioner;
+
+/**
+ * Solves the LSTDQ system A w = b.
+ *
+ * <p>
+ * GMRES is the default and works with any matrix, including the matrix-free LstdqOperator. For
+ * dense systems up to a few thousand features an LU or QR factorization is usually faster and
+ * always gives the same answer, so those can be selected instead. A direct solve falls back to
+ * GMRES when the factorization is singular or A is not dense, and GMRES falls back to LU on a
+ * dense A when it does not converge.
+ *
+ * <p>
+ * GMRES can be warm started from the previous policy's weights, which between LSPI iterations are
+ * usually close to the new solution. Convergence is always measured relative to ||b|| so a good
+ * starting guess means fewer iterations rather than a stricter target. With adaptiveTolerance set
+ * the early solves, while the policy is still changing a lot, are only done loosely. The solver
+ * counts every Krylov iteration it runs so the savings can be measured.
+ *
+ * <p>
+ * Each GMRES solve has an iteration and a wall clock budget. When either runs out the best
+ * iterate seen is returned, and getLastResidual() tells how good it is, instead of retrying with
+ * ever larger limits. Sparse systems such as the exact-basis A = .01 I + sum phi (phi - gamma
+ * phi')^T are row diagonally dominant, so ILU(0) is stable on them and cuts the iteration count
+ * by a large factor. It is used for every CompRowMatrix unless another preconditioner is chosen.
+ *
+ * <p>
+ * With an ExactBasis every sample adds one to a diagonal entry and -gamma to at most one other
+ * entry of its row, so A is the empirical tabular Bellman matrix. The SOR method solves it with
+ * Gauss-Seidel sweeps over the compressed rows. Every row has a diagonal larger than the sum of
+ * its off-diagonal magnitudes by at least .01, so the sweeps converge for any relaxation in
+ * (0, 1], and each sweep is a single O(entries) pass with no extra storage. That keeps tables with
+ * millions of state-action pairs within near-linear time.
+ */
+public class LstdqSolver implements Serializable {
+
+    public static final Logger logger = LoggerFactory.getLogger(LstdqSolver.class);
+
+    public enum Method {GMRES, LU, QR, SOR}
+
+    /**
+     * AUTO uses ILU for a CompRowMatrix, BLOCK_JACOBI for a BlockLstdqMatrix and no
+     * preconditioner for anything else.
+     */
+    public enum Preconditioning {NONE, JACOBI, ILU, BLOCK_JACOBI, AUTO}
+
+    /**
+     * Maximum number of GMRES iterations of a single solve. Same as MTJ's default.
+     */
+    public static final int DEFAULT_MAX_ITERATIONS = 100000;
+
+    public Method method;
+
+    public Preconditioning preconditioning = Preconditioning.AUTO;
+
+    /**
+     * Relaxation factor of the SOR sweeps. 1 is plain Gauss-Seidel.
+     */
+    public double relaxation = 1;
+
+    /**
+     * Iteration budget of a single GMRES solve.
+     */
+    public int maxIterations = DEFAULT_MAX_ITERATIONS;
+
+    /**
+     * Wall clock budget of a single GMRES solve in milliseconds. 0 means no limit.
+     */
+    public long timeLimitMillis = 0;
+
+    /**
+     * Relative residual ||b - Aw|| / ||b|| that GMRES solves to.
+     */
+    public double tolerance = 1e-5;
+
+    /**
+     * If true, GMRES only solves to max(tolerance, min(looseTolerance, forcingFactor * change))
+     * where change is the infinity norm of the last policy update.
+     */
+    public boolean adaptiveTolerance = false;
+    public double looseTolerance = 1e-2;
+    public double forcingFactor = .1;
+
+    private double lastPolicyChange = Double.POSITIVE_INFINITY;
+    private long totalIterations;
+    private int lastIterations;
+    private long totalSorSweeps;
+    private int lastSorSweeps;
+    private boolean lastConverged;
+    private double lastResidual = Double.NaN;
+
+    /**
+     * Constructs a GMRES solver.
+     */
+    public LstdqSolver() {
+        this(Method.GMRES);
+    }
+
+    /**
+     * Constructs a solver using the given method.
+     *
+     * @param method How to solve the system
+     */
+    public LstdqSolver(Method method) {
+        this.method = method;
+    }
+
+    /**
+     * Resets the adaptive tolerance schedule, so the next solve is a loose one. Called at the start
+     * of every LSPI run.
+     */
+    public void resetTolerance() {
+        lastPolicyChange = Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Records how much the policy changed in the last LSPI iteration. Only used when
+     * adaptiveTolerance is set.
+     *
+     * @param normInf Infinity norm of the change in weights
+     */
+    public void updateTolerance(double normInf) {
+        lastPolicyChange = normInf;
+    }
+
+    /**
+     * The relative residual tolerance the next GMRES solve will use.
+     *
+     * @return Relative tolerance
+     */
+    public double currentTolerance() {
+        if (!adaptiveTolerance) {
+            return tolerance;
+        }
+        return Math.max(tolerance, Math.min(looseTolerance, forcingFactor * lastPolicyChange));
+    }
+
+    /**
+     * Total number of GMRES iterations run by this solver.
+     *
+     * @return Iteration count
+     */
+    public long getTotalIterations() {
+        return totalIterations;
+    }
+
+    /**
+     * Number of GMRES iterations run by the last solve. 0 if the last solve did not use GMRES.
+     *
+     * @return Iteration count
+     */
+    public int getLastIterations() {
+        return lastIterations;
+    }
+
+    /**
+     * Total number of SOR sweeps run by this solver.
+     *
+     * @return Sweep count
+     */
+    public long getTotalSorSweeps() {
+        return totalSorSweeps;
+    }
+
+    /**
+     * Number of SOR sweeps run by the last solve. 0 if the last solve did not use SOR.
+     *
+     * @return Sweep count
+     */
+    public int getLastSorSweeps() {
+        return lastSorSweeps;
+    }
+
+    /**
+     * Whether the last iterative solve reached its tolerance within budget.
+     *
+     * @return True if GMRES or SOR converged
+     */
+    public boolean isLastConverged() {
+        return lastConverged;
+    }
+
+    /**
+     * Relative residual ||b - Aw|| / ||b|| of the weights returned by the last iterative solve.
+     *
+     * @return Relative residual
+     */
+    public double getLastResidual() {
+        return lastResidual;
+    }
+
+    /**
+     * Solves A w = b.
+     *
+     * @param matA A. Left unchanged.
+     * @param vecB b. Left unchanged.
+     * @return w or null if no method could solve the system
+     */
+    public Vector solve(Matrix matA, Vector vecB) {
+        return solve(matA, vecB, null);
+    }
+
+    /**
+     * Solves A w = b. Iterative methods start from the initial guess, direct methods ignore it.
+     *
+     * @param matA         A. Left unchanged.
+     * @param vecB         b. Left unchanged.
+     * @param initialGuess Starting point for GMRES, usually the previous weights. May be null.
+     * @return w or null if no method could solve the system
+     */
+    public Vector solve(Matrix matA, Vector vecB, Vector initialGuess) {
+        lastIterations = 0;
+        lastSorSweeps = 0;
+        switch (method) {
+            case LU:
+                // fall through
+            case QR:
+                if (matA instanceof DenseMatrix) {
+                    Vector vecX = solveDirect((DenseMatrix) matA, vecB, method);
+                    if (vecX != null) {
+                        return vecX;
+                    }
+                    logger.warn("{} failed. Falling back to GMRES", method);
+                } else {
+                    logger.warn("{} requires a dense matrix. Using GMRES instead", method);
+                }
+                return solveGmres(matA, vecB, initialGuess);
+            case SOR:
+                if (matA instanceof CompRowMatrix) {
+                    Vector vecX = solveSor((CompRowMatrix) matA, vecB, initialGuess);
+                    if (lastConverged) {
+                        return vecX;
+                    }
+                    logger.warn("SOR did not converge. Continuing with GMRES");
+                    return solveGmres(matA, vecB, isFinite(vecX) ? vecX : initialGuess);
+                }
+                logger.warn("SOR requires a CompRowMatrix. Using GMRES instead");
+                return solveGmres(matA, vecB, initialGuess);
+            case GMRES:
+                // fall through
+            default:
+                Vector vecX = solveGmres(matA, vecB, initialGuess);
+                if (!lastConverged && matA instanceof DenseMatrix) {
+                    logger.warn("GMRES failed. Falling back to LU");
+                    vecX = solveDirect((DenseMatrix) matA, vecB, Method.LU);
+                }
+                return vecX;
+        }
+    }
+
+    /**
+     * Runs GMRES from the initial guess until the residual drops below currentTolerance() * ||b||
+     * or the budget runs out. Either way the best iterate is returned, unless it is not finite.
+     */
+    private Vector solveGmres(Matrix matA, Vector vecB, Vector initialGuess) {
+        Vector vecX = new DenseVector(vecB.size());
+        if (initialGuess != null && initialGuess.size() == vecB.size()) {
+            vecX.set(initialGuess);
+        }
+
+        IterativeSolver solver = new GMRES(vecB);
+        Preconditioner preconditioner = createPreconditioner(matA);
+        // GMRES measures the preconditioned residual, so the target is scaled the same way
+        double normB;
+        if (preconditioner == null) {
+            normB = vecB.norm(Vector.Norm.Two);
+        } else {
+            solver.setPreconditioner(preconditioner);
+            Vector preconditionedB = preconditioner.apply(vecB, new DenseVector(vecB.size()));
+            normB = preconditionedB.norm(Vector.Norm.Two);
+        }
+
+        double relativeTolerance = currentTolerance();
+        logger.info("Solving matrix equations with GMRES to relative tolerance {}",
+                relativeTolerance);
+        // the absolute tolerance makes a warm start converge to the same target as a cold one
+        double absoluteTolerance = Math.max(1e-50, relativeTolerance * normB);
+        BudgetedIterationMonitor monitor = new BudgetedIterationMonitor(maxIterations,
+                relativeTolerance, absoluteTolerance, timeLimitMillis);
+        solver.setIterationMonitor(monitor);
+
+        lastConverged = false;
+        try {
+            solver.solve(matA, vecB, vecX);
+            lastConverged = true;
+        } catch (IterativeSolverNotConvergedException e) {
+            logger.warn("GMRES stopped early: {}", e.getMessage());
+            if (monitor.best != null) {
+                vecX = monitor.best;
+            }
+        } finally {
+            lastIterations = monitor.iterations();
+            totalIterations += lastIterations;
+            logger.info("GMRES ran for {} iterations", lastIterations);
+        }
+
+        lastResidual = relativeResidual(matA, vecB, vecX);
+        if (!lastConverged) {
+            logger.warn("Returning the best GMRES iterate, relative residual {}", lastResidual);
+        }
+        if (!isFinite(vecX)) {
+            lastConverged = false;
+            return null;
+        }
+        return vecX;
+    }
+
+    /**
+     * Runs SOR sweeps from the initial guess until the residual drops below
+     * currentTolerance() * ||b|| or the budget runs out. Each sweep counts as one iteration.
+     */
+    private DenseVector solveSor(CompRowMatrix matA, Vector vecB, Vector initialGuess) {
+        int size = vecB.size();
+        DenseVector vecX = new DenseVector(size);
+        if (initialGuess != null && initialGuess.size() == size) {
+            vecX.set(initialGuess);
+        }
+        double[] x = vecX.getData();
+        double[] b = FeatureCache.toArray(vecB);
+        int[] rowPointers = matA.getRowPointers();
+        int[] columnIndices = matA.getColumnIndices();
+        double[] data = matA.getData();
+
+        double relativeTolerance = currentTolerance();
+        logger.info("Solving matrix equations with SOR({}) to relative tolerance {}",
+                relaxation, relativeTolerance);
+        double target = Math.max(1e-50, relativeTolerance * vecB.norm(Vector.Norm.Two));
+        long deadline = timeLimitMillis > 0
+                ? System.nanoTime() + timeLimitMillis * 1000000L : Long.MAX_VALUE;
+
+        lastConverged = false;
+        int sweeps = 0;
+        while (sweeps < maxIterations) {
+            // sum of the squared residuals of each row just before it is updated
+            double residual = 0;
+            for (int row = 0; row < size; row++) {
+                double sum = b[row];
+                double diagonal = 0;
+                for (int i = rowPointers[row]; i < rowPointers[row + 1]; i++) {
+                    int col = columnIndices[i];
+                    if (col == row) {
+                        diagonal = data[i];
+                    } else {
+                        sum -= data[i] * x[col];
+                    }
+                }
+                double rowResidual = sum - diagonal * x[row];
+                residual += rowResidual * rowResidual;
+                if (diagonal != 0) {
+                    x[row] += relaxation * rowResidual / diagonal;
+                }
+            }
+            sweeps++;
+            if (Math.sqrt(residual) < target) {
+                lastConverged = true;
+                break;
+            }
+            if (deadline != Long.MAX_VALUE && System.nanoTime() - deadline > 0) {
+                logger.warn("SOR time limit reached");
+                break;
+            }
+        }
+
+        lastSorSweeps = sweeps;
+        totalSorSweeps += sweeps;
+        lastResidual = relativeResidual(matA, vecB, vecX);
+        logger.info("SOR ran for {} sweeps, relative residual {}", sweeps, lastResidual);
+        if (!isFinite(vecX)) {
+            lastConverged = false;
+        }
+        return vecX;
+    }
+
+    private Preconditioner createPreconditioner(Matrix matA) {
+        Preconditioning type = preconditioning;
+        if (type == Preconditioning.AUTO) {
+            if (matA instanceof CompRowMatrix) {
+                type = Preconditioning.ILU;
+            } else if (matA instanceof BlockLstdqMatrix) {
+                type = Preconditioning.BLOCK_JACOBI;
+            } else {
+                type = Preconditioning.NONE;
+            }
+        }
+        try {
+            switch (type) {
+                case JACOBI:
+                    Preconditioner jacobi = new DiagonalPreconditioner(matA.numRows());
+                    jacobi.setMatrix(matA);
+                    return jacobi;
+                case ILU:
+                    if (!(matA instanceof CompRowMatrix)) {
+                        logger.warn("ILU requires a CompRowMatrix. Using no preconditioner");
+                        return null;
+                    }
+                    Preconditioner ilu = new ILU(((CompRowMatrix) matA).copy());
+                    ilu.setMatrix(matA);
+                    return ilu;
+                case BLOCK_JACOBI:
+                    if (!(matA instanceof BlockLstdqMatrix)) {
+                        logger.warn("BLOCK_JACOBI requires a BlockLstdqMatrix. "
+                                + "Using no preconditioner");
+                        return null;
+                    }
+                    return ((BlockLstdqMatrix) matA).blockJacobi();
+                default:
+                    return null;
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Could not build the {} preconditioner: {}", type, e.getMessage());
+            return null;
+        }
+    }
+
+    private static double relativeResidual(Matrix matA, Vector vecB, Vector vecX) {
+        Vector residual = vecB.copy();
+        matA.multAdd(-1, vecX, residual);
+        double normB = vecB.norm(Vector.Norm.Two);
+        return normB == 0 ? residual.norm(Vector.Norm.Two) : residual.norm(Vector.Norm.Two) / normB;
+    }
+
+    private static boolean isFinite(Vector vecX) {
+        for (int i = 0; i < vecX.size(); i++) {
+            if (Double.isNaN(vecX.get(i)) || Double.isInfinite(vecX.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Vector solveDirect(DenseMatrix matA, Vector vecB, Method method) {
+        logger.info("Solving matrix equations with {}", method);
+        int size = vecB.size();
+        Vector vecX;
+        try {
+            if (method == Method.QR) {
+                // A = QR so w = R^-1 Q^T b
+                QR qr = QR.factorize(matA);
+                Vector qtb = qr.getQ().transMult(vecB, new DenseVector(size));
+                vecX = qr.getR().solve(qtb, new DenseVector(size));
+            } else {
+                DenseLU lu = DenseLU.factorize(matA);
+                if (lu.isSingular()) {
+                    logger.error("LU factorization is singular");
+                    return null;
+                }
+                DenseMatrix rhs = new DenseMatrix(vecB, true);
+                vecX = new DenseVector(lu.solve(rhs).getData(), false);
+            }
+        } catch (MatrixSingularException e) {
+            logger.error("MatrixSingularException: {}", e.getMessage(), e);
+            return null;
+        }
+
+        if (!isFinite(vecX)) {
+            logger.error("{} produced a non-finite solution", method);
+            return null;
+        }
+        return vecX;
+    }
+
+    /**
+     * Stops GMRES once the iteration or time budget is spent and remembers the iterate with the
+     * smallest residual. GMRES only forms its iterate at restarts, so those are the candidates.
+     */
+    private static class BudgetedIterationMonitor extends DefaultIterationMonitor {
+
+        private final long deadline;
+        private double bestResidual = Double.POSITIVE_INFINITY;
+        Vector best;
+
+        BudgetedIterationMonitor(int maxIterations,
+                                 double relativeTolerance,
+                                 double absoluteTolerance,
+                                 long timeLimitMillis) {
+            super(maxIterations, relativeTolerance, absoluteTolerance, 1e+5);
+            this.deadline = timeLimitMillis > 0
+                    ? System.nanoTime() + timeLimitMillis * 1000000L : Long.MAX_VALUE;
+        }
+
+        @Override
+        protected boolean convergedI(double r, Vector x)
+                throws IterativeSolverNotConvergedException {
+            if (r < bestResidual) {
+                bestResidual = r;
+                best = x.copy();
+            }
+            return super.convergedI(r, x);
+        }
+
+        @Override
+        protected boolean convergedI(double r) throws IterativeSolverNotConvergedException {
+            if (deadline != Long.MAX_VALUE && System.nanoTime() - deadline > 0) {
+                throw new IterativeSolverNotConvergedException(
+                        NotConvergedException.Reason.Iterations, "Time limit reached", this);
+            }
+            return super.convergedI(r);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package edu.cwru.eecs.rl.core.lspi;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import edu.cwru.eecs.rl.basisfunctions.ExactBasis;
+import edu.cwru.eecs.rl.types.Policy;
+import edu.cwru.eecs.rl.types.Sample;
+
+/**
+ * Fork-join tasks used by the parallel LSTDQ policy improvers.
+ *
+ * <p>
+ * The sample list is split in halves until each task has at most one share of the samples per
+ * worker thread. Leaf tasks accumulate into their own A and b, and partial systems are summed as
+ * the tasks join, so the reduction forms a tree and no accumulator is ever shared between threads.
+ */
+final class ParallelLstdq {
+
+    /**
+     * Leaves never get fewer samples than this, so small sample sets are not split into more
+     * k x k accumulators than they are worth.
+     */
+    static final int MIN_SAMPLES_PER_TASK = 1024;
+
+    private ParallelLstdq() {}
+
+    static LstdqAccumulator accumulate(List<Sample> samples,
+                                       Policy policy,
+                                       double gamma,
+                                       ForkJoinPool pool) {
+        LstdqAccumulator accumulator = new LstdqAccumulator(policy.basis.size());
+        if (samples.isEmpty()) {
+            return accumulator;
+        }
+        int threshold = threshold(samples.size(), pool);
+        accumulator.addAll(pool.invoke(
+                new AccumulateTask(samples, policy, gamma, 0, samples.size(), threshold)));
+        return accumulator;
+    }
+
+    static void exactIndices(List<Sample> samples,
+                             Policy policy,
+                             ExactBasis basis,
+                             int[] currIndices,
+                             int[] nextIndices,
+                             ForkJoinPool pool) {
+        if (samples.isEmpty()) {
+            return;
+        }
+        int threshold = threshold(samples.size(), pool);
+        pool.invoke(new ExactIndexTask(samples, policy, basis, currIndices, nextIndices,
+                0, samples.size(), threshold));
+    }
+
+    private static int threshold(int numSamples, ForkJoinPool pool) {
+        int perThread = (numSamples + pool.getParallelism() - 1) / pool.getParallelism();
+        return Math.max(MIN_SAMPLES_PER_TASK, perThread);
+    }
+
+    private static class AccumulateTask extends RecursiveTask<LstdqAccumulator> {
+
+        private final List<Sample> samples;
+        private final Policy policy;
+        private final double gamma;
+        private final int start;
+        private final int end;
+        private final int threshold;
+
+        AccumulateTask(List<Sample> samples, Policy policy, double gamma,
+                       int start, int end, int threshold) {
+            this.samples = samples;
+            this.policy = policy;
+            this.gamma = gamma;
+            this.start = start;
+            this.end = end;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected LstdqAccumulator compute() {
+            if (end - start <= threshold) {
+                LstdqAccumulator partial = new LstdqAccumulator(policy.basis.size(), 0);
+                SparseSampleAdder sparseAdder = SparseSampleAdder.forPolicy(policy);
+                for (Sample sample : samples.subList(start, end)) {
+                    if (sparseAdder != null) {
+                        sparseAdder.addSample(sample, gamma, partial);
+                    } else {
+                        Lspi.addSample(sample, policy, gamma, partial);
+                    }
+                }
+                return partial;
+            }
+
+            int mid = (start + end) >>> 1;
+            AccumulateTask left = new AccumulateTask(samples, policy, gamma,
+                    start, mid, threshold);
+            AccumulateTask right = new AccumulateTask(samples, policy, gamma,
+                    mid, end, threshold);
+            left.fork();
+            LstdqAccumulator rightResult = right.compute();
+            LstdqAccumulator leftResult = left.join();
+            leftResult.addAll(rightResult);
+            return leftResult;
+        }
+    }
+
+    private static class ExactIndexTask extends RecursiveAction {
+
+        private final List<Sample> samples;
+        private final Policy policy;
+        private final ExactBasis basis;
+        private final int[] currIndices;
+        private final int[] nextIndices;
+        private final int start;
+        private final int end;
+        private final int threshold;
+
+        ExactIndexTask(List<Sample> samples, Policy policy, ExactBasis basis,
+                       int[] currIndices, int[] nextIndices,
+                       int start, int end, int threshold) {
+            this.samples = samples;
+            this.policy = policy;
+            this.basis = basis;
+            this.currIndices = currIndices;
+            this.nextIndices = nextIndices;
+            this.start = start;
+            this.end = end;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= threshold) {
+                int sampleIndex = start;
+                for (Sample sample : samples.subList(start, end)) {
+                    Lspi.addExactIndices(sample, policy, basis, sampleIndex++,
+                            currIndices, nextIndices);
+                }
+                return;
+            }
+
+            int mid = (start + end) >>> 1;
+            invokeAll(new ExactIndexTask(samples, policy, basis, currIndices, nextIndices,
+                            start, mid, threshold),
+                    new ExactIndexTask(samples, policy, basis, currIndices, nextIndices,
+                            mid, end, threshold));
+        }
+    }
+}
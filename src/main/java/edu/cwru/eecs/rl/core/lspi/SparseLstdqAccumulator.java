@@ -0,0 +1,211 @@
+package edu.cwru.eecs.rl.core.lspi;
+
+import java.util.Arrays;
+
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.sparse.CompRowMatrix;
+
+/**
+ * Accumulates a sparse LSTDQ system as (row, column, value) triplets and compresses it into a
+ * CompRowMatrix once all of the samples have been added.
+ *
+ * <p>
+ * Adding an entry only appends to three primitive arrays, so there is no per-sample search as
+ * with LinkedSparseMatrix get/set. compact() groups the triplets by row with a counting sort and
+ * merges duplicate columns through a dense scratch row, which takes O(entries + size) time.
+ * Entries of a row are summed in the order they were added, so the result is exactly what adding
+ * them to any other matrix one at a time would give.
+ *
+ * <p>
+ * The triplet arrays are compacted whenever they fill up and only grow when compacting does not
+ * free at least half of them. Memory therefore stays proportional to the number of distinct
+ * entries of A, however many samples are streamed through.
+ */
+public class SparseLstdqAccumulator {
+
+    private final int size;
+    private final double[] vecB;
+
+    private int[] rows;
+    private int[] columns;
+    private double[] values;
+    private int numEntries;
+
+    /**
+     * Constructs an accumulator whose A starts as .01 times the identity.
+     *
+     * @param size Number of basis features
+     */
+    public SparseLstdqAccumulator(int size) {
+        this(size, .01);
+    }
+
+    /**
+     * Constructs an accumulator whose A starts as ridge times the identity. Every row gets its
+     * diagonal entry, even when the ridge is 0.
+     *
+     * @param size  Number of basis features
+     * @param ridge Initial value of the diagonal of A
+     */
+    public SparseLstdqAccumulator(int size, double ridge) {
+        this.size = size;
+        this.vecB = new double[size];
+        int capacity = Math.max(16, 2 * size);
+        this.rows = new int[capacity];
+        this.columns = new int[capacity];
+        this.values = new double[capacity];
+
+        for (int i = 0; i < size; i++) {
+            add(i, i, ridge);
+        }
+    }
+
+    /**
+     * Adds value to A(row, col).
+     *
+     * @param row   Row of A
+     * @param col   Column of A
+     * @param value Amount to add
+     */
+    public void add(int row, int col, double value) {
+        if (numEntries == rows.length) {
+            compact();
+            // grow unless compacting freed at least half of the arrays
+            if (numEntries > rows.length / 2) {
+                int newLength = (int) Math.min(Integer.MAX_VALUE - 8, 2L * rows.length);
+                if (newLength > rows.length) {
+                    rows = Arrays.copyOf(rows, newLength);
+                    columns = Arrays.copyOf(columns, newLength);
+                    values = Arrays.copyOf(values, newLength);
+                } else if (numEntries == rows.length) {
+                    throw new IllegalStateException("Too many entries to accumulate");
+                }
+            }
+        }
+        rows[numEntries] = row;
+        columns[numEntries] = col;
+        values[numEntries] = value;
+        numEntries++;
+    }
+
+    /**
+     * Adds value to b(row).
+     *
+     * @param row   Entry of b
+     * @param value Amount to add
+     */
+    public void addB(int row, double value) {
+        vecB[row] += value;
+    }
+
+    /**
+     * Adds a sample under an ExactBasis, where phi(s, a) and phi(s', pi(s')) each have a single
+     * entry equal to 1.
+     *
+     * @param currIndex Basis index of (s, a)
+     * @param nextIndex Basis index of (s', pi(s')) or -1 if the sample is absorbing
+     * @param reward    r
+     * @param gamma     Discount factor
+     */
+    public void addExactSample(int currIndex, int nextIndex, double reward, double gamma) {
+        // a self transition becomes two entries on the diagonal that are merged by getA()
+        add(currIndex, currIndex, 1);
+        if (nextIndex >= 0) {
+            add(currIndex, nextIndex, -gamma);
+        }
+        addB(currIndex, reward);
+    }
+
+    /**
+     * Number of triplets added so far, including the initial diagonal.
+     *
+     * @return Entry count
+     */
+    public int numEntries() {
+        return numEntries;
+    }
+
+    /**
+     * Merges duplicate triplets in place. Afterwards the triplets are sorted by row and then by
+     * column, with one triplet per distinct entry.
+     */
+    public void compact() {
+        // counting sort of the triplets by row, stable so each row keeps the order of addition
+        int[] rowStart = new int[size + 1];
+        for (int i = 0; i < numEntries; i++) {
+            rowStart[rows[i] + 1]++;
+        }
+        for (int row = 0; row < size; row++) {
+            rowStart[row + 1] += rowStart[row];
+        }
+        int[] next = Arrays.copyOf(rowStart, size);
+        int[] sortedColumns = new int[numEntries];
+        double[] sortedValues = new double[numEntries];
+        for (int i = 0; i < numEntries; i++) {
+            int position = next[rows[i]]++;
+            sortedColumns[position] = columns[i];
+            sortedValues[position] = values[i];
+        }
+
+        // merge duplicate columns of each row through a dense scratch row
+        double[] rowValues = new double[size];
+        int[] lastRow = new int[size];
+        Arrays.fill(lastRow, -1);
+        int merged = 0;
+        for (int row = 0; row < size; row++) {
+            int rowBegin = merged;
+            for (int i = rowStart[row]; i < rowStart[row + 1]; i++) {
+                int col = sortedColumns[i];
+                if (lastRow[col] != row) {
+                    lastRow[col] = row;
+                    rowValues[col] = 0;
+                    columns[merged++] = col;
+                }
+                rowValues[col] += sortedValues[i];
+            }
+            Arrays.sort(columns, rowBegin, merged);
+            for (int i = rowBegin; i < merged; i++) {
+                rows[i] = row;
+                values[i] = rowValues[columns[i]];
+            }
+        }
+        numEntries = merged;
+    }
+
+    /**
+     * Compresses the triplets into a new CompRowMatrix. Duplicate entries are summed.
+     *
+     * @return A
+     */
+    public CompRowMatrix getA() {
+        compact();
+
+        int[][] nz = new int[size][];
+        int start = 0;
+        for (int row = 0; row < size; row++) {
+            int end = start;
+            while (end < numEntries && rows[end] == row) {
+                end++;
+            }
+            nz[row] = Arrays.copyOfRange(columns, start, end);
+            start = end;
+        }
+
+        CompRowMatrix matA = new CompRowMatrix(size, size, nz);
+        System.arraycopy(values, 0, matA.getData(), 0, numEntries);
+        return matA;
+    }
+
+    /**
+     * Returns b wrapped as an MTJ vector. The vector shares storage with this accumulator.
+     *
+     * @return b
+     */
+    public DenseVector getB() {
+        return new DenseVector(vecB, false);
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,136 @@
+package edu.cwru.eecs.rl.core.lspi;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.cwru.eecs.rl.types.Policy;
+import edu.cwru.eecs.rl.types.Sample;
+import edu.cwru.eecs.rl.types.SparseBasisFunctions;
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Vector;
+
+/**
+ * Adds samples to an LstdqAccumulator through a SparseBasisFunctions, so each sample costs
+ * O(nnz^2) instead of O(k^2) and nothing is allocated per sample.
+ *
+ * <p>
+ * The result is exactly what Lspi.addSample gives for the same basis. An adder holds scratch
+ * space, so every thread needs its own.
+ */
+final class SparseSampleAdder {
+
+    public static final Logger logger = LoggerFactory.getLogger(SparseSampleAdder.class);
+
+    private final Policy policy;
+    private final SparseBasisFunctions basis;
+
+    private final int[] currIndices;
+    private final double[] currValues;
+    private final int[] nextIndices;
+    private final double[] nextValues;
+
+    // results of the last evaluateFeatures
+    private int currCount;
+    private int nextCount;
+    private int bestAction;
+
+    // copies of states that are not backed by an array
+    private double[] currState = new double[0];
+    private double[] nextState = new double[0];
+
+    private SparseSampleAdder(Policy policy, SparseBasisFunctions basis) {
+        this.policy = policy;
+        this.basis = basis;
+        this.currIndices = new int[basis.maxNonZeros()];
+        this.currValues = new double[basis.maxNonZeros()];
+        this.nextIndices = new int[basis.maxNonZeros()];
+        this.nextValues = new double[basis.maxNonZeros()];
+    }
+
+    /**
+     * Creates an adder for the policy if its basis reports sparse features.
+     *
+     * @param policy Policy being evaluated
+     * @return The adder or null if the basis is not a SparseBasisFunctions
+     */
+    static SparseSampleAdder forPolicy(Policy policy) {
+        if (policy.basis instanceof SparseBasisFunctions) {
+            return new SparseSampleAdder(policy, (SparseBasisFunctions) policy.basis);
+        }
+        return null;
+    }
+
+    /**
+     * Adds the contribution of a single sample to the LSTDQ system.
+     *
+     * @param sample      Sample to add
+     * @param gamma       Discount factor
+     * @param accumulator System to add to
+     */
+    void addSample(Sample sample, double gamma, LstdqAccumulator accumulator) {
+        evaluateFeatures(sample);
+        accumulator.add(currIndices, currValues, currCount,
+                nextIndices, nextValues, nextCount, sample.reward, gamma);
+    }
+
+    /**
+     * Adds the contribution of a single sample to a block-structured LSTDQ system.
+     *
+     * @param sample      Sample to add
+     * @param gamma       Discount factor
+     * @param accumulator System to add to
+     */
+    void addSample(Sample sample, double gamma, BlockLstdqAccumulator accumulator) {
+        evaluateFeatures(sample);
+        accumulator.add(sample.action, currIndices, currValues, currCount,
+                bestAction, nextIndices, nextValues, nextCount, sample.reward, gamma);
+    }
+
+    /**
+     * Evaluates pi(s') and the sparse features of phi(s, a) and phi(s', pi(s')) into the scratch
+     * arrays.
+     */
+    private void evaluateFeatures(Sample sample) {
+        double[] next;
+        if (sample.nextState instanceof DenseVector) {
+            next = ((DenseVector) sample.nextState).getData();
+        } else {
+            nextState = copy(sample.nextState, nextState);
+            next = nextState;
+        }
+
+        // Find the value of pi(s')
+        bestAction = 0;
+        try {
+            bestAction = policy.evaluate(next);
+        } catch (Exception e) {
+            logger.error("Failed to evaluate the policy. Reason: {}", e.getMessage(), e);
+        }
+
+        double[] curr;
+        if (sample.currState instanceof DenseVector) {
+            curr = ((DenseVector) sample.currState).getData();
+        } else {
+            currState = copy(sample.currState, currState);
+            curr = currState;
+        }
+        currCount = basis.evaluateSparse(curr, sample.action, currIndices, currValues);
+        nextCount = 0;
+        if (!sample.absorb) {
+            nextCount = basis.evaluateSparse(next, bestAction, nextIndices, nextValues);
+        }
+    }
+
+    /**
+     * Copies a state into scratch, replacing scratch if it has the wrong size.
+     */
+    private static double[] copy(Vector state, double[] scratch) {
+        if (scratch.length != state.size()) {
+            scratch = new double[state.size()];
+        }
+        for (int i = 0; i < scratch.length; i++) {
+            scratch[i] = state.get(i);
+        }
+        return scratch;
+    }
+}
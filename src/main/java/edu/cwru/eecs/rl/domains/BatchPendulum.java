@@ -0,0 +1,247 @@
+package edu.cwru.eecs.rl.domains;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+
+import edu.cwru.eecs.rl.types.Policy;
+import edu.cwru.eecs.rl.types.SampleBatch;
+import edu.cwru.eecs.rl.types.SplitMix;
+
+/**
+ * Simulates many independent pendulums at once, writing their transitions straight into a
+ * SampleBatch.
+ *
+ * <p>
+ * The angles, velocities, last applied forces and random generators of the pendulums are kept in
+ * parallel arrays and every call to step advances all of them in a single loop with a fixed-step
+ * integrator, without creating any Sample or Vector. The dynamics and the integrator steps are the
+ * ones Pendulum uses, from PendulumDynamics. A pendulum that falls, or that has run for
+ * episodeLength steps, is reset right after its transition is recorded, so every step adds
+ * exactly numEnvironments() samples.
+ *
+ * <p>
+ * Each pendulum behaves exactly like a Pendulum with the same integrator whose generator was
+ * seeded with SplitMix.seed(seed, i): it draws the same initial states and noise, and its
+ * samples hold the same states, padded to three variables the way SampleBatch pads the reset
+ * state of a Pendulum. As in Pendulum, a sample is absorbing only if its current state is
+ * terminal, which never happens here because fallen pendulums are reset.
+ */
+public class BatchPendulum {
+
+    public static final Logger logger = LoggerFactory.getLogger(BatchPendulum.class);
+
+    /**
+     * Number of variables of every recorded state: angle, angular velocity and the force applied
+     * to reach it.
+     */
+    public static final int STATE_DIMENSION = 3;
+
+    private static final double[] actions = {-50.0, 0.0, 50.0};
+
+    /**
+     * Maximum number of steps of an episode before the pendulum is reset even though it did not
+     * fall. 0 means episodes only end when the pendulum falls.
+     */
+    public int episodeLength = 0;
+
+    private final int numEnvironments;
+    private final double dt;
+    private final double noise;
+    private final Pendulum.Integrator integrator;
+
+    private final double[] angles;
+    private final double[] velocities;
+    // force applied in the last step, 0 after a reset
+    private final double[] controls;
+    private final int[] episodeSteps;
+    private final Random[] rngs;
+    // exploration decisions of exploring policies, kept apart from the noise so that the
+    // dynamics do not depend on the policy
+    private final Random[] explorationRngs;
+
+    // states of one transition, reused for every sample written
+    private final double[] currState = new double[STATE_DIMENSION];
+    private final double[] nextState = new double[STATE_DIMENSION];
+    // angle and velocity at the end of the step being taken
+    private final double[] integrated = new double[2];
+
+    /**
+     * Constructs a batch of pendulums with Pendulum's default step and noise, integrated with
+     * RK4.
+     *
+     * @param numEnvironments Number of pendulums
+     * @param seed            Seed the generator of every pendulum is derived from
+     */
+    public BatchPendulum(int numEnvironments, long seed) {
+        this(numEnvironments, .1, 10, seed, Pendulum.Integrator.RK4);
+    }
+
+    /**
+     * Constructs a batch of pendulums and resets all of them.
+     *
+     * @param numEnvironments Number of pendulums
+     * @param dt              Simulated seconds per step
+     * @param noise           Standard deviation of the noise added to the applied force
+     * @param seed            Seed the generator of every pendulum is derived from
+     * @param integrator      RK4 or SEMI_IMPLICIT_EULER
+     * @throws IllegalArgumentException If the integrator is not a fixed-step one
+     */
+    public BatchPendulum(int numEnvironments, double dt, double noise, long seed,
+                         Pendulum.Integrator integrator) {
+        if (integrator != Pendulum.Integrator.RK4
+                && integrator != Pendulum.Integrator.SEMI_IMPLICIT_EULER) {
+            throw new IllegalArgumentException("BatchPendulum requires a fixed-step integrator "
+                    + "but got " + integrator);
+        }
+        this.numEnvironments = numEnvironments;
+        this.dt = dt;
+        this.noise = noise;
+        this.integrator = integrator;
+        this.angles = new double[numEnvironments];
+        this.velocities = new double[numEnvironments];
+        this.controls = new double[numEnvironments];
+        this.episodeSteps = new int[numEnvironments];
+        this.rngs = new Random[numEnvironments];
+        this.explorationRngs = new Random[numEnvironments];
+        for (int i = 0; i < numEnvironments; i++) {
+            rngs[i] = new Random(SplitMix.seed(seed, i));
+            explorationRngs[i] = new Random(SplitMix.seed(~seed, i));
+            reset(i);
+        }
+    }
+
+    /**
+     * Starts a new episode for one pendulum, near the vertical with a small velocity.
+     *
+     * @param environment Index of the pendulum
+     */
+    public void reset(int environment) {
+        Random rng = rngs[environment];
+        angles[environment] = (2 * rng.nextDouble() - 1) * .2;
+        velocities[environment] = (2 * rng.nextDouble() - 1) * .2;
+        controls[environment] = 0;
+        episodeSteps[environment] = 0;
+    }
+
+    /**
+     * Advances every pendulum by one step and appends the transitions to out, one per pendulum in
+     * index order.
+     *
+     * @param actionIndices Action of every pendulum
+     * @param out           Batch with a state dimension of at least STATE_DIMENSION
+     */
+    public void step(int[] actionIndices, SampleBatch out) {
+        if (actionIndices.length != numEnvironments) {
+            throw new IllegalArgumentException("Expected " + numEnvironments + " actions but got "
+                    + actionIndices.length);
+        }
+        boolean rk4 = integrator == Pendulum.Integrator.RK4;
+        for (int i = 0; i < numEnvironments; i++) {
+            double angle = angles[i];
+            double velocity = velocities[i];
+            double controlInput = actions[actionIndices[i]] + rngs[i].nextGaussian() * noise;
+
+            if (rk4) {
+                PendulumDynamics.rk4Step(angle, velocity, controlInput, dt, integrated);
+            } else {
+                PendulumDynamics.semiImplicitEulerStep(angle, velocity, controlInput, dt,
+                        integrated);
+            }
+            double nextAngle = integrated[0];
+            double nextVelocity = integrated[1];
+
+            currState[0] = angle;
+            currState[1] = velocity;
+            currState[2] = controls[i];
+            nextState[0] = nextAngle;
+            nextState[1] = nextVelocity;
+            nextState[2] = controlInput;
+            boolean fell = Math.abs(nextAngle) > Math.PI / 2;
+            out.add(currState, actionIndices[i], nextState, fell ? -1 : 0,
+                    Math.abs(angle) > Math.PI / 2);
+
+            angles[i] = nextAngle;
+            velocities[i] = nextVelocity;
+            controls[i] = controlInput;
+            episodeSteps[i]++;
+            if (fell || (episodeLength > 0 && episodeSteps[i] >= episodeLength)) {
+                reset(i);
+            }
+        }
+    }
+
+    /**
+     * Chooses every pendulum's action with the policy, then steps them all. Greedy policies
+     * choose all of the actions with one call to greedyActions. Exploring policies draw their
+     * exploration decisions from a generator per pendulum, seeded with SplitMix.seed(~seed, i),
+     * instead of the policy's own, so the samples only depend on the seed and the policy weights.
+     *
+     * @param policy Policy to act with
+     * @param out    Batch with a state dimension of at least STATE_DIMENSION
+     * @throws IllegalStateException If the policy cannot be evaluated on the pendulum states
+     */
+    public void step(Policy policy, SampleBatch out) {
+        int[] actionIndices;
+        if (policy.explore == 0) {
+            actionIndices = policy.greedyActions(getStates(), STATE_DIMENSION);
+        } else {
+            actionIndices = new int[numEnvironments];
+            double[] state = new double[STATE_DIMENSION];
+            for (int i = 0; i < numEnvironments; i++) {
+                state[0] = angles[i];
+                state[1] = velocities[i];
+                state[2] = controls[i];
+                try {
+                    actionIndices[i] = policy.evaluate(state, explorationRngs[i]);
+                } catch (Exception e) {
+                    throw new IllegalStateException("Failed to evaluate the policy", e);
+                }
+            }
+        }
+        step(actionIndices, out);
+    }
+
+    /**
+     * Steps every pendulum the given number of times with the policy.
+     *
+     * @param policy   Policy to act with
+     * @param numSteps Number of steps
+     * @return Batch of numSteps * numEnvironments() samples
+     */
+    public SampleBatch sample(Policy policy, int numSteps) {
+        SampleBatch samples = new SampleBatch(STATE_DIMENSION, numSteps * numEnvironments);
+        for (int i = 0; i < numSteps; i++) {
+            step(policy, samples);
+        }
+        return samples;
+    }
+
+    public int numEnvironments() {
+        return numEnvironments;
+    }
+
+    public double angle(int environment) {
+        return angles[environment];
+    }
+
+    public double velocity(int environment) {
+        return velocities[environment];
+    }
+
+    /**
+     * Current states of all pendulums, packed row-major as angle, velocity and last force.
+     *
+     * @return numEnvironments() * STATE_DIMENSION state variables
+     */
+    public double[] getStates() {
+        double[] states = new double[numEnvironments * STATE_DIMENSION];
+        for (int i = 0; i < numEnvironments; i++) {
+            states[i * STATE_DIMENSION] = angles[i];
+            states[i * STATE_DIMENSION + 1] = velocities[i];
+            states[i * STATE_DIMENSION + 2] = controls[i];
+        }
+        return states;
+    }
+}
@@ -99,4 +99,9 @@ public class Binary implements Simulator {
     public String actionStr(double action) {
         return "" + action;
     }
+
+    @Override
+    public void seed(long seed) {
+        // every transition is deterministic
+    }
 }
@@ -4,16 +4,13 @@ import edu.cwru.eecs.rl.types.Sample;
 import no.uib.cipr.matrix.DenseVector;
 import no.uib.cipr.matrix.Vector;
 
-import java.util.HashSet;
 import java.util.Random;
-import java.util.Set;
 
 public class Chain implements Simulator {
 
     private int numStates;
-    private double[][][] transitions;
+    private double successProb;
     private Random rng;
-    private Set<Integer> rewardStates;
 
     private Vector currState;
 
@@ -22,36 +19,21 @@ public class Chain implements Simulator {
      * probability of an action succeeding is specified by successProb. The distSeed specifies the
      * random number generator seed.
      *
+     * <p>
+     * The transition probabilities are computed when they are needed, so a chain takes constant
+     * memory whatever its length.
+     *
      * @param numStates   Length of the chain
      * @param successProb Probably of an action succeeding
      * @param distSeed    The random number generator seed.
      */
     public Chain(int numStates, double successProb, long distSeed) {
         this.numStates = numStates;
-        // stores transition success probabilities
-        this.transitions = new double[numStates][2][numStates];
+        this.successProb = successProb;
 
         // this will make the experiments reproducible
         rng = new Random(distSeed);
 
-        // fill in the transition matrix
-        for (int i = 0; i < numStates; i++) {
-            // TODO: Compute this on the fly instead of storing it
-            transitions[i][0][Math.max(0, i - 1)] = successProb;
-            transitions[i][0][Math.min(numStates - 1, i + 1)] = 1 - successProb;
-            transitions[i][1][Math.min(numStates - 1, i + 1)] = successProb;
-            transitions[i][1][Math.max(0, i - 1)] = 1 - successProb;
-            transitions[i][0][i] = 0;
-            transitions[i][1][i] = 0;
-        }
-
-        // for now use the ends of the chain as the reward states
-        // however, maybe make this an option in the future
-        // hence the use of the set
-        rewardStates = new HashSet<Integer>();
-        rewardStates.add(new Integer(0));
-        rewardStates.add(new Integer(numStates - 1));
-
         // in case initialize isn't called
         currState = new DenseVector(new double[]{rng.nextInt(numStates)});
     }
@@ -63,12 +45,15 @@ public class Chain implements Simulator {
 
     @Override
     public Sample step(int action) {
+        if (action < 0 || action > 1) {
+            throw new IllegalArgumentException("Chain has 2 actions but got action " + action);
+        }
         int icurrState = (int) currState.get(0);
         int inextState = icurrState;
         double totProb = 0;
         for (int i = icurrState - 1; i <= icurrState + 1; i += 2) {
             int newState = Math.max(0, Math.min(numStates - 1, i));
-            totProb += transitions[icurrState][action][newState];
+            totProb += transitionProb(icurrState, action, newState);
             if (rng.nextDouble() <= totProb) {
                 inextState = newState;
                 break;
@@ -77,7 +62,7 @@ public class Chain implements Simulator {
 
         // TODO: should this be nextState or state?
         Vector nextState = new DenseVector(new double[]{inextState});
-        int reward = rewardStates.contains(inextState) ? 1 : 0;
+        int reward = isRewardState(inextState) ? 1 : 0;
         Sample sample = new Sample(currState, action, nextState, reward);
 
         currState = nextState;
@@ -85,6 +70,27 @@ public class Chain implements Simulator {
         return sample;
     }
 
+    /**
+     * Probability of moving from state to the neighbouring newState with the given action. Action
+     * 0 moves left and action 1 moves right with probability successProb, and otherwise the
+     * other way. Staying put, which happens when an end of the chain is pushed against, has
+     * probability 0, so the rest of the probability mass is never drawn.
+     */
+    private double transitionProb(int state, int action, int newState) {
+        if (newState == state) {
+            return 0;
+        }
+        boolean left = newState < state;
+        return left == (action == 0) ? successProb : 1 - successProb;
+    }
+
+    /**
+     * The ends of the chain are the reward states. Maybe make this an option in the future.
+     */
+    private boolean isRewardState(int state) {
+        return state == 0 || state == numStates - 1;
+    }
+
     @Override
     public boolean isGoal(Vector state) {
         // TODO Auto-generated method stub
@@ -138,4 +144,8 @@ public class Chain implements Simulator {
         return null;
     }
 
+    @Override
+    public void seed(long seed) {
+        rng.setSeed(seed);
+    }
 }
@@ -0,0 +1,221 @@
+package edu.cwru.eecs.rl.domains;
+
+import edu.cwru.eecs.rl.types.Sample;
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Vector;
+
+import java.util.Arrays;
+
+/**
+ * The Binary domain with its state packed into the bits of longs.
+ *
+ * <p>
+ * Action i sets bit i. Setting a bit that is already set costs -1 like any other step, and
+ * setting the last unset bit ends the episode with a reward of 100. Binary keeps its state in a
+ * SparseVector that every step copies and every goal check scans, so a step costs O(numBits).
+ * Here a step tests and sets one bit and keeps a running count of the set bits, so it takes
+ * constant time for up to 64 bits. isGoal on a state Vector counts the set bits of each 32-bit
+ * chunk with a popcount.
+ *
+ * <p>
+ * States are exposed as Vectors of 32-bit chunks, entry i holding bits 32i to 32i + 31 as a whole
+ * number. With up to 32 bits that is a single entry equal to the packed state. Because the first
+ * offset of an ExactBasis is 1, the basis of Binary, new ExactBasis({2, 2, ..., 2}, numBits),
+ * assigns that entry the same index it assigns the unpacked state, so the same basis works with
+ * either domain. The packed state from getPackedState() maps to the same features through
+ * ExactBasis.getStateActionIndex(long, int). This only holds for up to 32 bits, where the state
+ * has a single chunk; in practice ExactBasis already refuses bases of more than 26 bits, whose
+ * features would not fit an int. Larger instances need a basis of their own.
+ */
+public class PackedBinary implements Simulator {
+
+    private static final int CHUNK_BITS = 32;
+
+    private final int numBits;
+    private final long[] words;
+    private int numSet;
+
+    // the state as a Vector, recreated whenever the state changes
+    private Vector currState;
+
+    /**
+     * Constructs a domain with every bit cleared.
+     *
+     * @param numBits Number of bits, which is also the number of actions
+     */
+    public PackedBinary(int numBits) {
+        if (numBits < 1) {
+            throw new IllegalArgumentException("Expected at least one bit but got " + numBits);
+        }
+        this.numBits = numBits;
+        this.words = new long[(numBits + 63) / 64];
+        this.currState = toVector(words);
+    }
+
+    @Override
+    public void reset() {
+        Arrays.fill(words, 0);
+        numSet = 0;
+        currState = toVector(words);
+    }
+
+    @Override
+    public Sample step(int action) {
+        if (action < 0 || action >= numBits) {
+            throw new IllegalArgumentException("Expected an action below " + numBits + " but got "
+                    + action);
+        }
+        long mask = 1L << action;
+        boolean bitIsSet = (words[action >>> 6] & mask) != 0;
+        Vector nextState = currState;
+        if (!bitIsSet) {
+            words[action >>> 6] |= mask;
+            numSet++;
+            nextState = currState.copy();
+            int chunk = action / CHUNK_BITS;
+            nextState.set(chunk, chunkValue(words, chunk));
+        }
+
+        boolean isGoalState = numSet == numBits;
+        int reward = -1;
+        if (!bitIsSet && isGoalState) {
+            reward = 100;
+        }
+
+        Sample sample = new Sample(currState, action, nextState, reward, isGoalState);
+
+        currState = nextState;
+        return sample;
+    }
+
+    /**
+     * The first 64 bits of the state as a long, bit i being bit i of the state.
+     *
+     * @return Packed state
+     */
+    public long getPackedState() {
+        return words[0];
+    }
+
+    /**
+     * Sets the first 64 bits of the state and clears the rest.
+     *
+     * @param packedState Bit i is the value of bit i of the state
+     */
+    public void setPackedState(long packedState) {
+        Arrays.fill(words, 0);
+        words[0] = numBits < 64 ? packedState & ((1L << numBits) - 1) : packedState;
+        numSet = Long.bitCount(words[0]);
+        currState = toVector(words);
+    }
+
+    @Override
+    public boolean isGoal(Vector state) {
+        int count = 0;
+        for (int i = 0; i < state.size(); i++) {
+            count += Long.bitCount((long) state.get(i));
+        }
+        return count == numBits;
+    }
+
+    @Override
+    public boolean isNonGoalTerminal(Vector state) {
+        return false;
+    }
+
+    @Override
+    public boolean isTerminal(Vector state) {
+        return isGoal(state);
+    }
+
+    /**
+     * Sets the state from a Vector of 32-bit chunks, as returned by getState().
+     *
+     * @param state One whole number per 32 bits
+     */
+    @Override
+    public void setState(Vector state) {
+        int numChunks = numChunks();
+        if (state.size() != numChunks) {
+            throw new IllegalArgumentException("Expected a state of " + numChunks
+                    + " chunks but got " + state.size());
+        }
+        Arrays.fill(words, 0);
+        numSet = 0;
+        for (int chunk = 0; chunk < numChunks; chunk++) {
+            long value = (long) state.get(chunk) & 0xffffffffL;
+            words[chunk / 2] |= value << (CHUNK_BITS * (chunk % 2));
+        }
+        if (numBits % 64 != 0) {
+            words[words.length - 1] &= (1L << (numBits % 64)) - 1;
+        }
+        for (long word : words) {
+            numSet += Long.bitCount(word);
+        }
+        currState = toVector(words);
+    }
+
+    @Override
+    public Vector getState() {
+        return currState;
+    }
+
+    /**
+     * Number of states, saturated at Integer.MAX_VALUE. Use stateCount() for more than 30 bits.
+     *
+     * @return 2^numBits or Integer.MAX_VALUE
+     */
+    @Override
+    public int numStates() {
+        return numBits < 31 ? 1 << numBits : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Number of states.
+     *
+     * @return 2^numBits
+     * @throws ArithmeticException If there are 63 or more bits, so the count does not fit a long
+     */
+    public long stateCount() {
+        if (numBits >= 63) {
+            throw new ArithmeticException(numBits + " bits have more states than a long holds");
+        }
+        return 1L << numBits;
+    }
+
+    @Override
+    public int numActions() {
+        return numBits;
+    }
+
+    @Override
+    public String stateStr(Vector state) {
+        return state.toString();
+    }
+
+    @Override
+    public String actionStr(double action) {
+        return "" + action;
+    }
+
+    @Override
+    public void seed(long seed) {
+        // every transition is deterministic
+    }
+
+    private int numChunks() {
+        return (numBits + CHUNK_BITS - 1) / CHUNK_BITS;
+    }
+
+    private Vector toVector(long[] words) {
+        double[] chunks = new double[numChunks()];
+        for (int chunk = 0; chunk < chunks.length; chunk++) {
+            chunks[chunk] = chunkValue(words, chunk);
+        }
+        return new DenseVector(chunks, false);
+    }
+
+    private static double chunkValue(long[] words, int chunk) {
+        return (words[chunk / 2] >>> (CHUNK_BITS * (chunk % 2))) & 0xffffffffL;
+    }
+}
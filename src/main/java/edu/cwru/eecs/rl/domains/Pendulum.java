@@ -4,10 +4,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import edu.cwru.eecs.rl.types.Sample;
-import no.uib.cipr.matrix.DenseMatrix;
 import no.uib.cipr.matrix.DenseVector;
-import no.uib.cipr.matrix.Matrices;
-import no.uib.cipr.matrix.Matrix;
 import no.uib.cipr.matrix.Vector;
 
 import java.util.Random;
@@ -16,59 +13,90 @@ public class Pendulum implements Simulator {
 
     public static final Logger logger = LoggerFactory.getLogger(Pendulum.class);
 
+    /**
+     * How step integrates the dynamics over dt. RKF45 is the adaptive Runge-Kutta-Fehlberg
+     * method of the original Matlab code and the reference for the others. RK4 takes a single
+     * classical fourth order step of dt, and SEMI_IMPLICIT_EULER a single step that updates the
+     * velocity first and moves the angle with the new velocity. The fixed step methods evaluate
+     * the dynamics a fixed number of times per step (4 and 1, against at least 6 for RKF45) and
+     * ignore tol.
+     */
+    public enum Integrator {RKF45, RK4, SEMI_IMPLICIT_EULER}
+
     private double dt;
     private double tol;
     private double noise;
+    private Integrator integrator;
     private Random rng;
     private Vector currState;
 
     private static final double[] actions = {-50.0, 0.0, 50.0};
 
-    private Matrix beta;
-    private Matrix gamma;
-    private double pow;
+    // Runge-Kutta-Fehlberg 4(5) coefficients. Row j holds the weights of stages 0 to j used to
+    // compute stage j + 1.
+    private static final double[][] BETA = {
+        {.25, 0, 0, 0, 0, 0},
+        {3.0 / 32.0, 9.0 / 32.0, 0, 0, 0, 0},
+        {1932.0 / 2197.0, -7200.0 / 2197.0, 7296.0 / 2197.0, 0, 0, 0},
+        {8341.0 / 4104.0, -32832.0 / 4104.0,
+         29440.0 / 4104.0, -845.0 / 4104.0, 0, 0},
+        {-6080.0 / 20520.0, 41040.0 / 20520.0,
+         -28352.0 / 20520.0, 9295.0 / 20520.0, -5643.0 / 20520.0, 0}};
+
+    // weights of the fifth order solution and of the error estimate
+    private static final double[][] GAMMA = {
+        {902880.0 / 7618050.0, 0, 3953664.0 / 7618050.0,
+         3855735.0 / 7618050.0, -1371249.0 / 7618050.0, 277020.0 / 7618050.0},
+        {-2090.0 / 752400.0, 0, 22528.0 / 752400.0,
+         21970.0 / 752400.0, -15048.0 / 752400.0, -27360.0 / 752400.0}};
+
+    private static final double POW = 1.0 / 5.0;
+
+    // integrator scratch space, reused by every step
+    private final double[] vecY = new double[3];
+    private final double[] stageY = new double[3];
+    private final double[] increment = new double[3];
+    private final double[][] stages = new double[6][3];
 
     public Pendulum() {
-        pendulumInit(.1, 1e-5, 10, 0);
+        pendulumInit(.1, 1e-5, 10, 0, Integrator.RKF45);
     }
 
     public Pendulum(long distSeed) {
-        pendulumInit(.1, 1e-5, 10, distSeed);
+        pendulumInit(.1, 1e-5, 10, distSeed, Integrator.RKF45);
+    }
+
+    public Pendulum(long distSeed, Integrator integrator) {
+        pendulumInit(.1, 1e-5, 10, distSeed, integrator);
     }
 
     public Pendulum(double dt, double tol, double noise, long distSeed) {
-        pendulumInit(dt, tol, noise, distSeed);
+        pendulumInit(dt, tol, noise, distSeed, Integrator.RKF45);
     }
 
-    private void pendulumInit(double dt, double tol, double noise, long distSeed) {
+    /**
+     * Constructs a pendulum.
+     *
+     * @param dt         Simulated seconds per step
+     * @param tol        Relative error tolerance of the RKF45 integrator
+     * @param noise      Standard deviation of the noise added to the applied force
+     * @param distSeed   Seed of the initial states and the force noise
+     * @param integrator Method used to integrate each step
+     */
+    public Pendulum(double dt, double tol, double noise, long distSeed, Integrator integrator) {
+        pendulumInit(dt, tol, noise, distSeed, integrator);
+    }
+
+    private void pendulumInit(double dt, double tol, double noise, long distSeed,
+                              Integrator integrator) {
         this.dt = dt;
         this.tol = tol;
         this.noise = noise;
+        this.integrator = integrator;
 
         rng = new Random(distSeed);
 
         this.reset();
-
-        double[][] betaArray = {
-            {.25, 0, 0, 0, 0, 0},
-            {3.0 / 32.0, 9.0 / 32.0, 0, 0, 0, 0},
-            {1932.0 / 2197.0, -7200.0 / 2197.0, 7296.0 / 2197.0, 0, 0, 0},
-            {8341.0 / 4104.0, -32832.0 / 4104.0,
-             29440.0 / 4104.0, -845.0 / 4104.0, 0, 0},
-            {-6080.0 / 20520.0, 41040.0 / 20520.0,
-             -28352.0 / 20520.0, 9295.0 / 20520.0, -5643.0 / 20520.0, 0}};
-        beta = new DenseMatrix(6, 5);
-        new DenseMatrix(betaArray).transpose(beta);
-
-        double[][] gammaArray = {{902880.0 / 7618050.0, 0, 3953664.0 / 7618050.0,
-                                  3855735.0 / 7618050.0, -1371249.0 / 7618050.0,
-                                  277020.0 / 7618050.0},
-                                 {-2090.0 / 752400.0, 0, 22528.0 / 752400.0,
-                                  21970.0 / 752400.0, -15048.0 / 752400.0, -27360.0 / 752400.0}};
-        gamma = new DenseMatrix(6, 2);
-        new DenseMatrix(gammaArray).transpose(gamma);
-
-        pow = 1.0 / 5.0;
     }
 
     @Override
@@ -82,27 +110,68 @@ public class Pendulum implements Simulator {
         currState.set(1, (2 * rng.nextDouble() - 1) * .2);
     }
 
+    /**
+     * Simulates the pendulum for dt seconds with the chosen force plus noise, using the
+     * integrator chosen at construction. Every integrator draws the same noise, so pendulums that
+     * only differ in their integrator see the same forces.
+     *
+     * @param action Index of the force to apply
+     * @return The transition
+     */
     @Override
     public Sample step(int action) {
         double controlInput = actions[action] + rng.nextGaussian() * noise;
 
-        // the following is a translation of the pendulum_ode45 method
-        // that comes with the Lspi example code
-        DenseVector y0 = new DenseVector(3);
-        y0.set(0, currState.get(0));
-        y0.set(1, currState.get(1));
-        y0.set(2, controlInput);
+        vecY[0] = currState.get(0);
+        vecY[1] = currState.get(1);
+        vecY[2] = controlInput;
+
+        double[] yout = new double[3];
+        switch (integrator) {
+            case RK4:
+                integrateRk4(yout);
+                break;
+            case SEMI_IMPLICIT_EULER:
+                integrateSemiImplicitEuler(yout);
+                break;
+            case RKF45:
+                // fall through
+            default:
+                integrateRkf45(yout);
+        }
+
+        Vector nextState = new DenseVector(yout, false);
+
+        int reward = 0;
+        if (Math.abs(nextState.get(0)) > Math.PI / 2) {
+            reward = -1;
+        }
+
+        Sample sample = new Sample(currState,
+                                   action, nextState, reward, this.isTerminal(currState));
+        currState = nextState;
 
+        return sample;
+    }
+
+    /**
+     * Integrates vecY over dt into yout.
+     *
+     * <p>
+     * This is a translation of the pendulum_ode45 method that comes with the Lspi example code: an
+     * adaptive Runge-Kutta-Fehlberg 4(5) integration. The stages are kept in preallocated arrays,
+     * so nothing is allocated. Every sum is taken in the order the reference BLAS takes it for the
+     * equivalent matrix products, skipping zero coefficients, so trajectories are identical to the
+     * earlier version that integrated with MTJ matrices.
+     */
+    private void integrateRkf45(double[] yout) {
         double hmax = dt;
         double hmin = dt / 1000.0;
         double timeStep = dt;
-        Vector vecY = y0.copy();
-        Matrix matF = new DenseMatrix(3, 6);
 
-        Matrix matY = new DenseMatrix(vecY);
-        matY.mult(new DenseMatrix(1, 6), matF);
-
-        Vector yout = vecY.copy();
+        yout[0] = vecY[0];
+        yout[1] = vecY[1];
+        yout[2] = vecY[2];
         double tau;
 
         double time = 0;
@@ -112,98 +181,88 @@ public class Pendulum implements Simulator {
                 timeStep = tfinal - time;
             }
 
-
-            Vector xDot = pendulumSim(vecY, 2.0, 8.0, .5, 9.8);
-            matF.set(0, 0, xDot.get(0));
-            matF.set(1, 0, xDot.get(1));
-            matF.set(2, 0, xDot.get(2));
+            pendulumSim(vecY, stages[0]);
             for (int j = 0; j < 5; j++) {
-                Vector betaColumn = Matrices.getColumn(beta, j);
-                Matrix betaColumnMat = new DenseMatrix(betaColumn);
-
-                Matrix newMatF = new DenseMatrix(matF.numRows(), 1);
-                matF.mult(timeStep, betaColumnMat, newMatF);
-                Vector newVecY = vecY.copy();
-                newVecY.add(Matrices.getColumn(newMatF, 0));
-                xDot = pendulumSim(newVecY, 2.0, 8.0, .5, 9.8);
-
-                matF.set(0, j+1, xDot.get(0));
-                matF.set(1, j+1, xDot.get(1));
-                matF.set(2, j+1, xDot.get(2));
+                combineStages(timeStep, BETA[j]);
+                for (int i = 0; i < 3; i++) {
+                    stageY[i] = vecY[i] + increment[i];
+                }
+                pendulumSim(stageY, stages[j + 1]);
             }
 
-            Vector gammaColumn = Matrices.getColumn(gamma, 1);
-            Matrix gammaColumnMat = new DenseMatrix(gammaColumn);
+            // the error estimate. This is the sum of the magnitudes rather than the largest one,
+            // because MTJ's infinity norm of the 3 x 1 error matrix summed its column.
+            combineStages(timeStep, GAMMA[1]);
+            double delta = Math.abs(increment[0]) + Math.abs(increment[1])
+                    + Math.abs(increment[2]);
 
-            Matrix newMatF = new DenseMatrix(3,1);
-            matF.mult(timeStep, gammaColumnMat, newMatF);
-            double delta = newMatF.norm(Matrix.Norm.Infinity);
-
-            tau = tol * Math.max(vecY.norm(Vector.Norm.Infinity), 1.0);
+            tau = tol * Math.max(Math.max(Math.abs(vecY[0]),
+                    Math.max(Math.abs(vecY[1]), Math.abs(vecY[2]))), 1.0);
 
             // update the solution only if the error is acceptable
             if (delta <= tau) {
                 time = time + timeStep;
-                gammaColumn = Matrices.getColumn(gamma, 0);
-                gammaColumnMat = new DenseMatrix(gammaColumn);
-
-                newMatF.zero();
-                matF.mult(timeStep, gammaColumnMat, newMatF);
-
-                vecY.add(Matrices.getColumn(newMatF, 0));
-
-                yout = vecY.copy();
+                combineStages(timeStep, GAMMA[0]);
+                for (int i = 0; i < 3; i++) {
+                    vecY[i] += increment[i];
+                }
+
+                yout[0] = vecY[0];
+                yout[1] = vecY[1];
+                yout[2] = vecY[2];
             }
 
             // update the step size
             if (delta != 0.0) {
-                timeStep = Math.min(hmax, .8 * timeStep * Math.pow(tau / delta, pow));
+                timeStep = Math.min(hmax, .8 * timeStep * Math.pow(tau / delta, POW));
             }
         }
 
         if (time < tfinal) {
             logger.warn("SINGULARITY LIKELY: {}", time);
         }
+    }
 
-        Vector nextState = yout.copy();
-
-        int reward = 0;
-        if (Math.abs(nextState.get(0)) > Math.PI / 2) {
-            reward = -1;
-        }
-
-        Sample sample = new Sample(currState,
-                                   action, nextState, reward, this.isTerminal(currState));
-        currState = nextState;
+    /**
+     * Integrates vecY over dt into yout with one classical Runge-Kutta step.
+     */
+    private void integrateRk4(double[] yout) {
+        PendulumDynamics.rk4Step(vecY[0], vecY[1], vecY[2], dt, yout);
+        yout[2] = vecY[2];
+    }
 
-        return sample;
+    /**
+     * Integrates vecY over dt into yout with one semi-implicit Euler step.
+     */
+    private void integrateSemiImplicitEuler(double[] yout) {
+        PendulumDynamics.semiImplicitEulerStep(vecY[0], vecY[1], vecY[2], dt, yout);
+        yout[2] = vecY[2];
     }
 
-    private Vector pendulumSim(Vector stateMat,
-                               double pendulumMass,
-                               double cartMass,
-                               double pendulumLength,
-                               double gravity) {
-        Vector xdot = new DenseVector(3);
-        double controlInput = stateMat.get(2);
-        double cx = Math.cos(stateMat.get(0));
-
-        xdot.set(0, stateMat.get(1));
-        double accel = 1.0 / (cartMass + pendulumMass);
-
-        xdot.set(1, ((gravity * Math.sin(stateMat.get(0)))
-                        - (accel * pendulumMass * pendulumLength
-                           * stateMat.get(1) * stateMat.get(1)
-                           * Math.sin(2.0 * stateMat.get(0)) / 2.0)
-                        - (accel * Math.cos(stateMat.get(0)) * controlInput))
-                       / (4.0 / 3.0 * pendulumLength - accel
-                                                       * pendulumMass * pendulumLength * cx * cx));
-
-        xdot.set(2, 0);
-
-        return xdot;
+    /**
+     * Sets increment to timeStep times the weighted sum of the stages. Zero weights are skipped,
+     * so stages that have not been computed in this step never contribute.
+     */
+    private void combineStages(double timeStep, double[] weights) {
+        increment[0] = 0;
+        increment[1] = 0;
+        increment[2] = 0;
+        for (int l = 0; l < 6; l++) {
+            if (weights[l] != 0) {
+                double temp = timeStep * weights[l];
+                double[] stage = stages[l];
+                increment[0] += temp * stage[0];
+                increment[1] += temp * stage[1];
+                increment[2] += temp * stage[2];
+            }
+        }
     }
 
+    private static void pendulumSim(double[] stateMat, double[] xdot) {
+        xdot[0] = stateMat[1];
+        xdot[1] = PendulumDynamics.acceleration(stateMat[0], stateMat[1], stateMat[2]);
+        xdot[2] = 0;
+    }
 
     @Override
     public boolean isGoal(Vector state) {
@@ -259,4 +318,8 @@ public class Pendulum implements Simulator {
         return null;
     }
 
+    @Override
+    public void seed(long seed) {
+        rng.setSeed(seed);
+    }
 }
@@ -0,0 +1,81 @@
+package edu.cwru.eecs.rl.domains;
+
+/**
+ * Equations of motion of the inverted pendulum on a cart and its fixed-step integrators, shared
+ * by Pendulum and BatchPendulum so that both simulate exactly the same system.
+ *
+ * <p>
+ * The control input is held constant over a step, so the state being integrated is only the
+ * angle and the angular velocity.
+ */
+final class PendulumDynamics {
+
+    static final double PENDULUM_MASS = 2.0;
+    static final double CART_MASS = 8.0;
+    static final double PENDULUM_LENGTH = .5;
+    static final double GRAVITY = 9.8;
+
+    private PendulumDynamics() {
+    }
+
+    /**
+     * Angular acceleration of the pendulum.
+     *
+     * @param angle        Angle from the vertical
+     * @param velocity     Angular velocity
+     * @param controlInput Force applied to the cart
+     * @return Angular acceleration
+     */
+    static double acceleration(double angle, double velocity, double controlInput) {
+        double cx = Math.cos(angle);
+        double accel = 1.0 / (CART_MASS + PENDULUM_MASS);
+
+        return ((GRAVITY * Math.sin(angle))
+                - (accel * PENDULUM_MASS * PENDULUM_LENGTH
+                   * velocity * velocity
+                   * Math.sin(2.0 * angle) / 2.0)
+                - (accel * cx * controlInput))
+               / (4.0 / 3.0 * PENDULUM_LENGTH - accel
+                                                * PENDULUM_MASS * PENDULUM_LENGTH * cx * cx);
+    }
+
+    /**
+     * Integrates over dt with one classical Runge-Kutta step.
+     *
+     * @param angle        Angle at the start of the step
+     * @param velocity     Angular velocity at the start of the step
+     * @param controlInput Force applied during the step
+     * @param dt           Step length in seconds
+     * @param out          Receives the angle and the angular velocity at the end of the step
+     */
+    static void rk4Step(double angle, double velocity, double controlInput, double dt,
+                        double[] out) {
+        double half = dt / 2.0;
+        double k1a = velocity;
+        double k1v = acceleration(angle, velocity, controlInput);
+        double k2a = velocity + half * k1v;
+        double k2v = acceleration(angle + half * k1a, k2a, controlInput);
+        double k3a = velocity + half * k2v;
+        double k3v = acceleration(angle + half * k2a, k3a, controlInput);
+        double k4a = velocity + dt * k3v;
+        double k4v = acceleration(angle + dt * k3a, k4a, controlInput);
+        out[0] = angle + dt / 6.0 * (k1a + 2.0 * k2a + 2.0 * k3a + k4a);
+        out[1] = velocity + dt / 6.0 * (k1v + 2.0 * k2v + 2.0 * k3v + k4v);
+    }
+
+    /**
+     * Integrates over dt with one semi-implicit Euler step, which updates the velocity first and
+     * moves the angle with the new velocity.
+     *
+     * @param angle        Angle at the start of the step
+     * @param velocity     Angular velocity at the start of the step
+     * @param controlInput Force applied during the step
+     * @param dt           Step length in seconds
+     * @param out          Receives the angle and the angular velocity at the end of the step
+     */
+    static void semiImplicitEulerStep(double angle, double velocity, double controlInput,
+                                      double dt, double[] out) {
+        out[1] = velocity + dt * acceleration(angle, velocity, controlInput);
+        out[0] = angle + dt * out[1];
+    }
+}
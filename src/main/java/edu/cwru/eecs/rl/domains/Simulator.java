@@ -26,4 +26,20 @@ public interface Simulator {
     String stateStr(Vector state);
 
     String actionStr(double action);
+
+    /**
+     * Reseeds the simulator's random number generator, so that the episodes that follow are
+     * reproducible.
+     *
+     * <p>
+     * Simulators that do not override this cannot be seeded, so the seeded sampling and
+     * evaluation methods of PolicySampler cannot be used with them. Deterministic simulators
+     * should override it as a no-op, as Binary and PackedBinary do.
+     *
+     * @param seed Random number generator seed
+     * @throws UnsupportedOperationException If the simulator cannot be reseeded
+     */
+    default void seed(long seed) {
+        throw new UnsupportedOperationException(getClass().getName() + " cannot be seeded");
+    }
 }
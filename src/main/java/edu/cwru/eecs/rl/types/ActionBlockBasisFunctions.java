@@ -0,0 +1,24 @@
+package edu.cwru.eecs.rl.types;
+
+/**
+ * Basis functions whose features are split into one disjoint block per action.
+ *
+ * <p>
+ * phi(s, a) is zero outside of features a * blockSize() to (a + 1) * blockSize() - 1. The LSTDQ
+ * matrix A = sum phi(s, a) (phi(s, a) - gamma phi(s', pi(s')))^T then only has non-zero blocks
+ * on the diagonal and at (a, pi(s')) for the actions that appear in the samples.
+ *
+ * <p>
+ * Every block holds the same features of the state, so Q(s, a) is the dot product of those
+ * features with the weights of block a. Policy.greedyActions relies on this to evaluate the
+ * features of a state once for all of its actions.
+ */
+public interface ActionBlockBasisFunctions extends SparseBasisFunctions {
+
+    /**
+     * Number of features in each action's block.
+     *
+     * @return Block size. size() is a multiple of it.
+     */
+    int blockSize();
+}
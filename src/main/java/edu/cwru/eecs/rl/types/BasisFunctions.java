@@ -1,10 +1,54 @@
 package edu.cwru.eecs.rl.types;
 
+import java.util.Arrays;
+
+import no.uib.cipr.matrix.DenseVector;
 import no.uib.cipr.matrix.Vector;
+import no.uib.cipr.matrix.VectorEntry;
 
 public interface BasisFunctions {
 
     Vector evaluate(Vector state, int action);
 
     int size();
+
+    /**
+     * Writes phi(state, action) into out without allocating. Every entry of out is overwritten.
+     *
+     * <p>
+     * The default implementation wraps the state and calls evaluate, so it allocates. The bases
+     * in this project override it.
+     *
+     * @param state  Environment state
+     * @param action Action being performed
+     * @param out    Array of length size() that receives the features
+     */
+    default void evaluateInto(double[] state, int action, double[] out) {
+        Arrays.fill(out, 0);
+        for (VectorEntry entry : evaluate(new DenseVector(state, false), action)) {
+            out[entry.index()] = entry.get();
+        }
+    }
+
+    /**
+     * Computes phi(state, action) . weights without allocating, which is the state-action value
+     * of a linear policy. Bases whose features are mostly zero only visit their non-zero
+     * features.
+     *
+     * <p>
+     * The default implementation wraps the state and calls evaluate, so it allocates. The bases
+     * in this project override it.
+     *
+     * @param state   Environment state
+     * @param action  Action being performed
+     * @param weights Array of length size() holding the policy weights
+     * @return phi(state, action) . weights
+     */
+    default double dot(double[] state, int action, double[] weights) {
+        double result = 0;
+        for (VectorEntry entry : evaluate(new DenseVector(state, false), action)) {
+            result += entry.get() * weights[entry.index()];
+        }
+        return result;
+    }
 }
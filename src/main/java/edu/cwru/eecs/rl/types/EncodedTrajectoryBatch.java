@@ -0,0 +1,272 @@
+package edu.cwru.eecs.rl.types;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Vector;
+
+/**
+ * Stores trajectories of integer-valued states as a delta and varint encoded byte stream.
+ *
+ * <p>
+ * In the discrete domains a state is a small integer (Chain) or a vector of bits (Binary), and
+ * consecutive states differ in at most one variable by one. Like TrajectoryBatch, every state is
+ * stored once per episode, but as the difference of each variable from the previous state, zigzag
+ * encoded into a variable length integer. A step of Chain then takes four bytes: the flags, the
+ * action, the reward and the state delta, against 44 bytes in a SampleBatch.
+ *
+ * <p>
+ * Each sample is encoded as its flags (absorb, whether it starts a new episode, whether the reward
+ * is stored raw, and the type), the current state if it starts an episode, the action, the reward
+ * and the next state. Rewards that are whole numbers are stored as varints and all others as 8
+ * raw bytes. A new episode is started whenever a sample's current state differs from the previous
+ * sample's next state, so any samples can be added and are returned unchanged.
+ *
+ * <p>
+ * Samples can only be read back in order, through a flyweight iterator that reuses one Sample, so
+ * this store suits the improvers that stream their samples.
+ */
+public class EncodedTrajectoryBatch implements Iterable<Sample>, Serializable {
+
+    private static final long serialVersionUID = 6164512047367235826L;
+
+    private static final Sample.Type[] TYPES = Sample.Type.values();
+
+    private static final int ABSORB = 1;
+    private static final int NEW_EPISODE = 2;
+    private static final int RAW_REWARD = 4;
+    private static final int TYPE_SHIFT = 3;
+
+    // largest magnitude at which every whole double is exactly representable as a long
+    private static final double MAX_EXACT = 1L << 53;
+
+    private final int stateDimension;
+    private int size;
+    private int numEpisodes;
+
+    private byte[] data;
+    private int length;
+
+    // last state written, the base of the next delta
+    private final long[] lastState;
+    private final long[] scratch;
+
+    /**
+     * Constructs an empty batch.
+     *
+     * @param stateDimension Number of state variables of every sample
+     */
+    public EncodedTrajectoryBatch(int stateDimension) {
+        this.stateDimension = stateDimension;
+        this.data = new byte[64];
+        this.lastState = new long[stateDimension];
+        this.scratch = new long[stateDimension];
+    }
+
+    /**
+     * Copies samples into a new batch whose state dimension is the largest state size among the
+     * samples.
+     *
+     * @param samples Samples to copy. Every state variable must be a whole number.
+     * @return The batch
+     */
+    public static EncodedTrajectoryBatch of(Iterable<Sample> samples) {
+        int stateDimension = 0;
+        for (Sample sample : samples) {
+            stateDimension = Math.max(stateDimension,
+                    Math.max(sample.currState.size(), sample.nextState.size()));
+        }
+        EncodedTrajectoryBatch batch = new EncodedTrajectoryBatch(stateDimension);
+        for (Sample sample : samples) {
+            batch.add(sample);
+        }
+        return batch;
+    }
+
+    /**
+     * Appends a sample, continuing the current episode if the sample starts where the previous one
+     * ended.
+     *
+     * @param sample Sample to encode. Its states may be shorter than stateDimension() and are
+     *               padded with zeros.
+     * @throws IllegalArgumentException If a state is too large or has a fractional variable
+     */
+    public void add(Sample sample) {
+        toLongs(sample.currState, scratch);
+        boolean newEpisode = size == 0 || !Arrays.equals(scratch, lastState);
+        long[] curr = newEpisode ? scratch.clone() : null;
+        toLongs(sample.nextState, scratch);
+
+        boolean rawReward = !isWhole(sample.reward);
+        int flags = (sample.absorb ? ABSORB : 0) | (newEpisode ? NEW_EPISODE : 0)
+                | (rawReward ? RAW_REWARD : 0) | sample.type.ordinal() << TYPE_SHIFT;
+        writeVarint(flags);
+        if (newEpisode) {
+            writeDeltas(curr);
+            numEpisodes++;
+        }
+        writeVarint(zigzag(sample.action));
+        if (rawReward) {
+            long bits = Double.doubleToRawLongBits(sample.reward);
+            for (int i = 0; i < 8; i++) {
+                writeByte((int) (bits >>> (8 * i)));
+            }
+        } else {
+            writeVarint(zigzag((long) sample.reward));
+        }
+        writeDeltas(scratch);
+        size++;
+    }
+
+    private void toLongs(Vector state, long[] out) {
+        if (state.size() > stateDimension) {
+            throw new IllegalArgumentException("Expected a state of at most size "
+                    + stateDimension + " but got " + state.size());
+        }
+        Arrays.fill(out, 0);
+        for (int i = 0; i < state.size(); i++) {
+            double value = state.get(i);
+            if (!isWhole(value)) {
+                throw new IllegalArgumentException("State variable " + i + " is not a whole "
+                        + "number: " + value);
+            }
+            out[i] = (long) value;
+        }
+    }
+
+    private static boolean isWhole(double value) {
+        return value == Math.rint(value) && Math.abs(value) <= MAX_EXACT;
+    }
+
+    private void writeDeltas(long[] state) {
+        for (int i = 0; i < stateDimension; i++) {
+            writeVarint(zigzag(state[i] - lastState[i]));
+            lastState[i] = state[i];
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private void writeVarint(long value) {
+        while ((value & ~0x7fL) != 0) {
+            writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        writeByte((int) value);
+    }
+
+    private void writeByte(int value) {
+        if (length == data.length) {
+            int capacity = (int) Math.min(Integer.MAX_VALUE - 8, 2L * length);
+            if (capacity == length) {
+                throw new IllegalStateException("Too many samples for one batch");
+            }
+            data = Arrays.copyOf(data, capacity);
+        }
+        data[length++] = (byte) value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int stateDimension() {
+        return stateDimension;
+    }
+
+    public int numEpisodes() {
+        return numEpisodes;
+    }
+
+    /**
+     * Number of bytes of encoded samples.
+     *
+     * @return Encoded size
+     */
+    public int encodedBytes() {
+        return length;
+    }
+
+    /**
+     * Decodes the batch in order, reusing one Sample per iterator. The returned sample is only
+     * valid until the next call to next().
+     *
+     * @return Flyweight iterator
+     */
+    @Override
+    public Iterator<Sample> iterator() {
+        return new Iterator<Sample>() {
+            private final Sample flyweight = new Sample(new DenseVector(stateDimension), 0,
+                    new DenseVector(stateDimension), 0);
+            private final long[] state = new long[stateDimension];
+            private int next = 0;
+            private int position = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public Sample next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                int flags = (int) readVarint();
+                if ((flags & NEW_EPISODE) != 0) {
+                    readDeltas();
+                }
+                double[] currState = ((DenseVector) flyweight.currState).getData();
+                for (int i = 0; i < stateDimension; i++) {
+                    currState[i] = state[i];
+                }
+                flyweight.action = (int) unzigzag(readVarint());
+                if ((flags & RAW_REWARD) != 0) {
+                    long bits = 0;
+                    for (int i = 0; i < 8; i++) {
+                        bits |= (data[position++] & 0xffL) << (8 * i);
+                    }
+                    flyweight.reward = Double.longBitsToDouble(bits);
+                } else {
+                    flyweight.reward = unzigzag(readVarint());
+                }
+                readDeltas();
+                double[] nextState = ((DenseVector) flyweight.nextState).getData();
+                for (int i = 0; i < stateDimension; i++) {
+                    nextState[i] = state[i];
+                }
+                flyweight.absorb = (flags & ABSORB) != 0;
+                flyweight.type = TYPES[flags >>> TYPE_SHIFT];
+                next++;
+                return flyweight;
+            }
+
+            private void readDeltas() {
+                for (int i = 0; i < stateDimension; i++) {
+                    state[i] += unzigzag(readVarint());
+                }
+            }
+
+            private long readVarint() {
+                long value = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[position++];
+                    value |= (b & 0x7fL) << shift;
+                    shift += 7;
+                } while (b < 0);
+                return value;
+            }
+        };
+    }
+}
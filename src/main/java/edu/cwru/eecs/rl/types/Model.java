@@ -127,6 +127,18 @@ public class Model {
         rewardSums.put(key, rewardSums.getOrDefault(key, 0.0) + sample.reward);
     }
 
+    /**
+     * Adds every sample of a batch. The batch reuses one Sample while iterating, which is fine here
+     * because the model copies the states it keeps.
+     *
+     * @param batch Samples to add
+     */
+    public void addSamples(SampleBatch batch) {
+        for (Sample sample : batch) {
+            addSample(sample);
+        }
+    }
+
     public Map<VectorWrapper, Double> getTransitionProbabilities(Vector state, int action) {
         StateActionTuple key = new StateActionTuple(state, action);
         return getTransitionProbabilities(key);
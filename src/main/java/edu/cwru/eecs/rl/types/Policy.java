@@ -1,18 +1,32 @@
 package edu.cwru.eecs.rl.types;
 
+import no.uib.cipr.matrix.DenseMatrix;
 import no.uib.cipr.matrix.DenseVector;
 import no.uib.cipr.matrix.Matrices;
 import no.uib.cipr.matrix.Vector;
 
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntFunction;
 
 public class Policy implements Serializable {
 
+    /**
+     * Number of state features in one block of greedyActions. 32768 doubles take 256 KB, which
+     * fits in the L2 cache of most processors.
+     */
+    public static final int FEATURE_BLOCK_SIZE = 1 << 15;
+
     public double explore;
     public int actions;
     public BasisFunctions basis;
     public Vector weights;
 
+    // exploration source, null for the calling thread's ThreadLocalRandom
+    private transient Random random;
+
     /**
      * Constructs a policy.
      *
@@ -37,8 +51,8 @@ public class Policy implements Serializable {
     }
 
     /**
-     * Construct a copy of the old policy. The weights are a deep copy, but the basis function is a
-     * shallow copy.
+     * Construct a copy of the old policy. The weights are a deep copy, but the basis function and
+     * the random source are shallow copies.
      *
      * @param oldPolicy Policy to copy
      */
@@ -47,17 +61,213 @@ public class Policy implements Serializable {
         this.actions = oldPolicy.actions;
         this.basis = oldPolicy.basis;
         this.weights = oldPolicy.weights.copy();
+        this.random = oldPolicy.random;
+    }
+
+    /**
+     * Sets the generator that evaluate uses to decide when and how to explore. A seeded generator
+     * makes sampling with this policy repeatable when it is evaluated from a single thread. Pass
+     * null to go back to the default, the calling thread's ThreadLocalRandom, which threads can
+     * use concurrently without contention.
+     *
+     * @param random Exploration source or null for the default
+     */
+    public void setRandom(Random random) {
+        this.random = random;
+    }
+
+    /**
+     * The generator evaluate currently explores with.
+     *
+     * @return The random source set with setRandom, or the calling thread's ThreadLocalRandom
+     */
+    public Random getRandom() {
+        return random != null ? random : ThreadLocalRandom.current();
     }
 
     /**
      * Given a state return the best action according to the policy.
      *
+     * <p>
+     * Unlike evaluate(Vector) this does not allocate, as long as the weights are a DenseVector
+     * and the basis implements dot.
+     *
      * @param state Current state of the environment
      * @return The index of the best action
      * @throws Exception If state dimensions do not match weight dimensions
      */
     public int evaluate(double[] state) throws Exception {
-        return evaluate(new DenseVector(state));
+        if (this.explore > 0) {
+            return evaluate(state, getRandom());
+        }
+        return greedyAction(state);
+    }
+
+    /**
+     * Given a state return the best action according to the policy, drawing the exploration
+     * decisions from the given generator instead of the policy's own, as evaluate(Vector, Random)
+     * does. Nothing is drawn when explore is 0.
+     *
+     * @param state  Current state of the environment
+     * @param random Source of the exploration decisions
+     * @return The index of the best action
+     * @throws Exception If state dimensions do not match weight dimensions
+     */
+    public int evaluate(double[] state, Random random) throws Exception {
+        if (this.explore > 0 && random.nextDouble() < this.explore) {
+            return (int) (random.nextDouble() * actions);
+        }
+        return greedyAction(state);
+    }
+
+    /**
+     * The action with the highest state-action value, without exploring and without allocating
+     * as long as the weights are a DenseVector and the basis implements dot.
+     *
+     * @param state Current state of the environment
+     * @return The index of the best action
+     */
+    public int greedyAction(double[] state) {
+        double[] weightArray = weightArray();
+        int bestAction = 0;
+        double bestQ = Double.NEGATIVE_INFINITY;
+        for (int action = 0; action < actions; action++) {
+            double currQ = basis.dot(state, action, weightArray);
+            if (currQ > bestQ) {
+                bestQ = currQ;
+                bestAction = action;
+            }
+        }
+        return bestAction;
+    }
+
+    /**
+     * The greedy action for each of many states, as greedyAction(double[]) would choose them.
+     *
+     * <p>
+     * For an ActionBlockBasisFunctions every action's block holds the same state features, so the
+     * features of each state are evaluated once, into a column of a blockSize() x states block.
+     * The weights, whose action blocks are contiguous, are read in place as a blockSize() x
+     * actions matrix W, and all of the Q values of the block come out of a single product
+     * block^T W. Blocks hold at most FEATURE_BLOCK_SIZE features. Any other basis is evaluated one
+     * state at a time with greedyAction. The product sums the Q values in a different order than
+     * dot sums them, so a state whose best actions are tied to within rounding may get another of
+     * those actions.
+     *
+     * @param states States to choose actions for
+     * @return The index of the best action for each state
+     */
+    public int[] greedyActions(double[][] states) {
+        return greedyActions(states.length, i -> states[i]);
+    }
+
+    /**
+     * Same as greedyActions(double[][]) for states packed row-major into one array, such as the
+     * states of a SampleBatch.
+     *
+     * @param states         numStates * stateDimension state variables
+     * @param stateDimension Number of variables per state
+     * @return The index of the best action for each state
+     * @throws IllegalArgumentException If states does not hold a whole number of states
+     */
+    public int[] greedyActions(double[] states, int stateDimension) {
+        if (stateDimension <= 0 || states.length % stateDimension != 0) {
+            throw new IllegalArgumentException("Expected a multiple of " + stateDimension
+                    + " state variables but got " + states.length);
+        }
+        double[] state = new double[stateDimension];
+        return greedyActions(states.length / stateDimension, i -> {
+            System.arraycopy(states, i * stateDimension, state, 0, stateDimension);
+            return state;
+        });
+    }
+
+    private int[] greedyActions(int numStates, IntFunction<double[]> stateAt) {
+        int[] result = new int[numStates];
+        if (!isActionBlocked()) {
+            for (int i = 0; i < numStates; i++) {
+                result[i] = greedyAction(stateAt.apply(i));
+            }
+            return result;
+        }
+
+        ActionBlockBasisFunctions blockBasis = (ActionBlockBasisFunctions) basis;
+        int blockSize = blockBasis.blockSize();
+        int statesPerBlock = Math.max(1, Math.min(numStates, FEATURE_BLOCK_SIZE / blockSize));
+
+        DenseMatrix matW = new DenseMatrix(blockSize, actions, weightArray(), false);
+        DenseMatrix block = new DenseMatrix(blockSize, statesPerBlock);
+        double[] blockData = block.getData();
+        // Q(s, a) of state i of the block at i + a * statesPerBlock
+        DenseMatrix values = new DenseMatrix(statesPerBlock, actions);
+        double[] valueData = values.getData();
+        int[] indices = new int[blockBasis.maxNonZeros()];
+        double[] features = new double[blockBasis.maxNonZeros()];
+
+        for (int start = 0; start < numStates; start += statesPerBlock) {
+            int end = Math.min(numStates, start + statesPerBlock);
+            for (int i = start; i < end; i++) {
+                // action 0's block, whose features start at index 0
+                int column = (i - start) * blockSize;
+                Arrays.fill(blockData, column, column + blockSize, 0);
+                int count = blockBasis.evaluateSparse(stateAt.apply(i), 0, indices, features);
+                for (int k = 0; k < count; k++) {
+                    blockData[column + indices[k]] = features[k];
+                }
+            }
+
+            // columns past end hold stale features and their rows are ignored
+            block.transAmult(matW, values);
+
+            for (int i = start; i < end; i++) {
+                int row = i - start;
+                int bestAction = 0;
+                double bestQ = Double.NEGATIVE_INFINITY;
+                for (int action = 0; action < actions; action++) {
+                    double currQ = valueData[row + action * statesPerBlock];
+                    if (currQ > bestQ) {
+                        bestQ = currQ;
+                        bestAction = action;
+                    }
+                }
+                result[i] = bestAction;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Whether greedyActions can evaluate the state features once for all actions: the basis is
+     * action-blocked, has one block per action and reports its features within the block.
+     */
+    private boolean isActionBlocked() {
+        if (!(basis instanceof ActionBlockBasisFunctions)) {
+            return false;
+        }
+        ActionBlockBasisFunctions blockBasis = (ActionBlockBasisFunctions) basis;
+        int blockSize = blockBasis.blockSize();
+        return blockSize > 0
+                && (long) blockSize * actions == basis.size()
+                && blockBasis.maxNonZeros() <= blockSize
+                && weights.size() == basis.size();
+    }
+
+    /**
+     * Returns the state-action value for a state given as an array.
+     *
+     * @param state  State to calculate Q function for
+     * @param action Action to calculate Q function for
+     * @return State-action function value for specified state-action pair
+     */
+    public double stateActionValue(double[] state, int action) {
+        return basis.dot(state, action, weightArray());
+    }
+
+    private double[] weightArray() {
+        if (weights instanceof DenseVector) {
+            return ((DenseVector) weights).getData();
+        }
+        return Matrices.getArray(weights);
     }
 
     /**
@@ -68,18 +278,35 @@ public class Policy implements Serializable {
      * @throws Exception If state dimensions do not match weight dimensions
      */
     public int evaluate(Vector state) throws Exception {
-        int bestAction = 0;
+        return evaluate(state, getRandom());
+    }
 
-        if (Math.random() < this.explore) {
-            bestAction = (int) (Math.random() * actions);
-        } else {
-            double bestQ = Double.NEGATIVE_INFINITY;
-            for (int action = 0; action < actions; action++) {
-                double currQ = this.stateActionValue(state, action);
-                if (currQ > bestQ) {
-                    bestQ = currQ;
-                    bestAction = action;
-                }
+    /**
+     * Given a state return the best action according to the policy, drawing the exploration
+     * decisions from the given generator instead of the policy's own. Threads that each use their
+     * own generator can then evaluate the policy concurrently and reproducibly. Nothing is drawn
+     * when explore is 0.
+     *
+     * @param state  Current state of the environment
+     * @param random Source of the exploration decisions
+     * @return The index of the best action
+     * @throws Exception If state dimensions do not match weight dimensions
+     */
+    public int evaluate(Vector state, Random random) throws Exception {
+        if (this.explore > 0 && random.nextDouble() < this.explore) {
+            return (int) (random.nextDouble() * actions);
+        }
+        return greedyAction(state);
+    }
+
+    private int greedyAction(Vector state) throws Exception {
+        int bestAction = 0;
+        double bestQ = Double.NEGATIVE_INFINITY;
+        for (int action = 0; action < actions; action++) {
+            double currQ = this.stateActionValue(state, action);
+            if (currQ > bestQ) {
+                bestQ = currQ;
+                bestAction = action;
             }
         }
         return bestAction;
@@ -0,0 +1,319 @@
+package edu.cwru.eecs.rl.types;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Vector;
+import no.uib.cipr.matrix.sparse.SparseVector;
+
+/**
+ * Stores samples column by column in primitive arrays.
+ *
+ * <p>
+ * A Sample is an object holding two MTJ vectors, each wrapping its own array, which for a small
+ * state costs several times more memory than the data itself. Here the states of all samples are
+ * packed row-major into two double arrays, and the actions, rewards, absorb flags and types into
+ * one array each. Every state takes stateDimension entries; shorter states, such as the initial
+ * pendulum state that does not yet include the control input, are padded with zeros.
+ *
+ * <p>
+ * Iterating over the batch returns a single Sample per iterator whose fields are overwritten on
+ * every call to next(). That suits consumers that do not keep the samples, such as the streaming
+ * LSTDQ improvers and Model.addSamples. Consumers that need to hold on to samples can use get(i)
+ * or asList(), which create a new Sample for every access.
+ */
+public class SampleBatch implements Iterable<Sample>, Serializable {
+
+    private static final long serialVersionUID = 4315732126458311702L;
+
+    private static final Sample.Type[] TYPES = Sample.Type.values();
+
+    private final int stateDimension;
+    private int size;
+
+    private double[] currStates;
+    private int[] actions;
+    private double[] rewards;
+    private double[] nextStates;
+    private final BitSet absorb;
+    private byte[] types;
+
+    /**
+     * Constructs an empty batch.
+     *
+     * @param stateDimension Number of state variables of every sample
+     */
+    public SampleBatch(int stateDimension) {
+        this(stateDimension, 16);
+    }
+
+    /**
+     * Constructs an empty batch with room for the given number of samples before it has to grow.
+     *
+     * @param stateDimension Number of state variables of every sample
+     * @param capacity       Expected number of samples
+     */
+    public SampleBatch(int stateDimension, int capacity) {
+        this.stateDimension = stateDimension;
+        capacity = Math.max(1, capacity);
+        this.currStates = new double[capacity * stateDimension];
+        this.actions = new int[capacity];
+        this.rewards = new double[capacity];
+        this.nextStates = new double[capacity * stateDimension];
+        this.absorb = new BitSet(capacity);
+        this.types = new byte[capacity];
+    }
+
+    /**
+     * Copies a list of samples into a new batch whose state dimension is the largest state size
+     * among the samples.
+     *
+     * @param samples Samples to copy
+     * @return The batch
+     */
+    public static SampleBatch of(List<Sample> samples) {
+        int stateDimension = 0;
+        for (Sample sample : samples) {
+            stateDimension = Math.max(stateDimension,
+                    Math.max(sample.currState.size(), sample.nextState.size()));
+        }
+        SampleBatch batch = new SampleBatch(stateDimension, samples.size());
+        for (Sample sample : samples) {
+            batch.add(sample);
+        }
+        return batch;
+    }
+
+    /**
+     * Appends a copy of a sample.
+     *
+     * @param sample Sample to copy
+     */
+    public void add(Sample sample) {
+        checkSize(sample.currState.size());
+        checkSize(sample.nextState.size());
+        int index = append(sample.action, sample.reward, sample.absorb, sample.type);
+        copyState(sample.currState, currStates, index * stateDimension);
+        copyState(sample.nextState, nextStates, index * stateDimension);
+    }
+
+    /**
+     * Appends a sample.
+     *
+     * @param currState s. At most stateDimension() long.
+     * @param action    a
+     * @param nextState s'. At most stateDimension() long.
+     * @param reward    r
+     * @param absorb    True if this action ended the episode
+     */
+    public void add(double[] currState, int action, double[] nextState, double reward,
+                    boolean absorb) {
+        checkSize(currState.length);
+        checkSize(nextState.length);
+        int index = append(action, reward, absorb, Sample.Type.NORMAL);
+        System.arraycopy(currState, 0, currStates, index * stateDimension, currState.length);
+        System.arraycopy(nextState, 0, nextStates, index * stateDimension, nextState.length);
+    }
+
+    private void checkSize(int stateSize) {
+        if (stateSize > stateDimension) {
+            throw new IllegalArgumentException("Expected a state of at most size "
+                    + stateDimension + " but got " + stateSize);
+        }
+    }
+
+    private int append(int action, double reward, boolean absorb, Sample.Type type) {
+        if (size == actions.length) {
+            int capacity = (int) Math.min(Integer.MAX_VALUE - 8, 2L * size);
+            if (capacity == size || (long) capacity * stateDimension > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("Too many samples for one batch");
+            }
+            currStates = Arrays.copyOf(currStates, capacity * stateDimension);
+            nextStates = Arrays.copyOf(nextStates, capacity * stateDimension);
+            actions = Arrays.copyOf(actions, capacity);
+            rewards = Arrays.copyOf(rewards, capacity);
+            types = Arrays.copyOf(types, capacity);
+        }
+        int index = size++;
+        actions[index] = action;
+        rewards[index] = reward;
+        this.absorb.set(index, absorb);
+        types[index] = (byte) type.ordinal();
+        return index;
+    }
+
+    /**
+     * Copies the entries of a state into dest. Entries past the end of the state, and the zeros of
+     * a sparse state, are left untouched, so dest must already be zero there.
+     *
+     * @param state  State to copy
+     * @param dest   Destination array
+     * @param offset Index of the first state variable in dest
+     */
+    static void copyState(Vector state, double[] dest, int offset) {
+        // the arrays are only ever appended to, so the padding is already zero
+        if (state instanceof DenseVector) {
+            System.arraycopy(((DenseVector) state).getData(), 0, dest, offset, state.size());
+        } else if (state instanceof SparseVector) {
+            SparseVector sparse = (SparseVector) state;
+            int[] index = sparse.getRawIndex();
+            double[] data = sparse.getRawData();
+            for (int i = 0; i < sparse.getUsed(); i++) {
+                dest[offset + index[i]] = data[i];
+            }
+        } else {
+            for (int i = 0; i < state.size(); i++) {
+                dest[offset + i] = state.get(i);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int stateDimension() {
+        return stateDimension;
+    }
+
+    public int action(int sample) {
+        return actions[sample];
+    }
+
+    public double reward(int sample) {
+        return rewards[sample];
+    }
+
+    public boolean absorb(int sample) {
+        return absorb.get(sample);
+    }
+
+    public Sample.Type type(int sample) {
+        return TYPES[types[sample]];
+    }
+
+    /**
+     * A single variable of a sample's current state.
+     *
+     * @param sample   Sample index
+     * @param variable State variable index
+     * @return s[variable]
+     */
+    public double currState(int sample, int variable) {
+        return currStates[sample * stateDimension + variable];
+    }
+
+    /**
+     * A single variable of a sample's next state.
+     *
+     * @param sample   Sample index
+     * @param variable State variable index
+     * @return s'[variable]
+     */
+    public double nextState(int sample, int variable) {
+        return nextStates[sample * stateDimension + variable];
+    }
+
+    /**
+     * Copies a sample's current state into out.
+     *
+     * @param sample Sample index
+     * @param out    Array of length stateDimension()
+     */
+    public void currState(int sample, double[] out) {
+        System.arraycopy(currStates, sample * stateDimension, out, 0, stateDimension);
+    }
+
+    /**
+     * Copies a sample's next state into out.
+     *
+     * @param sample Sample index
+     * @param out    Array of length stateDimension()
+     */
+    public void nextState(int sample, double[] out) {
+        System.arraycopy(nextStates, sample * stateDimension, out, 0, stateDimension);
+    }
+
+    /**
+     * Creates a new Sample holding a copy of the sample at the given index. Its states have
+     * stateDimension() entries.
+     *
+     * @param sample Sample index
+     * @return The sample
+     */
+    public Sample get(int sample) {
+        if (sample < 0 || sample >= size) {
+            throw new IndexOutOfBoundsException("Sample " + sample + " of " + size);
+        }
+        Sample result = newSample();
+        fill(sample, result);
+        return result;
+    }
+
+    /**
+     * A read-only List view of the batch. Every get creates a new Sample, so the view can be used
+     * by code that keeps samples or reads them from several threads.
+     *
+     * @return List view
+     */
+    public List<Sample> asList() {
+        return new AbstractList<Sample>() {
+            @Override
+            public Sample get(int index) {
+                return SampleBatch.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Iterates over the batch, reusing one Sample per iterator. The returned sample is only valid
+     * until the next call to next().
+     *
+     * @return Flyweight iterator
+     */
+    @Override
+    public Iterator<Sample> iterator() {
+        return new Iterator<Sample>() {
+            private final Sample flyweight = newSample();
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public Sample next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                fill(next++, flyweight);
+                return flyweight;
+            }
+        };
+    }
+
+    private Sample newSample() {
+        return new Sample(new DenseVector(stateDimension), 0, new DenseVector(stateDimension), 0);
+    }
+
+    private void fill(int sample, Sample result) {
+        currState(sample, ((DenseVector) result.currState).getData());
+        nextState(sample, ((DenseVector) result.nextState).getData());
+        result.action = actions[sample];
+        result.reward = rewards[sample];
+        result.absorb = absorb.get(sample);
+        result.type = TYPES[types[sample]];
+    }
+}
@@ -0,0 +1,240 @@
+package edu.cwru.eecs.rl.types;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import no.uib.cipr.matrix.DenseVector;
+
+/**
+ * A sample file written by SampleFileWriter, memory-mapped for reading.
+ *
+ * <p>
+ * Nothing is copied onto the heap when the file is opened. The records are mapped in chunks of
+ * whole records, each below the 2 GB limit of a single mapping, and read in place by absolute
+ * index. The operating system pages the file in and out as needed, so sample sets larger than the
+ * heap can be iterated over by every LSPI iteration without being reloaded.
+ *
+ * <p>
+ * Like SampleBatch, the iterator reuses one Sample per iterator and get(i) or asList() create a
+ * new Sample per access. Iterators are independent, so several threads can read the file at once.
+ * Closing the file closes its channel; the mappings themselves are released when they are garbage
+ * collected.
+ */
+public class SampleFile implements Iterable<Sample>, Closeable {
+
+    static final int MAGIC = 0x4c535053;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    static final int COUNT_OFFSET = 16;
+    static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private static final Sample.Type[] TYPES = Sample.Type.values();
+
+    private final FileChannel channel;
+    private final int stateDimension;
+    private final int recordSize;
+    private final long count;
+    private final int recordsPerChunk;
+    private final MappedByteBuffer[] chunks;
+
+    private SampleFile(FileChannel channel, long maxChunkBytes) throws IOException {
+        this.channel = channel;
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(BYTE_ORDER);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                throw new IOException("Sample file is shorter than its header");
+            }
+        }
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a sample file");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported sample file version " + version);
+        }
+        this.stateDimension = header.getInt();
+        header.getInt();
+        this.count = header.getLong();
+        // a state dimension this large would overflow the record size
+        if (stateDimension <= 0 || stateDimension > (Integer.MAX_VALUE - 16) / 16) {
+            throw new IOException("Not a valid sample file");
+        }
+        this.recordSize = recordSize(stateDimension);
+
+        if (count < 0) {
+            throw new IOException("Not a valid sample file");
+        }
+        if (count > (channel.size() - HEADER_SIZE) / recordSize) {
+            throw new IOException("Sample file is truncated. Expected " + count + " samples");
+        }
+
+        this.recordsPerChunk = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                maxChunkBytes / recordSize));
+        int numChunks = (int) ((count + recordsPerChunk - 1) / recordsPerChunk);
+        this.chunks = new MappedByteBuffer[numChunks];
+        for (int i = 0; i < numChunks; i++) {
+            long first = (long) i * recordsPerChunk;
+            long records = Math.min(recordsPerChunk, count - first);
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                    HEADER_SIZE + first * recordSize, records * recordSize);
+            chunks[i].order(BYTE_ORDER);
+        }
+    }
+
+    /**
+     * Opens and maps a sample file.
+     *
+     * @param path File written by SampleFileWriter
+     * @return The mapped file
+     * @throws IOException If the file cannot be read or is not a valid sample file
+     */
+    public static SampleFile open(Path path) throws IOException {
+        return open(path, Integer.MAX_VALUE);
+    }
+
+    static SampleFile open(Path path, long maxChunkBytes) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new SampleFile(channel, maxChunkBytes);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Number of bytes taken by one sample.
+     *
+     * @param stateDimension Number of state variables stored per state
+     * @return Record size in bytes
+     */
+    public static int recordSize(int stateDimension) {
+        return 8 * (2 * stateDimension + 1) + 8;
+    }
+
+    /**
+     * Number of samples in the file.
+     *
+     * @return Sample count
+     */
+    public long size() {
+        return count;
+    }
+
+    public int stateDimension() {
+        return stateDimension;
+    }
+
+    /**
+     * Creates a new Sample holding a copy of the sample at the given index.
+     *
+     * @param sample Sample index
+     * @return The sample
+     */
+    public Sample get(long sample) {
+        if (sample < 0 || sample >= count) {
+            throw new IndexOutOfBoundsException("Sample " + sample + " of " + count);
+        }
+        Sample result = newSample();
+        fill(sample, result);
+        return result;
+    }
+
+    /**
+     * A read-only List view of the file for code that needs random access. Every get creates a
+     * new Sample.
+     *
+     * @return List view
+     * @throws IllegalStateException If the file has more samples than a List can index
+     */
+    public List<Sample> asList() {
+        if (count > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Too many samples for a List: " + count);
+        }
+        return new AbstractList<Sample>() {
+            @Override
+            public Sample get(int index) {
+                return SampleFile.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return (int) count;
+            }
+        };
+    }
+
+    /**
+     * Iterates over the file, reusing one Sample per iterator. The returned sample is only valid
+     * until the next call to next().
+     *
+     * @return Flyweight iterator
+     */
+    @Override
+    public Iterator<Sample> iterator() {
+        return new Iterator<Sample>() {
+            private final Sample flyweight = newSample();
+            private long next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < count;
+            }
+
+            @Override
+            public Sample next() {
+                if (next >= count) {
+                    throw new NoSuchElementException();
+                }
+                fill(next++, flyweight);
+                return flyweight;
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private Sample newSample() {
+        return new Sample(new DenseVector(stateDimension), 0, new DenseVector(stateDimension), 0);
+    }
+
+    private void fill(long sample, Sample result) {
+        MappedByteBuffer chunk = chunks[(int) (sample / recordsPerChunk)];
+        int offset = (int) (sample % recordsPerChunk) * recordSize;
+
+        double[] currState = ((DenseVector) result.currState).getData();
+        for (int i = 0; i < stateDimension; i++) {
+            currState[i] = chunk.getDouble(offset);
+            offset += 8;
+        }
+        double[] nextState = ((DenseVector) result.nextState).getData();
+        for (int i = 0; i < stateDimension; i++) {
+            nextState[i] = chunk.getDouble(offset);
+            offset += 8;
+        }
+        result.reward = chunk.getDouble(offset);
+        result.action = chunk.getInt(offset + 8);
+        int flags = chunk.getInt(offset + 12);
+        int type = flags >>> 1;
+        if (type >= TYPES.length) {
+            throw new IllegalStateException("Sample " + sample + " has an invalid type " + type);
+        }
+        result.absorb = (flags & 1) != 0;
+        result.type = TYPES[type];
+    }
+}
@@ -0,0 +1,179 @@
+package edu.cwru.eecs.rl.types;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import no.uib.cipr.matrix.Vector;
+
+/**
+ * Writes samples to a file in the fixed-record binary format read by SampleFile.
+ *
+ * <p>
+ * The file starts with a header of SampleFile.HEADER_SIZE bytes: the magic number, the format
+ * version, the state dimension, a reserved int and the number of samples as a long. Every sample
+ * then takes SampleFile.recordSize(stateDimension) bytes: the current state and the next state as
+ * stateDimension doubles each, the reward as a double, the action as an int and an int of flags
+ * holding the absorb bit and the sample type. All values are little-endian. Shorter states are
+ * padded with zeros, the same as in SampleBatch.
+ *
+ * <p>
+ * The sample count is written when the writer is closed, so a file is only valid once close()
+ * has returned.
+ */
+public class SampleFileWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private final int stateDimension;
+    private final ByteBuffer buffer;
+    private long count;
+
+    /**
+     * Creates or truncates the file and writes a header for an empty sample set.
+     *
+     * @param path           File to write
+     * @param stateDimension Number of state variables stored per state
+     * @throws IOException If the file cannot be opened or written
+     */
+    public SampleFileWriter(Path path, int stateDimension) throws IOException {
+        this.stateDimension = stateDimension;
+        int recordSize = SampleFile.recordSize(stateDimension);
+        this.buffer = ByteBuffer.allocate(Math.max(BUFFER_SIZE, recordSize))
+                .order(SampleFile.BYTE_ORDER);
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        writeHeader();
+    }
+
+    /**
+     * Appends a sample.
+     *
+     * @param sample Sample whose states have at most stateDimension entries
+     * @throws IOException If the file cannot be written
+     */
+    public void write(Sample sample) throws IOException {
+        checkSize(sample.currState.size());
+        checkSize(sample.nextState.size());
+        reserve();
+        putState(sample.currState);
+        putState(sample.nextState);
+        putRest(sample.reward, sample.action, sample.absorb, sample.type);
+    }
+
+    /**
+     * Appends a sample.
+     *
+     * @param currState s. At most stateDimension long.
+     * @param action    a
+     * @param nextState s'. At most stateDimension long.
+     * @param reward    r
+     * @param absorb    True if this action ended the episode
+     * @throws IOException If the file cannot be written
+     */
+    public void write(double[] currState, int action, double[] nextState, double reward,
+                      boolean absorb) throws IOException {
+        checkSize(currState.length);
+        checkSize(nextState.length);
+        reserve();
+        putState(currState);
+        putState(nextState);
+        putRest(reward, action, absorb, Sample.Type.NORMAL);
+    }
+
+    /**
+     * Appends every sample of a source, for example a List or a SampleBatch.
+     *
+     * @param samples Samples to write
+     * @throws IOException If the file cannot be written
+     */
+    public void writeAll(Iterable<Sample> samples) throws IOException {
+        for (Sample sample : samples) {
+            write(sample);
+        }
+    }
+
+    /**
+     * Number of samples written so far.
+     *
+     * @return Sample count
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Flushes the buffered samples, records the sample count in the header and closes the file.
+     *
+     * @throws IOException If the file cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        try {
+            flush();
+            ByteBuffer countBuffer = ByteBuffer.allocate(8).order(SampleFile.BYTE_ORDER);
+            countBuffer.putLong(count).flip();
+            while (countBuffer.hasRemaining()) {
+                channel.write(countBuffer, SampleFile.COUNT_OFFSET + countBuffer.position());
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        buffer.putInt(SampleFile.MAGIC);
+        buffer.putInt(SampleFile.VERSION);
+        buffer.putInt(stateDimension);
+        buffer.putInt(0);
+        buffer.putLong(0);
+        flush();
+    }
+
+    private void checkSize(int stateSize) {
+        if (stateSize > stateDimension) {
+            throw new IllegalArgumentException("Expected a state of at most size "
+                    + stateDimension + " but got " + stateSize);
+        }
+    }
+
+    private void reserve() throws IOException {
+        if (buffer.remaining() < SampleFile.recordSize(stateDimension)) {
+            flush();
+        }
+    }
+
+    private void putState(Vector state) {
+        for (int i = 0; i < stateDimension; i++) {
+            buffer.putDouble(i < state.size() ? state.get(i) : 0);
+        }
+    }
+
+    private void putState(double[] state) {
+        for (int i = 0; i < stateDimension; i++) {
+            buffer.putDouble(i < state.length ? state[i] : 0);
+        }
+    }
+
+    private void putRest(double reward, int action, boolean absorb, Sample.Type type) {
+        buffer.putDouble(reward);
+        buffer.putInt(action);
+        buffer.putInt((absorb ? 1 : 0) | type.ordinal() << 1);
+        count++;
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,31 @@
+package edu.cwru.eecs.rl.types;
+
+/**
+ * Basis functions that can report their non-zero features directly.
+ *
+ * <p>
+ * Most bases only have a few non-zero features for any state-action pair: one for an ExactBasis
+ * and one block per action for the action-blocked bases. Reporting those as index/value pairs
+ * lets LSTDQ update A in O(nnz^2) per sample instead of touching all size() features.
+ */
+public interface SparseBasisFunctions extends BasisFunctions {
+
+    /**
+     * Largest number of features evaluateSparse can report, for sizing its output arrays.
+     *
+     * @return Maximum number of non-zero features
+     */
+    int maxNonZeros();
+
+    /**
+     * Writes the features of phi(state, action) that can be non-zero as index/value pairs. Every
+     * other feature is zero. Indices are distinct, and values reported for them may still be 0.
+     *
+     * @param state   Environment state
+     * @param action  Action being performed
+     * @param indices Array of at least maxNonZeros() entries that receives the feature indices
+     * @param values  Array of at least maxNonZeros() entries that receives the feature values
+     * @return Number of pairs written
+     */
+    int evaluateSparse(double[] state, int action, int[] indices, double[] values);
+}
@@ -0,0 +1,30 @@
+package edu.cwru.eecs.rl.types;
+
+/**
+ * Derives independent seeds from a base seed with the SplitMix64 generator.
+ *
+ * <p>
+ * Seeding generator i with base + i gives consecutive generators nearly identical streams.
+ * Scrambling the base seed and index with the SplitMix64 finalizer instead gives every index an
+ * unrelated seed that only depends on the base seed and the index, which is what the seeded
+ * sampling methods need to be reproducible for any number of threads or environments.
+ */
+public final class SplitMix {
+
+    private SplitMix() {
+    }
+
+    /**
+     * Seed number index of the sequence derived from seed.
+     *
+     * @param seed  Base seed
+     * @param index Position in the sequence, such as an episode or environment index
+     * @return Derived seed
+     */
+    public static long seed(long seed, int index) {
+        long z = seed + (index + 1) * 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
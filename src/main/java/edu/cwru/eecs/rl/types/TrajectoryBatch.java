@@ -0,0 +1,366 @@
+package edu.cwru.eecs.rl.types;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import no.uib.cipr.matrix.DenseVector;
+
+/**
+ * Stores samples as trajectories, keeping every state once.
+ *
+ * <p>
+ * Within an episode the next state of one sample is the current state of the sample after it, so
+ * a SampleBatch or a list of Samples stores every state twice. Here each episode is stored as its
+ * sequence of states s0, s1, ..., sT together with one action, reward, absorb flag and type per
+ * step. Sample i of an episode is (s_i, a_i, s_i+1, r_i), which roughly halves the memory spent on
+ * states.
+ *
+ * <p>
+ * A new episode is started automatically whenever a sample's current state differs from the
+ * previous sample's next state. Samples can therefore be added in any order and are returned
+ * unchanged; only consecutive samples that actually share a state are stored more compactly.
+ * States are padded with zeros to stateDimension entries, the same as in SampleBatch.
+ *
+ * <p>
+ * Like SampleBatch, the iterator reuses one Sample per iterator and get(i) or asList() create a
+ * new Sample per access.
+ */
+public class TrajectoryBatch implements Iterable<Sample>, Serializable {
+
+    private static final long serialVersionUID = -2853914711406727352L;
+
+    private static final Sample.Type[] TYPES = Sample.Type.values();
+
+    private final int stateDimension;
+    private int size;
+    private int numStates;
+    private int numEpisodes;
+
+    private double[] states;
+    // index of the first sample of each episode
+    private int[] episodeStarts;
+    private int[] actions;
+    private double[] rewards;
+    private final BitSet absorb;
+    private byte[] types;
+
+    // padded copy of the state being added
+    private transient double[] scratch;
+
+    /**
+     * Constructs an empty batch.
+     *
+     * @param stateDimension Number of state variables of every sample
+     */
+    public TrajectoryBatch(int stateDimension) {
+        this(stateDimension, 16);
+    }
+
+    /**
+     * Constructs an empty batch with room for the given number of samples before it has to grow.
+     *
+     * @param stateDimension Number of state variables of every sample
+     * @param capacity       Expected number of samples
+     */
+    public TrajectoryBatch(int stateDimension, int capacity) {
+        this.stateDimension = stateDimension;
+        capacity = Math.max(1, capacity);
+        this.states = new double[(capacity + 1) * stateDimension];
+        this.episodeStarts = new int[1];
+        this.actions = new int[capacity];
+        this.rewards = new double[capacity];
+        this.absorb = new BitSet(capacity);
+        this.types = new byte[capacity];
+    }
+
+    /**
+     * Copies samples into a new batch whose state dimension is the largest state size among the
+     * samples.
+     *
+     * @param samples Samples to copy
+     * @return The batch
+     */
+    public static TrajectoryBatch of(List<Sample> samples) {
+        int stateDimension = 0;
+        for (Sample sample : samples) {
+            stateDimension = Math.max(stateDimension,
+                    Math.max(sample.currState.size(), sample.nextState.size()));
+        }
+        TrajectoryBatch batch = new TrajectoryBatch(stateDimension, samples.size());
+        for (Sample sample : samples) {
+            batch.add(sample);
+        }
+        return batch;
+    }
+
+    /**
+     * Appends a copy of a sample, continuing the current episode if the sample starts where the
+     * previous one ended.
+     *
+     * @param sample Sample to copy
+     */
+    public void add(Sample sample) {
+        checkSize(sample.currState.size());
+        checkSize(sample.nextState.size());
+        double[] padded = scratch();
+        Arrays.fill(padded, 0);
+        SampleBatch.copyState(sample.currState, padded, 0);
+        appendCurrent(padded);
+        Arrays.fill(padded, 0);
+        SampleBatch.copyState(sample.nextState, padded, 0);
+        appendState(padded);
+        appendStep(sample.action, sample.reward, sample.absorb, sample.type);
+    }
+
+    /**
+     * Appends a sample, continuing the current episode if the sample starts where the previous one
+     * ended.
+     *
+     * @param currState s. At most stateDimension() long.
+     * @param action    a
+     * @param nextState s'. At most stateDimension() long.
+     * @param reward    r
+     * @param absorb    True if this action ended the episode
+     */
+    public void add(double[] currState, int action, double[] nextState, double reward,
+                    boolean absorb) {
+        checkSize(currState.length);
+        checkSize(nextState.length);
+        double[] padded = scratch();
+        Arrays.fill(padded, 0);
+        System.arraycopy(currState, 0, padded, 0, currState.length);
+        appendCurrent(padded);
+        Arrays.fill(padded, 0);
+        System.arraycopy(nextState, 0, padded, 0, nextState.length);
+        appendState(padded);
+        appendStep(action, reward, absorb, Sample.Type.NORMAL);
+    }
+
+    private double[] scratch() {
+        if (scratch == null) {
+            scratch = new double[stateDimension];
+        }
+        return scratch;
+    }
+
+    private void checkSize(int stateSize) {
+        if (stateSize > stateDimension) {
+            throw new IllegalArgumentException("Expected a state of at most size "
+                    + stateDimension + " but got " + stateSize);
+        }
+    }
+
+    private void appendCurrent(double[] currState) {
+        if (numStates > 0) {
+            int last = (numStates - 1) * stateDimension;
+            boolean same = true;
+            for (int i = 0; i < stateDimension && same; i++) {
+                same = states[last + i] == currState[i];
+            }
+            if (same) {
+                return;
+            }
+        }
+        if (numEpisodes == episodeStarts.length) {
+            episodeStarts = Arrays.copyOf(episodeStarts, 2 * numEpisodes);
+        }
+        episodeStarts[numEpisodes++] = size;
+        appendState(currState);
+    }
+
+    private void appendState(double[] state) {
+        if ((long) (numStates + 1) * stateDimension > states.length) {
+            long capacity = Math.max(2L * numStates, numStates + 1);
+            if (capacity * stateDimension > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("Too many states for one batch");
+            }
+            states = Arrays.copyOf(states, (int) capacity * stateDimension);
+        }
+        System.arraycopy(state, 0, states, numStates * stateDimension, stateDimension);
+        numStates++;
+    }
+
+    private void appendStep(int action, double reward, boolean absorb, Sample.Type type) {
+        if (size == actions.length) {
+            int capacity = (int) Math.min(Integer.MAX_VALUE - 8, 2L * size);
+            if (capacity == size) {
+                throw new IllegalStateException("Too many samples for one batch");
+            }
+            actions = Arrays.copyOf(actions, capacity);
+            rewards = Arrays.copyOf(rewards, capacity);
+            types = Arrays.copyOf(types, capacity);
+        }
+        int index = size++;
+        actions[index] = action;
+        rewards[index] = reward;
+        this.absorb.set(index, absorb);
+        types[index] = (byte) type.ordinal();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int stateDimension() {
+        return stateDimension;
+    }
+
+    /**
+     * Number of distinct states stored. A list of samples would store 2 * size() states.
+     *
+     * @return State count
+     */
+    public int numStates() {
+        return numStates;
+    }
+
+    /**
+     * Number of episodes, counting every place where a sample did not continue the previous one.
+     *
+     * @return Episode count
+     */
+    public int numEpisodes() {
+        return numEpisodes;
+    }
+
+    public int action(int sample) {
+        return actions[sample];
+    }
+
+    public double reward(int sample) {
+        return rewards[sample];
+    }
+
+    public boolean absorb(int sample) {
+        return absorb.get(sample);
+    }
+
+    public Sample.Type type(int sample) {
+        return TYPES[types[sample]];
+    }
+
+    /**
+     * Index in the state storage of a sample's current state. Its next state is the one after.
+     *
+     * @param sample Sample index
+     * @return State index
+     */
+    private int stateIndex(int sample) {
+        int episode = Arrays.binarySearch(episodeStarts, 0, numEpisodes, sample);
+        if (episode < 0) {
+            episode = -episode - 2;
+        }
+        return sample + episode;
+    }
+
+    /**
+     * Copies a sample's current state into out.
+     *
+     * @param sample Sample index
+     * @param out    Array of length stateDimension()
+     */
+    public void currState(int sample, double[] out) {
+        System.arraycopy(states, stateIndex(sample) * stateDimension, out, 0, stateDimension);
+    }
+
+    /**
+     * Copies a sample's next state into out.
+     *
+     * @param sample Sample index
+     * @param out    Array of length stateDimension()
+     */
+    public void nextState(int sample, double[] out) {
+        System.arraycopy(states, (stateIndex(sample) + 1) * stateDimension, out, 0,
+                stateDimension);
+    }
+
+    /**
+     * Creates a new Sample holding a copy of the sample at the given index. Its states have
+     * stateDimension() entries.
+     *
+     * @param sample Sample index
+     * @return The sample
+     */
+    public Sample get(int sample) {
+        if (sample < 0 || sample >= size) {
+            throw new IndexOutOfBoundsException("Sample " + sample + " of " + size);
+        }
+        Sample result = newSample();
+        fill(sample, stateIndex(sample), result);
+        return result;
+    }
+
+    /**
+     * A read-only List view of the batch. Every get creates a new Sample, so the view can be used
+     * by code that keeps samples or reads them from several threads.
+     *
+     * @return List view
+     */
+    public List<Sample> asList() {
+        return new AbstractList<Sample>() {
+            @Override
+            public Sample get(int index) {
+                return TrajectoryBatch.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Iterates over the batch, reusing one Sample per iterator. The returned sample is only valid
+     * until the next call to next().
+     *
+     * @return Flyweight iterator
+     */
+    @Override
+    public Iterator<Sample> iterator() {
+        return new Iterator<Sample>() {
+            private final Sample flyweight = newSample();
+            private int next = 0;
+            private int episode = -1;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public Sample next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                while (episode + 1 < numEpisodes && episodeStarts[episode + 1] <= next) {
+                    episode++;
+                }
+                fill(next, next + episode, flyweight);
+                next++;
+                return flyweight;
+            }
+        };
+    }
+
+    private Sample newSample() {
+        return new Sample(new DenseVector(stateDimension), 0, new DenseVector(stateDimension), 0);
+    }
+
+    private void fill(int sample, int stateIndex, Sample result) {
+        int offset = stateIndex * stateDimension;
+        System.arraycopy(states, offset, ((DenseVector) result.currState).getData(), 0,
+                stateDimension);
+        System.arraycopy(states, offset + stateDimension,
+                ((DenseVector) result.nextState).getData(), 0, stateDimension);
+        result.action = actions[sample];
+        result.reward = rewards[sample];
+        result.absorb = absorb.get(sample);
+        result.type = TYPES[types[sample]];
+    }
+}
@@ -57,4 +57,23 @@ public class PendulumLearnTests {
         Assert.assertTrue(avgLearnedRewards > avgRandomRewards);
         Assert.assertEquals(0, avgLearnedRewards, .001);
     }
+
+    @Test
+    public void testPendulumLearnWithCachedRbfBasis() {
+        BasisFunctions rbfBasis = new GaussianRbf(3, 3, 3);
+        Policy learnedPolicy = new Policy(0,
+                simulator.numActions(),
+                rbfBasis);
+
+        learnedPolicy =
+                Lspi.learn(samples, learnedPolicy, .9, 1e-5, 10, Lspi.PolicyImprover.LSTDQ_MTJ_CACHED);
+
+        simulator.reset();
+        double avgRandomRewards = PolicySampler.evaluatePolicy(simulator, 10, 500, randomPolicy);
+        simulator.reset();
+        double avgLearnedRewards = PolicySampler.evaluatePolicy(simulator, 10, 500, learnedPolicy);
+
+        Assert.assertTrue(avgLearnedRewards > avgRandomRewards);
+        Assert.assertEquals(0, avgLearnedRewards, .001);
+    }
 }
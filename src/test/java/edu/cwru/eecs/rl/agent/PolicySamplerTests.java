@@ -1,18 +1,23 @@
 package edu.cwru.eecs.rl.agent;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 
 import edu.cwru.eecs.rl.basisfunctions.FakeBasis;
 import edu.cwru.eecs.rl.domains.Chain;
+import edu.cwru.eecs.rl.domains.Pendulum;
 import edu.cwru.eecs.rl.domains.Simulator;
 import edu.cwru.eecs.rl.types.BasisFunctions;
 import edu.cwru.eecs.rl.types.Policy;
 import edu.cwru.eecs.rl.types.Sample;
+import edu.cwru.eecs.rl.types.SampleBatch;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
 
 public class PolicySamplerTests {
 
@@ -50,6 +55,16 @@ public class PolicySamplerTests {
         assertTrue(samplesDiffer);
     }
 
+    @Test
+    public void testSampleBatchMatchesSample() {
+        List<Sample> samples = PolicySampler.sample(new Chain(10, .9, 0), 10, 10,
+                new Policy(0, 2, new FakeBasis()));
+        SampleBatch batch = PolicySampler.sampleBatch(new Chain(10, .9, 0), 10, 10,
+                new Policy(0, 2, new FakeBasis()));
+
+        assertEquals(samples, batch.asList());
+    }
+
     @Test
     public void testMaxEpisodes() {
         List<Sample> samples = PolicySampler.sample(simulator, 1, 10, randomPolicy);
@@ -62,4 +77,49 @@ public class PolicySamplerTests {
         assertEquals(10, samples.size());
     }
 
+    @Test
+    public void testSeededSampleIsRepeatable() {
+        Policy policy = new Policy(.5, 3, new FakeBasis());
+        policy.setRandom(new Random(11));
+        List<Sample> first = PolicySampler.sample(new Pendulum(5), 10, 20, policy);
+        policy.setRandom(new Random(11));
+        List<Sample> second = PolicySampler.sample(new Pendulum(5), 10, 20, policy);
+
+        assertEquals(first.size(), second.size());
+        for (int i = 0; i < first.size(); i++) {
+            assertEquals(first.get(i), second.get(i));
+        }
+    }
+
+    @Test
+    public void testParallelSampleIsReproducible() {
+        Policy policy = new Policy(.5, 3, new FakeBasis());
+        List<Sample> single = PolicySampler.sample(Pendulum::new, 20, 30, policy, 42, 1);
+        List<Sample> parallel = PolicySampler.sample(Pendulum::new, 20, 30, policy, 42, 4);
+
+        assertEquals(single.size(), parallel.size());
+        for (int i = 0; i < single.size(); i++) {
+            Sample expected = single.get(i);
+            Sample actual = parallel.get(i);
+            assertEquals(expected.action, actual.action);
+            assertEquals(expected.reward, actual.reward, 0);
+            assertEquals(expected.absorb, actual.absorb);
+            for (int j = 0; j < expected.nextState.size(); j++) {
+                assertEquals(expected.nextState.get(j), actual.nextState.get(j), 0);
+            }
+        }
+
+        List<Sample> otherSeed = PolicySampler.sample(Pendulum::new, 20, 30, policy, 43, 4);
+        assertNotEquals(single.get(0).currState.get(0), otherSeed.get(0).currState.get(0), 0);
+    }
+
+    @Test
+    public void testParallelEvaluatePolicyIsReproducible() {
+        Policy policy = new Policy(.5, 2, new FakeBasis());
+        Supplier<Simulator> factory = () -> new Chain(10, .9, 0);
+
+        double single = PolicySampler.evaluatePolicy(factory, 50, 20, policy, 7, 1);
+        double parallel = PolicySampler.evaluatePolicy(factory, 50, 20, policy, 7, 3);
+        assertEquals(single, parallel, 0);
+    }
 }
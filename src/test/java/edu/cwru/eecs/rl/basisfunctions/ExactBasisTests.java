@@ -71,4 +71,50 @@ public class ExactBasisTests {
         assertEquals(0, (int) phi.get(4));
         assertEquals(0, (int) phi.get(5));
     }
+
+    @Test
+    public void testEvaluateIntoMatchesEvaluate() {
+        ExactBasis basis = new ExactBasis(new int[]{3, 4}, 2);
+        double[] weights = new double[basis.size()];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = i * i;
+        }
+        double[] out = new double[basis.size()];
+
+        for (int x = 0; x < 3; x++) {
+            for (int y = 0; y < 4; y++) {
+                double[] state = {x, y};
+                for (int action = 0; action < 2; action++) {
+                    Vector phi = basis.evaluate(new DenseVector(state), action);
+                    basis.evaluateInto(state, action, out);
+                    for (int i = 0; i < out.length; i++) {
+                        assertEquals(phi.get(i), out[i], 0);
+                    }
+                    assertEquals(basis.getStateActionIndex(new DenseVector(state), action),
+                            basis.getStateActionIndex(state, action));
+                    assertEquals(phi.dot(new DenseVector(weights)),
+                            basis.dot(state, action, weights), 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPackedStateActionIndex() {
+        ExactBasis basis = new ExactBasis(new int[]{2, 2, 2}, 3);
+
+        Vector state = new DenseVector(new double[]{1, 0, 1});
+        assertEquals(basis.getStateActionIndex(state, 2), basis.getStateActionIndex(0b101L, 2));
+        assertEquals(21, basis.getStateActionIndex(0b101L, 2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPackedStateOutOfRange() {
+        new ExactBasis(new int[]{2, 2, 2}, 3).getStateActionIndex(8L, 0);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testSizeOverflow() {
+        new ExactBasis(new int[]{1 << 16, 1 << 16}, 1);
+    }
 }
@@ -123,4 +123,26 @@ public class GaussianRbfTests {
         assertEquals(0.446, phi.get(29), .001);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testEvaluateIntoMatchesEvaluate() {
+        BasisFunctions gaussRbf = new GaussianRbf(3, 3, 3);
+        double[] weights = new double[gaussRbf.size()];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = i - 10.5;
+        }
+        double[] out = new double[gaussRbf.size()];
+
+        // the last state is outside of the basis' range and has no features
+        for (double[] state : new double[][]{{0, 0}, {.3, -1.2}, {-1, .5}, {2, 0}}) {
+            for (int action = 0; action < 3; action++) {
+                Vector phi = gaussRbf.evaluate(new DenseVector(state), action);
+                gaussRbf.evaluateInto(state, action, out);
+                for (int i = 0; i < out.length; i++) {
+                    assertEquals(phi.get(i), out[i], 0);
+                }
+                assertEquals(phi.dot(new DenseVector(weights)),
+                        gaussRbf.dot(state, action, weights), 0);
+            }
+        }
+    }
+}
@@ -2,6 +2,8 @@ package edu.cwru.eecs.rl.basisfunctions;
 
 import org.junit.Test;
 
+import java.util.Arrays;
+
 import edu.cwru.eecs.rl.types.BasisFunctions;
 import no.uib.cipr.matrix.DenseVector;
 import no.uib.cipr.matrix.Vector;
@@ -35,4 +37,27 @@ public class PolynomialBasisTests {
         assertEquals(4, (int) phi.get(5));
     }
 
+    @Test
+    public void testEvaluateIntoMatchesEvaluate() {
+        BasisFunctions polynomial = new PolynomialBasis(4, 3);
+        double[] weights = new double[polynomial.size()];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = .5 * i - 2;
+        }
+        double[] out = new double[polynomial.size()];
+        // stale values must be overwritten
+        Arrays.fill(out, 7);
+
+        for (double[] state : new double[][]{{2}, {-.3}, {0}}) {
+            for (int action = 0; action < 3; action++) {
+                Vector phi = polynomial.evaluate(new DenseVector(state), action);
+                polynomial.evaluateInto(state, action, out);
+                for (int i = 0; i < out.length; i++) {
+                    assertEquals(phi.get(i), out[i], 0);
+                }
+                assertEquals(phi.dot(new DenseVector(weights)),
+                        polynomial.dot(state, action, weights), 0);
+            }
+        }
+    }
 }
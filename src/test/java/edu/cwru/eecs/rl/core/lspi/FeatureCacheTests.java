@@ -0,0 +1,91 @@
+package edu.cwru.eecs.rl.core.lspi;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import edu.cwru.eecs.rl.agent.PolicySampler;
+import edu.cwru.eecs.rl.basisfunctions.FakeBasis;
+import edu.cwru.eecs.rl.basisfunctions.GaussianRbf;
+import edu.cwru.eecs.rl.domains.Pendulum;
+import edu.cwru.eecs.rl.domains.Simulator;
+import edu.cwru.eecs.rl.types.BasisFunctions;
+import edu.cwru.eecs.rl.types.Policy;
+import edu.cwru.eecs.rl.types.Sample;
+import no.uib.cipr.matrix.Vector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FeatureCacheTests {
+
+    private Simulator simulator;
+    private List<Sample> samples;
+
+    /**
+     * Construct a pendulum domain and collect some random samples.
+     */
+    @Before
+    public void setUp() {
+        simulator = new Pendulum(0);
+        BasisFunctions fakeBasis = new FakeBasis();
+        Policy randomPolicy = new Policy(1, simulator.numActions(), fakeBasis);
+
+        samples = PolicySampler.sample(simulator, 20, 50, randomPolicy);
+    }
+
+    @Test
+    public void testCachedRowsMatchBasis() {
+        BasisFunctions rbfBasis = new GaussianRbf(3, 3, 3);
+        FeatureCache cache = new FeatureCache(samples, rbfBasis, simulator.numActions());
+
+        // each action fills one block out of three so the rows should be stored sparsely
+        assertFalse(cache.isDense());
+        assertEquals(samples.size(), cache.numSamples());
+
+        double[] row = new double[rbfBasis.size()];
+        for (int i = 0; i < samples.size(); i++) {
+            Sample sample = samples.get(i);
+            assertEquals(sample.action, cache.action(i));
+            assertEquals(sample.reward, cache.reward(i), 0);
+            assertEquals(sample.absorb, cache.absorb(i));
+
+            cache.copyRow(cache.currentRow(i), row);
+            assertRowEquals(rbfBasis.evaluate(sample.currState, sample.action), row);
+            for (int action = 0; action < simulator.numActions(); action++) {
+                cache.copyRow(cache.nextRow(i, action), row);
+                assertRowEquals(rbfBasis.evaluate(sample.nextState, action), row);
+            }
+        }
+    }
+
+    @Test
+    public void testDenseRows() {
+        FeatureCache cache = new FeatureCache(samples, new FakeBasis(), simulator.numActions());
+
+        assertTrue(cache.isDense());
+        assertEquals(2, cache.dot(cache.currentRow(0), new double[]{2}), 0);
+    }
+
+    @Test
+    public void testGreedyActionMatchesPolicy() throws Exception {
+        BasisFunctions rbfBasis = new GaussianRbf(3, 3, 3);
+        Policy policy = new Policy(0, simulator.numActions(), rbfBasis);
+        FeatureCache cache = new FeatureCache(samples, rbfBasis, simulator.numActions());
+
+        double[] weights = FeatureCache.toArray(policy.weights);
+        for (int i = 0; i < samples.size(); i++) {
+            assertEquals(policy.evaluate(samples.get(i).nextState),
+                    cache.greedyAction(i, weights));
+        }
+    }
+
+    private static void assertRowEquals(Vector expected, double[] actual) {
+        assertEquals(expected.size(), actual.length);
+        for (int i = 0; i < actual.length; i++) {
+            assertEquals(expected.get(i), actual[i], 0);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package edu.cwru.eecs.rl.core.lspi;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import edu.cwru.eecs.rl.agent.PolicySampler;
+import edu.cwru.eecs.rl.basisfunctions.FakeBasis;
+import edu.cwru.eecs.rl.basisfunctions.PolynomialBasis;
+import edu.cwru.eecs.rl.domains.Chain;
+import edu.cwru.eecs.rl.domains.Simulator;
+import edu.cwru.eecs.rl.types.BasisFunctions;
+import edu.cwru.eecs.rl.types.Policy;
+import edu.cwru.eecs.rl.types.Sample;
+import no.uib.cipr.matrix.Vector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class IncrementalLstdqTests {
+
+    private Simulator simulator;
+    private List<Sample> samples;
+
+    /**
+     * Construct a chain domain and collect some random samples.
+     */
+    @Before
+    public void setUp() {
+        simulator = new Chain(10, .9, 0);
+        BasisFunctions fakeBasis = new FakeBasis();
+        Policy randomPolicy = new Policy(1, simulator.numActions(), fakeBasis);
+
+        samples = PolicySampler.sample(simulator, 5, 100, randomPolicy);
+    }
+
+    @Test
+    public void testCorrectionsMatchRebuild() {
+        BasisFunctions polyBasis = new PolynomialBasis(3, simulator.numActions());
+        FeatureCache cache = new FeatureCache(samples, polyBasis, simulator.numActions());
+        IncrementalLstdq incremental = new IncrementalLstdq(cache, .9);
+        // never rebuild after the first evaluation
+        incremental.rebuildFraction = 1;
+        LstdqSolver solver = new LstdqSolver(LstdqSolver.Method.LU);
+
+        Policy firstPolicy = new Policy(0, simulator.numActions(), polyBasis);
+        assertNotNull(incremental.evaluate(firstPolicy, solver));
+
+        // negated weights flip the greedy action of every non-absorbing sample
+        Policy secondPolicy = new Policy(firstPolicy);
+        secondPolicy.weights.scale(-1);
+        Vector incrementalWeights = incremental.evaluate(secondPolicy, solver);
+
+        int expectedChanged = 0;
+        for (Sample sample : samples) {
+            if (!sample.absorb) {
+                expectedChanged++;
+            }
+        }
+        assertEquals(expectedChanged, incremental.getLastChanged());
+
+        Vector rebuiltWeights = Lspi.lstdqMtj(cache, secondPolicy, .9, solver);
+        assertEquals(rebuiltWeights.size(), incrementalWeights.size());
+        for (int i = 0; i < rebuiltWeights.size(); i++) {
+            assertEquals(rebuiltWeights.get(i), incrementalWeights.get(i), 1e-6);
+        }
+
+        // nothing changes when the same policy is evaluated again
+        Vector sameWeights = incremental.evaluate(secondPolicy, solver);
+        assertEquals(0, incremental.getLastChanged());
+        for (int i = 0; i < rebuiltWeights.size(); i++) {
+            assertEquals(incrementalWeights.get(i), sameWeights.get(i), 0);
+        }
+    }
+
+    @Test
+    public void testLearnMatchesCached() throws Exception {
+        BasisFunctions polyBasis = new PolynomialBasis(3, simulator.numActions());
+        Policy initialPolicy = new Policy(0, simulator.numActions(), polyBasis);
+
+        Policy cachedPolicy = Lspi.learn(samples, new Policy(initialPolicy), .9, 1e-5, 10,
+                Lspi.PolicyImprover.LSTDQ_MTJ_CACHED);
+        Policy incrementalPolicy = Lspi.learn(samples, new Policy(initialPolicy), .9, 1e-5, 10,
+                Lspi.PolicyImprover.LSTDQ_MTJ_INCREMENTAL);
+
+        for (int state = 0; state < simulator.numStates(); state++) {
+            double[] stateVector = {state};
+            assertEquals(cachedPolicy.evaluate(stateVector),
+                    incrementalPolicy.evaluate(stateVector));
+        }
+    }
+}
@@ -4,16 +4,20 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import edu.cwru.eecs.rl.agent.PolicySampler;
 import edu.cwru.eecs.rl.basisfunctions.ExactBasis;
 import edu.cwru.eecs.rl.basisfunctions.FakeBasis;
+import edu.cwru.eecs.rl.basisfunctions.PolynomialBasis;
 import edu.cwru.eecs.rl.domains.Chain;
 import edu.cwru.eecs.rl.domains.Simulator;
 import edu.cwru.eecs.rl.types.BasisFunctions;
 import edu.cwru.eecs.rl.types.Policy;
 import edu.cwru.eecs.rl.types.Sample;
+import edu.cwru.eecs.rl.types.SampleBatch;
 import no.uib.cipr.matrix.Vector;
 
 /**
@@ -58,4 +62,238 @@ public class LspiTests {
             Assert.assertEquals(lstdqExactWeights.get(i), lstdqWeights.get(i), .1);
         }
     }
+
+    @Test
+    public void testParallelLstdqVsLstdq() {
+        BasisFunctions polyBasis = new PolynomialBasis(3, simulator.numActions());
+        Policy polyBasisPolicy = new Policy(0,
+                simulator.numActions(),
+                polyBasis);
+
+        Vector lstdqWeights = Lspi.lstdqMtj(samples, polyBasisPolicy, .9);
+        Vector parallelWeights =
+                Lspi.lstdqMtjParallel(samples, polyBasisPolicy, .9, new ForkJoinPool(4));
+
+        Assert.assertEquals(lstdqWeights.size(), parallelWeights.size());
+        for (int i = 0; i < lstdqWeights.size(); i++) {
+            Assert.assertEquals(lstdqWeights.get(i), parallelWeights.get(i), 1e-6);
+        }
+    }
+
+    @Test
+    public void testParallelLstdqExactVsLstdqExact() {
+        BasisFunctions
+                exactBasis =
+                new ExactBasis(new int[]{simulator.numStates()}, simulator.numActions());
+        Policy exactBasisPolicy = new Policy(0,
+                simulator.numActions(),
+                exactBasis);
+
+        Vector lstdqExactWeights = Lspi.lstdqExactMtj(samples, exactBasisPolicy, .9);
+        Vector parallelWeights =
+                Lspi.lstdqExactMtjParallel(samples, exactBasisPolicy, .9, new ForkJoinPool(4));
+
+        Assert.assertEquals(lstdqExactWeights.size(), parallelWeights.size());
+        for (int i = 0; i < lstdqExactWeights.size(); i++) {
+            Assert.assertEquals(lstdqExactWeights.get(i), parallelWeights.get(i), 1e-12);
+        }
+    }
+
+    @Test
+    public void testSorLstdqExactVsLstdq() {
+        BasisFunctions
+                exactBasis =
+                new ExactBasis(new int[]{simulator.numStates()}, simulator.numActions());
+        Policy exactBasisPolicy = new Policy(0,
+                simulator.numActions(),
+                exactBasis);
+
+        Vector lstdqWeights = Lspi.lstdqMtj(samples, exactBasisPolicy, .9);
+        Vector sorWeights = Lspi.lstdqExactMtj(samples, exactBasisPolicy, .9,
+                new LstdqSolver(LstdqSolver.Method.SOR));
+
+        Assert.assertEquals(lstdqWeights.size(), sorWeights.size());
+        for (int i = 0; i < lstdqWeights.size(); i++) {
+            Assert.assertEquals(lstdqWeights.get(i), sorWeights.get(i), .1);
+        }
+    }
+
+    @Test
+    public void testCachedLstdqVsLstdq() {
+        BasisFunctions polyBasis = new PolynomialBasis(3, simulator.numActions());
+        Policy polyBasisPolicy = new Policy(0,
+                simulator.numActions(),
+                polyBasis);
+
+        Vector lstdqWeights = Lspi.lstdqMtj(samples, polyBasisPolicy, .9);
+        FeatureCache featureCache =
+                new FeatureCache(samples, polyBasis, simulator.numActions());
+        Vector cachedWeights = Lspi.lstdqMtj(featureCache, polyBasisPolicy, .9);
+
+        Assert.assertEquals(lstdqWeights.size(), cachedWeights.size());
+        for (int i = 0; i < lstdqWeights.size(); i++) {
+            Assert.assertEquals(lstdqWeights.get(i), cachedWeights.get(i), 1e-12);
+        }
+    }
+
+    @Test
+    public void testMatrixFreeLstdqVsLstdq() {
+        BasisFunctions
+                exactBasis =
+                new ExactBasis(new int[]{simulator.numStates()}, simulator.numActions());
+        Policy exactBasisPolicy = new Policy(0,
+                simulator.numActions(),
+                exactBasis);
+
+        Vector lstdqWeights = Lspi.lstdqMtj(samples, exactBasisPolicy, .9);
+        FeatureCache featureCache =
+                new FeatureCache(samples, exactBasis, simulator.numActions());
+        Vector matrixFreeWeights = Lspi.lstdqMatrixFree(featureCache, exactBasisPolicy, .9);
+
+        Assert.assertEquals(lstdqWeights.size(), matrixFreeWeights.size());
+        for (int i = 0; i < lstdqWeights.size(); i++) {
+            Assert.assertEquals(lstdqWeights.get(i), matrixFreeWeights.get(i), .1);
+        }
+    }
+
+    @Test
+    public void testStreamingLearnVsListLearn() {
+        BasisFunctions
+                exactBasis =
+                new ExactBasis(new int[]{simulator.numStates()}, simulator.numActions());
+        Policy initialPolicy = new Policy(0, simulator.numActions(), exactBasis);
+
+        for (Lspi.PolicyImprover improver : new Lspi.PolicyImprover[]{
+                Lspi.PolicyImprover.LSTDQ_MTJ, Lspi.PolicyImprover.LSTDQ_EXACT_MTJ}) {
+            Policy listPolicy =
+                    Lspi.learn(samples, new Policy(initialPolicy), .9, 1e-5, 10, improver);
+            CountingIterable stream = new CountingIterable(samples);
+            Policy streamPolicy =
+                    Lspi.learn(stream, new Policy(initialPolicy), .9, 1e-5, 10, improver);
+
+            Assert.assertTrue(stream.passes > 0);
+            for (int i = 0; i < listPolicy.weights.size(); i++) {
+                Assert.assertEquals(listPolicy.weights.get(i), streamPolicy.weights.get(i), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testSampleBatchLearnVsListLearn() {
+        BasisFunctions polyBasis = new PolynomialBasis(3, simulator.numActions());
+        Policy initialPolicy = new Policy(0, simulator.numActions(), polyBasis);
+        SampleBatch batch = SampleBatch.of(samples);
+
+        for (Lspi.PolicyImprover improver : new Lspi.PolicyImprover[]{
+                Lspi.PolicyImprover.LSTDQ_MTJ, Lspi.PolicyImprover.LSTDQ_MTJ_CACHED}) {
+            Policy listPolicy =
+                    Lspi.learn(samples, new Policy(initialPolicy), .9, 1e-5, 10, improver);
+            Policy batchPolicy =
+                    Lspi.learn(batch, new Policy(initialPolicy), .9, 1e-5, 10, improver);
+
+            for (int i = 0; i < listPolicy.weights.size(); i++) {
+                Assert.assertEquals(listPolicy.weights.get(i), batchPolicy.weights.get(i), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testSparseBasisMatchesDenseBasis() {
+        BasisFunctions[] bases = {new PolynomialBasis(3, simulator.numActions()),
+            new ExactBasis(new int[]{simulator.numStates()}, simulator.numActions())};
+        for (BasisFunctions basis : bases) {
+            Vector weights = new Policy(0, simulator.numActions(), basis).weights;
+            Policy sparsePolicy = new Policy(0, simulator.numActions(), basis, weights);
+            Policy densePolicy =
+                    new Policy(0, simulator.numActions(), new DenseOnlyBasis(basis), weights);
+
+            Vector sparseWeights = Lspi.lstdqMtj(samples, sparsePolicy, .9);
+            Vector denseWeights = Lspi.lstdqMtj(samples, densePolicy, .9);
+            Vector parallelWeights = Lspi.lstdqMtjParallel(samples, sparsePolicy, .9,
+                    ForkJoinPool.commonPool());
+
+            for (int i = 0; i < denseWeights.size(); i++) {
+                Assert.assertEquals(denseWeights.get(i), sparseWeights.get(i), 0);
+                Assert.assertEquals(denseWeights.get(i), parallelWeights.get(i), 1e-10);
+            }
+        }
+    }
+
+    @Test
+    public void testBlockLstdqMatchesLstdq() {
+        BasisFunctions basis = new PolynomialBasis(3, simulator.numActions());
+        Policy policy = new Policy(0, simulator.numActions(), basis);
+
+        Vector denseWeights = Lspi.lstdqMtj(samples, policy, .9);
+        Vector blockWeights = Lspi.lstdqBlockMtj(samples, policy, .9);
+        for (int i = 0; i < denseWeights.size(); i++) {
+            Assert.assertEquals(denseWeights.get(i), blockWeights.get(i),
+                    1e-4 * Math.max(1, Math.abs(denseWeights.get(i))));
+        }
+
+        Policy denseLearned = Lspi.learn(samples, new Policy(policy), .9, 1e-5, 10,
+                Lspi.PolicyImprover.LSTDQ_MTJ);
+        Policy blockLearned = Lspi.learn(samples, new Policy(policy), .9, 1e-5, 10,
+                Lspi.PolicyImprover.LSTDQ_MTJ_BLOCK);
+        for (int state = 0; state < simulator.numStates(); state++) {
+            double[] s = {state};
+            Assert.assertEquals(denseLearned.greedyAction(s), blockLearned.greedyAction(s));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBlockLstdqRequiresBlockBasis() {
+        BasisFunctions basis = new ExactBasis(new int[]{simulator.numStates()},
+                simulator.numActions());
+        Lspi.lstdqBlockMtj(samples, new Policy(0, simulator.numActions(), basis), .9);
+    }
+
+    /**
+     * Hides that a basis reports sparse features, so LSTDQ takes the dense path.
+     */
+    private static class DenseOnlyBasis implements BasisFunctions {
+
+        private final BasisFunctions basis;
+
+        DenseOnlyBasis(BasisFunctions basis) {
+            this.basis = basis;
+        }
+
+        @Override
+        public Vector evaluate(Vector state, int action) {
+            return basis.evaluate(state, action);
+        }
+
+        @Override
+        public int size() {
+            return basis.size();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCachedLearnRequiresList() {
+        BasisFunctions polyBasis = new PolynomialBasis(3, simulator.numActions());
+        Policy initialPolicy = new Policy(0, simulator.numActions(), polyBasis);
+        Lspi.learn(new CountingIterable(samples), initialPolicy, .9, 1e-5, 10,
+                Lspi.PolicyImprover.LSTDQ_MTJ_CACHED);
+    }
+
+    /**
+     * A re-iterable sample source that is not a List, counting how many passes are made.
+     */
+    private static class CountingIterable implements Iterable<Sample> {
+
+        private final List<Sample> samples;
+        int passes;
+
+        CountingIterable(List<Sample> samples) {
+            this.samples = samples;
+        }
+
+        @Override
+        public Iterator<Sample> iterator() {
+            passes++;
+            return samples.iterator();
+        }
+    }
 }
@@ -0,0 +1,249 @@
+package edu.cwru.eecs.rl.core.lspi;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import edu.cwru.eecs.rl.agent.PolicySampler;
+import edu.cwru.eecs.rl.basisfunctions.ExactBasis;
+import edu.cwru.eecs.rl.basisfunctions.FakeBasis;
+import edu.cwru.eecs.rl.basisfunctions.PolynomialBasis;
+import edu.cwru.eecs.rl.domains.Chain;
+import edu.cwru.eecs.rl.domains.Simulator;
+import edu.cwru.eecs.rl.types.BasisFunctions;
+import edu.cwru.eecs.rl.types.Policy;
+import edu.cwru.eecs.rl.types.Sample;
+import no.uib.cipr.matrix.DenseMatrix;
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Matrices;
+import no.uib.cipr.matrix.Matrix;
+import no.uib.cipr.matrix.Vector;
+import no.uib.cipr.matrix.sparse.SparseVector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class LstdqAccumulatorTests {
+
+    private Simulator simulator;
+    private List<Sample> samples;
+
+    /**
+     * Construct a chain domain and collect some random samples.
+     */
+    @Before
+    public void setUp() {
+        simulator = new Chain(10, .9, 0);
+        BasisFunctions fakeBasis = new FakeBasis();
+        Policy randomPolicy = new Policy(1, simulator.numActions(), fakeBasis);
+
+        samples = PolicySampler.sample(simulator, 5, 100, randomPolicy);
+    }
+
+    @Test
+    public void testMatchesDenseOuterProductWithPolyBasis() throws Exception {
+        BasisFunctions polyBasis = new PolynomialBasis(3, simulator.numActions());
+        assertMatchesReference(new Policy(0, simulator.numActions(), polyBasis), .9);
+    }
+
+    @Test
+    public void testMatchesDenseOuterProductWithExactBasis() throws Exception {
+        BasisFunctions exactBasis =
+                new ExactBasis(new int[]{simulator.numStates()}, simulator.numActions());
+        assertMatchesReference(new Policy(0, simulator.numActions(), exactBasis), .9);
+    }
+
+    @Test
+    public void testSparseAddMatchesDenseAdd() {
+        int size = 12;
+        LstdqAccumulator dense = new LstdqAccumulator(size);
+        LstdqAccumulator sparse = new LstdqAccumulator(size);
+        Random random = new Random(4);
+
+        for (int sample = 0; sample < 500; sample++) {
+            int[] currIndices = distinctIndices(random, size, 1 + random.nextInt(4));
+            int[] nextIndices = distinctIndices(random, size, random.nextInt(4));
+            double[] currValues = new double[currIndices.length];
+            double[] nextValues = new double[nextIndices.length];
+            double[] phi = new double[size];
+            double[] phiNext = new double[size];
+            for (int j = 0; j < currIndices.length; j++) {
+                // reported features may still be zero
+                currValues[j] = random.nextInt(5) == 0 ? 0 : random.nextGaussian();
+                phi[currIndices[j]] = currValues[j];
+            }
+            for (int j = 0; j < nextIndices.length; j++) {
+                nextValues[j] = random.nextGaussian();
+                phiNext[nextIndices[j]] = nextValues[j];
+            }
+            double reward = random.nextGaussian();
+
+            dense.add(phi, phiNext, reward, .95);
+            sparse.add(currIndices, currValues, currIndices.length,
+                    nextIndices, nextValues, nextIndices.length, reward, .95);
+        }
+
+        assertEquals(dense.getNumSamples(), sparse.getNumSamples());
+        for (int row = 0; row < size; row++) {
+            assertEquals(dense.getB().get(row), sparse.getB().get(row), 0);
+            for (int col = 0; col < size; col++) {
+                assertEquals(dense.getA().get(row, col), sparse.getA().get(row, col), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testBlockAddMatchesDenseAdd() {
+        int numActions = 3;
+        int blockSize = 4;
+        int size = numActions * blockSize;
+        LstdqAccumulator dense = new LstdqAccumulator(size);
+        BlockLstdqAccumulator block = new BlockLstdqAccumulator(numActions, blockSize);
+        Random random = new Random(7);
+
+        for (int sample = 0; sample < 500; sample++) {
+            int action = random.nextInt(numActions);
+            // only ever move to the same or the next action, so some blocks stay untouched
+            int nextAction = random.nextBoolean() ? action : (action + 1) % numActions;
+            int[] currIndices = distinctIndices(random, blockSize, 1 + random.nextInt(3));
+            int[] nextIndices = distinctIndices(random, blockSize, random.nextInt(3));
+            double[] currValues = new double[currIndices.length];
+            double[] nextValues = new double[nextIndices.length];
+            double[] phi = new double[size];
+            double[] phiNext = new double[size];
+            for (int j = 0; j < currIndices.length; j++) {
+                currIndices[j] += action * blockSize;
+                currValues[j] = random.nextInt(5) == 0 ? 0 : random.nextGaussian();
+                phi[currIndices[j]] = currValues[j];
+            }
+            for (int j = 0; j < nextIndices.length; j++) {
+                nextIndices[j] += nextAction * blockSize;
+                nextValues[j] = random.nextGaussian();
+                phiNext[nextIndices[j]] = nextValues[j];
+            }
+            double reward = random.nextGaussian();
+
+            dense.add(phi, phiNext, reward, .95);
+            block.add(action, currIndices, currValues, currIndices.length,
+                    nextAction, nextIndices, nextValues, nextIndices.length, reward, .95);
+        }
+
+        assertEquals(dense.getNumSamples(), block.getNumSamples());
+        assertEquals(6, block.getA().numBlocks());
+        for (int row = 0; row < size; row++) {
+            assertEquals(dense.getB().get(row), block.getB().get(row), 0);
+            for (int col = 0; col < size; col++) {
+                assertEquals(dense.getA().get(row, col), block.getA().get(row, col), 0);
+            }
+        }
+
+        // products only visit the stored blocks but agree with the dense A
+        Vector x = Matrices.random(size);
+        Vector expected = dense.getA().mult(x, new DenseVector(size));
+        Vector actual = block.getA().mult(x, new DenseVector(size));
+        Vector expectedTrans = dense.getA().transMult(x, new DenseVector(size));
+        Vector actualTrans = block.getA().transMult(x, new DenseVector(size));
+        for (int i = 0; i < size; i++) {
+            assertEquals(expected.get(i), actual.get(i), 1e-10);
+            assertEquals(expectedTrans.get(i), actualTrans.get(i), 1e-10);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBlockAddRejectsFeatureOutsideBlock() {
+        BlockLstdqAccumulator block = new BlockLstdqAccumulator(2, 3);
+        block.add(0, new int[]{4}, new double[]{1}, 1, 0, new int[0], new double[0], 0, 1, .9);
+    }
+
+    @Test
+    public void testRejectedBlockAddLeavesAccumulatorUnchanged() {
+        BlockLstdqAccumulator block = new BlockLstdqAccumulator(2, 3);
+        BlockLstdqAccumulator reference = new BlockLstdqAccumulator(2, 3);
+        try {
+            // valid current features, but a next feature outside the block of action 1
+            block.add(0, new int[]{0, 2}, new double[]{1, 2}, 2, 1, new int[]{4, 1},
+                    new double[]{3, 4}, 2, 1, .9);
+            fail("Expected the sample to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        block.add(0, new int[]{1}, new double[]{1}, 1, 1, new int[]{5}, new double[]{2}, 1, 1, .9);
+        reference.add(0, new int[]{1}, new double[]{1}, 1, 1, new int[]{5}, new double[]{2}, 1,
+                1, .9);
+        for (int row = 0; row < 6; row++) {
+            assertEquals(reference.getB().get(row), block.getB().get(row), 0);
+            for (int col = 0; col < 6; col++) {
+                assertEquals(reference.getA().get(row, col), block.getA().get(row, col), 0);
+            }
+        }
+    }
+
+    private static int[] distinctIndices(Random random, int size, int count) {
+        List<Integer> all = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            all.add(i);
+        }
+        Collections.shuffle(all, random);
+        int[] indices = new int[count];
+        for (int i = 0; i < count; i++) {
+            indices[i] = all.get(i);
+        }
+        return indices;
+    }
+
+    @Test
+    public void testAbsorbingSample() {
+        LstdqAccumulator accumulator = new LstdqAccumulator(2);
+        accumulator.add(new DenseVector(new double[]{1, 2}), null, 3, .5);
+
+        Matrix matA = accumulator.getA();
+        assertEquals(1.01, matA.get(0, 0), 0);
+        assertEquals(2, matA.get(0, 1), 0);
+        assertEquals(2, matA.get(1, 0), 0);
+        assertEquals(4.01, matA.get(1, 1), 0);
+        assertEquals(3, accumulator.getB().get(0), 0);
+        assertEquals(6, accumulator.getB().get(1), 0);
+        assertEquals(1, accumulator.getNumSamples());
+    }
+
+    /**
+     * Builds A and b the way lstdqMtj originally did, with a dense outer product per sample, and
+     * checks the accumulator produces exactly the same values.
+     */
+    private void assertMatchesReference(Policy policy, double gamma) throws Exception {
+        int basisSize = policy.basis.size();
+        Matrix expectedA = Matrices.identity(basisSize).scale(.01);
+        Vector expectedB = new DenseVector(basisSize);
+        LstdqAccumulator accumulator = new LstdqAccumulator(basisSize);
+
+        for (Sample sample : samples) {
+            int bestAction = policy.evaluate(sample.nextState);
+            Vector phi1 = policy.getPhi(sample.currState, sample.action);
+            Vector phi3 = new SparseVector(basisSize);
+            if (!sample.absorb) {
+                phi3 = policy.getPhi(sample.nextState, bestAction);
+            }
+            accumulator.add(phi1, sample.absorb ? null : phi3, sample.reward, gamma);
+
+            Matrix y = new DenseMatrix(phi1.copy().add(phi3.copy().scale(-gamma)));
+            Matrix x = new DenseMatrix(phi1);
+            x.transBmultAdd(y, expectedA);
+            expectedB.add(sample.reward, phi1);
+        }
+
+        Matrix matA = accumulator.getA();
+        Vector vecB = accumulator.getB();
+        for (int i = 0; i < basisSize; i++) {
+            assertEquals(expectedB.get(i), vecB.get(i), 0);
+            for (int j = 0; j < basisSize; j++) {
+                assertEquals(expectedA.get(i, j), matA.get(i, j), 0);
+            }
+        }
+        assertEquals(samples.size(), accumulator.getNumSamples());
+    }
+}
@@ -0,0 +1,63 @@
+package edu.cwru.eecs.rl.core.lspi;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import edu.cwru.eecs.rl.agent.PolicySampler;
+import edu.cwru.eecs.rl.basisfunctions.FakeBasis;
+import edu.cwru.eecs.rl.basisfunctions.GaussianRbf;
+import edu.cwru.eecs.rl.domains.Pendulum;
+import edu.cwru.eecs.rl.domains.Simulator;
+import edu.cwru.eecs.rl.types.BasisFunctions;
+import edu.cwru.eecs.rl.types.Policy;
+import edu.cwru.eecs.rl.types.Sample;
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Matrices;
+import no.uib.cipr.matrix.Vector;
+
+import static org.junit.Assert.assertEquals;
+
+public class LstdqOperatorTests {
+
+    @Test
+    public void testOperatorMatchesAccumulatedMatrix() throws Exception {
+        Simulator simulator = new Pendulum(0);
+        Policy randomPolicy = new Policy(1, simulator.numActions(), new FakeBasis());
+        List<Sample> samples = PolicySampler.sample(simulator, 20, 50, randomPolicy);
+
+        BasisFunctions rbfBasis = new GaussianRbf(3, 3, 3);
+        Policy policy = new Policy(0, simulator.numActions(), rbfBasis);
+        FeatureCache cache = new FeatureCache(samples, rbfBasis, simulator.numActions());
+
+        double gamma = .9;
+        int[] currRows = new int[samples.size()];
+        int[] nextRows = new int[samples.size()];
+        LstdqAccumulator accumulator = new LstdqAccumulator(rbfBasis.size());
+        for (int i = 0; i < samples.size(); i++) {
+            Sample sample = samples.get(i);
+            int bestAction = policy.evaluate(sample.nextState);
+            currRows[i] = cache.currentRow(i);
+            nextRows[i] = sample.absorb ? -1 : cache.nextRow(i, bestAction);
+            accumulator.add(policy.getPhi(sample.currState, sample.action),
+                    sample.absorb ? null : policy.getPhi(sample.nextState, bestAction),
+                    sample.reward, gamma);
+        }
+
+        LstdqOperator operator = new LstdqOperator(cache, currRows, nextRows, gamma, .01);
+        Vector x = Matrices.random(rbfBasis.size());
+        Vector expected = accumulator.getA().mult(x, new DenseVector(rbfBasis.size()));
+        Vector actual = operator.mult(x, new DenseVector(rbfBasis.size()));
+
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), actual.get(i), 1e-9);
+        }
+
+        // multAdd should scale and accumulate like any other MTJ matrix
+        Vector y = x.copy();
+        operator.multAdd(-2, x, y);
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(x.get(i) - 2 * expected.get(i), y.get(i), 1e-9);
+        }
+    }
+}
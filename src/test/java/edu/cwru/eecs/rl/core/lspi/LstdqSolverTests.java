@@ -0,0 +1,190 @@
+package edu.cwru.eecs.rl.core.lspi;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import no.uib.cipr.matrix.DenseMatrix;
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Matrix;
+import no.uib.cipr.matrix.Vector;
+import no.uib.cipr.matrix.sparse.LinkedSparseMatrix;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class LstdqSolverTests {
+
+    private static final double[][] A = {{4, 1, 0}, {1, 3, -1}, {0, 2, 5}};
+    private static final double[] B = {1, 2, 3};
+
+    @Test
+    public void testMethodsAgree() {
+        Matrix matA = new DenseMatrix(A);
+        Vector vecB = new DenseVector(B);
+
+        for (LstdqSolver.Method method : LstdqSolver.Method.values()) {
+            Vector vecX = new LstdqSolver(method).solve(matA, vecB);
+            assertNotNull(vecX);
+            assertSolves(matA, vecB, vecX);
+        }
+
+        // the inputs must not be modified
+        assertEquals(4, matA.get(0, 0), 0);
+        assertEquals(1, vecB.get(0), 0);
+    }
+
+    @Test
+    public void testDirectFallsBackToGmresForSparseMatrix() {
+        Matrix matA = new LinkedSparseMatrix(3, 3);
+        for (int i = 0; i < A.length; i++) {
+            for (int j = 0; j < A[i].length; j++) {
+                if (A[i][j] != 0) {
+                    matA.set(i, j, A[i][j]);
+                }
+            }
+        }
+        Vector vecB = new DenseVector(B);
+
+        Vector vecX = new LstdqSolver(LstdqSolver.Method.LU).solve(matA, vecB);
+        assertNotNull(vecX);
+        assertSolves(matA, vecB, vecX);
+    }
+
+    @Test
+    public void testWarmStartFromSolutionSkipsIterations() {
+        Matrix matA = new DenseMatrix(A);
+        Vector vecB = new DenseVector(B);
+        LstdqSolver solver = new LstdqSolver();
+
+        Vector vecX = solver.solve(matA, vecB);
+        assertNotNull(vecX);
+        assertTrue(solver.getLastIterations() > 0);
+        long coldIterations = solver.getTotalIterations();
+        assertEquals(solver.getLastIterations(), coldIterations);
+
+        Vector guess = vecX.copy();
+        Vector warmX = solver.solve(matA, vecB, vecX);
+        assertNotNull(warmX);
+        assertSolves(matA, vecB, warmX);
+        assertEquals(0, solver.getLastIterations());
+        assertEquals(coldIterations, solver.getTotalIterations());
+
+        // the initial guess must not be modified
+        for (int i = 0; i < guess.size(); i++) {
+            assertEquals(guess.get(i), vecX.get(i), 0);
+        }
+    }
+
+    @Test
+    public void testAdaptiveTolerance() {
+        LstdqSolver solver = new LstdqSolver();
+        assertEquals(solver.tolerance, solver.currentTolerance(), 0);
+
+        solver.adaptiveTolerance = true;
+        solver.resetTolerance();
+        assertEquals(solver.looseTolerance, solver.currentTolerance(), 0);
+
+        solver.updateTolerance(.05);
+        assertEquals(.005, solver.currentTolerance(), 1e-15);
+
+        solver.updateTolerance(0);
+        assertEquals(solver.tolerance, solver.currentTolerance(), 0);
+    }
+
+    @Test
+    public void testIluNeedsFewerIterations() {
+        Matrix matA = randomExactSystem(500, .95);
+        Vector vecB = new DenseVector(500);
+        for (int i = 0; i < vecB.size(); i++) {
+            vecB.set(i, i % 7);
+        }
+
+        LstdqSolver plain = new LstdqSolver();
+        plain.preconditioning = LstdqSolver.Preconditioning.NONE;
+        Vector plainX = plain.solve(matA, vecB);
+        assertTrue(plain.isLastConverged());
+
+        LstdqSolver ilu = new LstdqSolver();
+        Vector iluX = ilu.solve(matA, vecB);
+        assertTrue(ilu.isLastConverged());
+        assertTrue(ilu.getLastIterations() < plain.getLastIterations());
+        assertTrue(ilu.getLastResidual() < 1e-4);
+        for (int i = 0; i < vecB.size(); i++) {
+            assertEquals(plainX.get(i), iluX.get(i), 1e-2);
+        }
+    }
+
+    @Test
+    public void testIterationBudgetReturnsBestIterate() {
+        Matrix matA = randomExactSystem(500, .95);
+        Vector vecB = new DenseVector(500);
+        for (int i = 0; i < vecB.size(); i++) {
+            vecB.set(i, i % 7);
+        }
+
+        LstdqSolver solver = new LstdqSolver();
+        solver.preconditioning = LstdqSolver.Preconditioning.NONE;
+        solver.maxIterations = 40;
+        Vector vecX = solver.solve(matA, vecB);
+        assertNotNull(vecX);
+        assertFalse(solver.isLastConverged());
+        assertEquals(40, solver.getLastIterations());
+        // one restart cycle has run, so the best iterate is better than the zero start
+        assertTrue(solver.getLastResidual() < 1);
+    }
+
+    @Test
+    public void testSorMatchesGmres() {
+        Matrix matA = randomExactSystem(500, .95);
+        Vector vecB = new DenseVector(500);
+        for (int i = 0; i < vecB.size(); i++) {
+            vecB.set(i, i % 7);
+        }
+
+        LstdqSolver gmres = new LstdqSolver();
+        gmres.tolerance = 1e-10;
+        Vector gmresX = gmres.solve(matA, vecB);
+
+        for (double relaxation : new double[]{.5, 1}) {
+            LstdqSolver sor = new LstdqSolver(LstdqSolver.Method.SOR);
+            sor.tolerance = 1e-10;
+            sor.relaxation = relaxation;
+            Vector sorX = sor.solve(matA, vecB);
+            assertTrue(sor.isLastConverged());
+            assertTrue(sor.getLastResidual() < 1e-9);
+            // SOR alone produced the answer, with no GMRES fallback
+            assertTrue(sor.getLastSorSweeps() > 0);
+            assertEquals(sor.getLastSorSweeps(), sor.getTotalSorSweeps());
+            assertEquals(0, sor.getLastIterations());
+            assertEquals(0, sor.getTotalIterations());
+            for (int i = 0; i < vecB.size(); i++) {
+                assertEquals(gmresX.get(i), sorX.get(i), 1e-6);
+            }
+        }
+    }
+
+    /**
+     * A sparse system shaped like the exact-basis LSTDQ matrix, .01 I + sum e_s (e_s - gamma
+     * e_s')^T over random transitions.
+     */
+    private static Matrix randomExactSystem(int size, double gamma) {
+        Random random = new Random(0);
+        SparseLstdqAccumulator accumulator = new SparseLstdqAccumulator(size);
+        for (int i = 0; i < 20 * size; i++) {
+            int curr = random.nextInt(size);
+            int next = Math.min(size - 1, curr + random.nextInt(3));
+            accumulator.addExactSample(curr, next, 0, gamma);
+        }
+        return accumulator.getA();
+    }
+
+    private static void assertSolves(Matrix matA, Vector vecB, Vector vecX) {
+        Vector vecAx = matA.mult(vecX, new DenseVector(vecB.size()));
+        for (int i = 0; i < vecB.size(); i++) {
+            assertEquals(vecB.get(i), vecAx.get(i), 1e-4);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package edu.cwru.eecs.rl.core.lspi;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import no.uib.cipr.matrix.Matrix;
+import no.uib.cipr.matrix.Vector;
+import no.uib.cipr.matrix.sparse.CompRowMatrix;
+import no.uib.cipr.matrix.sparse.LinkedSparseMatrix;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SparseLstdqAccumulatorTests {
+
+    @Test
+    public void testMatchesLinkedSparseMatrix() {
+        int size = 50;
+        double gamma = .9;
+        Random random = new Random(0);
+        SparseLstdqAccumulator accumulator = new SparseLstdqAccumulator(size);
+        Matrix expectedA = new LinkedSparseMatrix(size, size);
+        double[] expectedB = new double[size];
+        for (int i = 0; i < size; i++) {
+            expectedA.set(i, i, .01);
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            int curr = random.nextInt(size);
+            int next = random.nextInt(10) == 0 ? -1 : random.nextInt(size);
+            if (random.nextInt(10) == 0) {
+                next = curr;
+            }
+            double reward = random.nextDouble();
+            accumulator.addExactSample(curr, next, reward, gamma);
+
+            if (next < 0) {
+                expectedA.set(curr, curr, expectedA.get(curr, curr) + 1);
+            } else if (curr == next) {
+                expectedA.set(curr, curr, expectedA.get(curr, curr) + 1 - gamma);
+            } else {
+                expectedA.set(curr, curr, expectedA.get(curr, curr) + 1);
+                expectedA.set(curr, next, expectedA.get(curr, next) - gamma);
+            }
+            expectedB[curr] += reward;
+        }
+
+        CompRowMatrix matA = accumulator.getA();
+        Vector vecB = accumulator.getB();
+        for (int row = 0; row < size; row++) {
+            assertEquals(expectedB[row], vecB.get(row), 0);
+            for (int col = 0; col < size; col++) {
+                assertEquals(expectedA.get(row, col), matA.get(row, col), 0);
+            }
+        }
+
+        // each row is stored once with sorted columns
+        int[] rowPointers = matA.getRowPointers();
+        int[] columnIndices = matA.getColumnIndices();
+        for (int row = 0; row < size; row++) {
+            for (int i = rowPointers[row] + 1; i < rowPointers[row + 1]; i++) {
+                assertTrue(columnIndices[i - 1] < columnIndices[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testEmptyRowsKeepDiagonal() {
+        SparseLstdqAccumulator accumulator = new SparseLstdqAccumulator(3, 0);
+        accumulator.add(2, 0, 5);
+        CompRowMatrix matA = accumulator.getA();
+
+        assertEquals(4, matA.getData().length);
+        assertEquals(0, matA.get(1, 1), 0);
+        assertEquals(5, matA.get(2, 0), 0);
+    }
+
+    @Test
+    public void testCompactionBoundsMemory() {
+        SparseLstdqAccumulator accumulator = new SparseLstdqAccumulator(4);
+        double expected = .01;
+        for (int i = 0; i < 100000; i++) {
+            accumulator.addExactSample(i % 4, (i + 1) % 4, 1, .9);
+            if (i % 4 == 0) {
+                expected += 1;
+            }
+        }
+
+        // 4 rows with 2 distinct entries each, compacted whenever 16 triplets are buffered
+        assertTrue(accumulator.numEntries() <= 16);
+        CompRowMatrix matA = accumulator.getA();
+        assertEquals(8, accumulator.numEntries());
+        assertEquals(expected, matA.get(0, 0), 0);
+        assertEquals(-.9 * 25000, matA.get(0, 1), 1e-6);
+    }
+}
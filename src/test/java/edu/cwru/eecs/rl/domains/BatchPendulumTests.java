@@ -0,0 +1,115 @@
+package edu.cwru.eecs.rl.domains;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import edu.cwru.eecs.rl.basisfunctions.GaussianRbf;
+import edu.cwru.eecs.rl.types.Policy;
+import edu.cwru.eecs.rl.types.Sample;
+import edu.cwru.eecs.rl.types.SampleBatch;
+import edu.cwru.eecs.rl.types.SplitMix;
+import no.uib.cipr.matrix.DenseVector;
+
+import static org.junit.Assert.assertEquals;
+
+public class BatchPendulumTests {
+
+    @Test
+    public void testMatchesPendulumWithRk4() {
+        assertMatchesPendulums(Pendulum.Integrator.RK4);
+    }
+
+    @Test
+    public void testMatchesPendulumWithSemiImplicitEuler() {
+        assertMatchesPendulums(Pendulum.Integrator.SEMI_IMPLICIT_EULER);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsAdaptiveIntegrator() {
+        new BatchPendulum(2, .1, 10, 0, Pendulum.Integrator.RKF45);
+    }
+
+    @Test
+    public void testGreedyPolicyKeepsBatchFull() {
+        GaussianRbf basis = new GaussianRbf(3, 3, 3);
+        Policy policy = new Policy(0, 3, basis);
+        BatchPendulum batch = new BatchPendulum(16, 3);
+        batch.episodeLength = 10;
+
+        SampleBatch samples = batch.sample(policy, 25);
+
+        assertEquals(16 * 25, samples.size());
+        double[] state = new double[BatchPendulum.STATE_DIMENSION];
+        for (int i = 0; i < samples.size(); i++) {
+            samples.currState(i, state);
+            assertEquals(policy.greedyAction(state), samples.action(i));
+        }
+    }
+
+    @Test
+    public void testExploringPolicyIsRepeatable() {
+        GaussianRbf basis = new GaussianRbf(3, 3, 3);
+        Policy policy = new Policy(.5, 3, basis);
+        BatchPendulum first = new BatchPendulum(8, 5);
+        policy.setRandom(new Random(1));
+        SampleBatch firstSamples = first.sample(policy, 40);
+        BatchPendulum second = new BatchPendulum(8, 5);
+        policy.setRandom(new Random(2));
+        SampleBatch secondSamples = second.sample(policy, 40);
+
+        assertEquals(firstSamples.size(), secondSamples.size());
+        for (int i = 0; i < firstSamples.size(); i++) {
+            assertEquals(firstSamples.get(i), secondSamples.get(i));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPolicyFailureIsReported() {
+        GaussianRbf basis = new GaussianRbf(3, 3, 3);
+        // too few weights for the basis, so every greedy evaluation fails
+        Policy policy = new Policy(1e-9, 3, basis, new DenseVector(2));
+        new BatchPendulum(4, 0).sample(policy, 1);
+    }
+
+    /**
+     * Steps a batch and one Pendulum per environment with the same random actions and checks
+     * that every sample is identical.
+     */
+    private static void assertMatchesPendulums(Pendulum.Integrator integrator) {
+        int numEnvironments = 4;
+        int episodeLength = 30;
+        long seed = 42;
+        BatchPendulum batch = new BatchPendulum(numEnvironments, .1, 10, seed, integrator);
+        batch.episodeLength = episodeLength;
+        Pendulum[] pendulums = new Pendulum[numEnvironments];
+        int[] steps = new int[numEnvironments];
+        for (int i = 0; i < numEnvironments; i++) {
+            pendulums[i] = new Pendulum(.1, 1e-5, 10,
+                    SplitMix.seed(seed, i), integrator);
+        }
+
+        Random random = new Random(seed);
+        SampleBatch samples = new SampleBatch(BatchPendulum.STATE_DIMENSION);
+        SampleBatch expected = new SampleBatch(BatchPendulum.STATE_DIMENSION);
+        int[] actions = new int[numEnvironments];
+        for (int step = 0; step < 200; step++) {
+            for (int i = 0; i < numEnvironments; i++) {
+                actions[i] = random.nextInt(3);
+                Sample sample = pendulums[i].step(actions[i]);
+                expected.add(sample);
+                if (sample.reward < 0 || ++steps[i] >= episodeLength) {
+                    pendulums[i].reset();
+                    steps[i] = 0;
+                }
+            }
+            batch.step(actions, samples);
+        }
+
+        assertEquals(expected.size(), samples.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), samples.get(i));
+            assertEquals(expected.absorb(i), samples.absorb(i));
+        }
+    }
+}
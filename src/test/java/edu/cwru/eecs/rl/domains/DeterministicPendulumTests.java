@@ -40,6 +40,28 @@ public class DeterministicPendulumTests {
         assertEquals(0, (int) sample.reward);
     }
 
+    @Test
+    public void testFixedStepIntegratorsFollowRkf45() {
+        double[] stateArray = {0.1571, 0.1397};
+        Pendulum rk4 = new Pendulum(20, Pendulum.Integrator.RK4);
+        rk4.setState(new DenseVector(stateArray));
+        Pendulum euler = new Pendulum(20, Pendulum.Integrator.SEMI_IMPLICIT_EULER);
+        euler.setState(new DenseVector(stateArray));
+
+        Sample expected = simulator.step(1);
+        Sample rk4Sample = rk4.step(1);
+        Sample eulerSample = euler.step(1);
+
+        // the same noise is drawn whatever the integrator
+        assertEquals(expected.nextState.get(2), rk4Sample.nextState.get(2), 0);
+        assertEquals(expected.nextState.get(2), eulerSample.nextState.get(2), 0);
+
+        assertEquals(expected.nextState.get(0), rk4Sample.nextState.get(0), 1e-4);
+        assertEquals(expected.nextState.get(1), rk4Sample.nextState.get(1), 1e-3);
+        assertEquals(expected.nextState.get(0), eulerSample.nextState.get(0), .05);
+        assertEquals(expected.nextState.get(1), eulerSample.nextState.get(1), .1);
+    }
+
     @Test
     public void testSimEnd() {
         int iter = 0;
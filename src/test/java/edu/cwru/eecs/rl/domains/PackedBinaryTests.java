@@ -0,0 +1,114 @@
+package edu.cwru.eecs.rl.domains;
+
+import edu.cwru.eecs.rl.basisfunctions.ExactBasis;
+import edu.cwru.eecs.rl.types.Sample;
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Vector;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PackedBinaryTests {
+
+    @Test
+    public void testMatchesBinary() {
+        int numBits = 12;
+        Binary binary = new Binary(numBits);
+        PackedBinary packed = new PackedBinary(numBits);
+        int[] numStates = new int[numBits];
+        for (int i = 0; i < numBits; i++) {
+            numStates[i] = 2;
+        }
+        ExactBasis basis = new ExactBasis(numStates, numBits);
+
+        Random random = new Random(5);
+        for (int episode = 0; episode < 20; episode++) {
+            binary.reset();
+            packed.reset();
+            boolean absorb = false;
+            while (!absorb) {
+                int action = random.nextInt(numBits);
+                Sample expected = binary.step(action);
+                Sample actual = packed.step(action);
+
+                assertEquals(basis.getStateActionIndex(expected.currState, action),
+                        basis.getStateActionIndex(actual.currState, action));
+                assertEquals(basis.getStateActionIndex(expected.nextState, action),
+                        basis.getStateActionIndex(actual.nextState, action));
+                assertEquals(basis.getStateActionIndex(expected.nextState, action),
+                        basis.getStateActionIndex(packed.getPackedState(), action));
+                assertEquals(expected.reward, actual.reward, 1e-12);
+                assertEquals(expected.absorb, actual.absorb);
+                assertEquals(binary.isGoal(expected.nextState), packed.isGoal(actual.nextState));
+                absorb = actual.absorb;
+            }
+        }
+    }
+
+    @Test
+    public void testSetAlreadySetBit() {
+        PackedBinary simulator = new PackedBinary(8);
+        simulator.setPackedState(0b101);
+
+        Sample sample = simulator.step(2);
+
+        assertEquals(5, sample.currState.get(0), 1e-12);
+        assertEquals(5, sample.nextState.get(0), 1e-12);
+        assertEquals(-1, sample.reward, 1e-12);
+        assertFalse(sample.absorb);
+    }
+
+    @Test
+    public void testGoalAcrossWords() {
+        int numBits = 100;
+        PackedBinary simulator = new PackedBinary(numBits);
+        assertEquals(4, simulator.getState().size());
+
+        for (int bit = 0; bit < numBits - 1; bit++) {
+            Sample sample = simulator.step(bit);
+            assertEquals(-1, sample.reward, 1e-12);
+            assertFalse(sample.absorb);
+        }
+        assertFalse(simulator.isGoal(simulator.getState()));
+
+        Sample sample = simulator.step(numBits - 1);
+        assertEquals(100, sample.reward, 1e-12);
+        assertTrue(sample.absorb);
+        assertTrue(simulator.isGoal(sample.nextState));
+        assertEquals(0xffffffffL, (long) sample.nextState.get(0));
+        assertEquals(0xfL, (long) sample.nextState.get(3));
+
+        sample = simulator.step(40);
+        assertEquals(-1, sample.reward, 1e-12);
+    }
+
+    @Test
+    public void testStateSetterAndGetter() {
+        PackedBinary simulator = new PackedBinary(40);
+        Vector state = new DenseVector(new double[]{0x80000001L, 0xffL});
+        simulator.setState(state);
+        assertEquals(0xff80000001L, simulator.getPackedState());
+        assertEquals(state.get(0), simulator.getState().get(0), 1e-12);
+        assertEquals(state.get(1), simulator.getState().get(1), 1e-12);
+
+        simulator.setPackedState(0xffffffffffL);
+        assertTrue(simulator.isGoal(simulator.getState()));
+        assertTrue(simulator.step(3).absorb);
+    }
+
+    @Test
+    public void testStateCount() {
+        assertEquals(1L << 40, new PackedBinary(40).stateCount());
+        assertEquals(Integer.MAX_VALUE, new PackedBinary(40).numStates());
+        assertEquals(1 << 20, new PackedBinary(20).numStates());
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testStateCountOverflow() {
+        new PackedBinary(63).stateCount();
+    }
+}
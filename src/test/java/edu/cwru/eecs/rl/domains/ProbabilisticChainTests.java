@@ -4,6 +4,7 @@ import org.junit.Test;
 
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Random;
 
 import edu.cwru.eecs.rl.types.Sample;
 import no.uib.cipr.matrix.DenseVector;
@@ -123,4 +124,62 @@ public class ProbabilisticChainTests {
 
         assertEquals(.5, numSuccess / (double) numSamples, .02);
     }
+
+    @Test
+    public void testMatchesTransitionTensor() {
+        int[] lengths = {1, 2, 3, 10};
+        double[] successProbs = {.9, .5, 1, 0};
+        for (int numStates : lengths) {
+            for (double successProb : successProbs) {
+                Chain simulator = new Chain(numStates, successProb, numStates);
+                Random reference = new Random(numStates);
+                int state = reference.nextInt(numStates);
+                double[][][] transitions = transitionTensor(numStates, successProb);
+                Random actions = new Random(3);
+
+                for (int i = 0; i < 500; i++) {
+                    int action = actions.nextInt(2);
+                    // the tensor based step of the original implementation
+                    int nextState = state;
+                    double totProb = 0;
+                    for (int j = state - 1; j <= state + 1; j += 2) {
+                        int newState = Math.max(0, Math.min(numStates - 1, j));
+                        totProb += transitions[state][action][newState];
+                        if (reference.nextDouble() <= totProb) {
+                            nextState = newState;
+                            break;
+                        }
+                    }
+
+                    Sample sample = simulator.step(action);
+                    assertEquals(state, (int) sample.currState.get(0));
+                    assertEquals(nextState, (int) sample.nextState.get(0));
+                    assertEquals(nextState == 0 || nextState == numStates - 1 ? 1 : 0,
+                            sample.reward, 0);
+                    state = nextState;
+                }
+            }
+        }
+    }
+
+    private static double[][][] transitionTensor(int numStates, double successProb) {
+        double[][][] transitions = new double[numStates][2][numStates];
+        for (int i = 0; i < numStates; i++) {
+            transitions[i][0][Math.max(0, i - 1)] = successProb;
+            transitions[i][0][Math.min(numStates - 1, i + 1)] = 1 - successProb;
+            transitions[i][1][Math.min(numStates - 1, i + 1)] = successProb;
+            transitions[i][1][Math.max(0, i - 1)] = 1 - successProb;
+            transitions[i][0][i] = 0;
+            transitions[i][1][i] = 0;
+        }
+        return transitions;
+    }
+
+    @Test
+    public void testMillionStateChain() {
+        Chain simulator = new Chain(1000000, .9, 0);
+        simulator.setState(new DenseVector(new double[]{500000}));
+        int state = (int) simulator.step(1).nextState.get(0);
+        assertTrue(state == 499999 || state == 500001);
+    }
 }
@@ -2,6 +2,9 @@ package edu.cwru.eecs.rl.domains;
 
 import org.junit.Test;
 
+import java.util.Random;
+
+import edu.cwru.eecs.rl.types.Sample;
 import no.uib.cipr.matrix.DenseVector;
 import no.uib.cipr.matrix.Vector;
 
@@ -30,4 +33,36 @@ public class ProbabilisticPendulumTests {
         assertEquals(0, totalInitState.get(1), .1);
     }
 
+    /**
+     * The hashes were recorded from the implementation that integrated with MTJ matrices. Any
+     * change to the integrator that changes a single bit of a trajectory changes them.
+     */
+    @Test
+    public void testTrajectoriesMatchReference() {
+        assertEquals(-4770955290126268982L, trajectoryHash(new Pendulum(7), 7, 2000));
+        assertEquals(-8371341766841509545L,
+                trajectoryHash(new Pendulum(.1, 1e-5, 0, 3), 3, 2000));
+        assertEquals(3441403583959591532L,
+                trajectoryHash(new Pendulum(.05, 1e-8, 30, 11), 11, 2000));
+    }
+
+    /**
+     * Steps with random actions, resetting after every fall, and hashes the bits of every next
+     * state and reward.
+     */
+    private static long trajectoryHash(Pendulum pendulum, long seed, int steps) {
+        Random actions = new Random(seed);
+        long hash = 0;
+        for (int i = 0; i < steps; i++) {
+            Sample sample = pendulum.step(actions.nextInt(pendulum.numActions()));
+            for (int j = 0; j < sample.nextState.size(); j++) {
+                hash = 31 * hash + Double.doubleToLongBits(sample.nextState.get(j));
+            }
+            hash = 31 * hash + Double.doubleToLongBits(sample.reward);
+            if (sample.absorb || sample.reward < 0) {
+                pendulum.reset();
+            }
+        }
+        return hash;
+    }
 }
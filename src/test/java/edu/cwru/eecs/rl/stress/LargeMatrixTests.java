@@ -4,12 +4,15 @@ import edu.cwru.eecs.rl.agent.PolicySampler;
 import edu.cwru.eecs.rl.basisfunctions.ExactBasis;
 import edu.cwru.eecs.rl.basisfunctions.FakeBasis;
 import edu.cwru.eecs.rl.core.lspi.Lspi;
+import edu.cwru.eecs.rl.core.lspi.LstdqSolver;
 import edu.cwru.eecs.rl.domains.Binary;
+import edu.cwru.eecs.rl.domains.PackedBinary;
 import edu.cwru.eecs.rl.domains.Simulator;
 import edu.cwru.eecs.rl.types.BasisFunctions;
 import edu.cwru.eecs.rl.types.Policy;
 import edu.cwru.eecs.rl.types.Sample;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -18,6 +21,7 @@ import java.util.List;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -93,6 +97,60 @@ public class LargeMatrixTests {
                 greaterThan(avgRandomRewards));
     }
 
+    @Test
+    public void testLargeMatrixFreeWithExactBasis() {
+        int[] numStates = new int[numBits];
+        for (int i=0; i < numStates.length; i++) {
+            numStates[i] = 2;
+        }
+        BasisFunctions exactBasis = new ExactBasis(numStates, simulator.numActions());
+        Policy learnedPolicy = new Policy(0, simulator.numActions(), exactBasis);
+
+        learnedPolicy = Lspi.learn(samples, learnedPolicy, .9, 1e-5, 10, Lspi.PolicyImprover.LSTDQ_MATRIX_FREE);
+
+        simulator.reset();
+        double avgRandomRewards = PolicySampler.evaluatePolicy(simulator, 100, 500, randomPolicy);
+        simulator.reset();
+        double avgLearnedRewards = PolicySampler.evaluatePolicy(simulator, 100, 500, learnedPolicy);
+
+        assertThat(avgLearnedRewards, greaterThan(avgRandomRewards));
+    }
+
+    /**
+     * Binary at 20 bits, where ExactBasis has 20 * 2^20 features. The random samples only cover a
+     * small fraction of the states, so the greedy policy soon leaves them and is not compared with
+     * the random one. Instead every covered state one bit from the goal must pick that bit.
+     */
+    @Test
+    public void testPackedBinaryWithExactBasisAndLstdq() throws Exception {
+        // A, b and a few weight vectors of 20 * 2^20 entries
+        Assume.assumeTrue(Runtime.getRuntime().maxMemory() >= 5L << 29);
+
+        int packedBits = 20;
+        Simulator packed = new PackedBinary(packedBits);
+        Policy packedRandomPolicy = new Policy(1, packed.numActions(), new FakeBasis());
+        List<Sample> packedSamples = PolicySampler.sample(packed, 1000, 10000, packedRandomPolicy);
+
+        int[] numStates = new int[packedBits];
+        for (int i=0; i < numStates.length; i++) {
+            numStates[i] = 2;
+        }
+        BasisFunctions exactBasis = new ExactBasis(numStates, packed.numActions());
+        Policy learnedPolicy = new Policy(0, packed.numActions(), exactBasis);
+
+        learnedPolicy = Lspi.learn(packedSamples, learnedPolicy, .9, 1e-5, 10,
+                Lspi.PolicyImprover.LSTDQ_EXACT_MTJ, new LstdqSolver(LstdqSolver.Method.SOR));
+
+        int numGoalSamples = 0;
+        for (Sample sample : packedSamples) {
+            if (sample.absorb) {
+                assertEquals(sample.action, learnedPolicy.evaluate(sample.currState));
+                numGoalSamples++;
+            }
+        }
+        assertThat(numGoalSamples, greaterThan(0));
+    }
+
     public class CallMethod implements Runnable
     {
         private Instant startTime;
@@ -0,0 +1,97 @@
+package edu.cwru.eecs.rl.types;
+
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.List;
+
+import edu.cwru.eecs.rl.agent.PolicySampler;
+import edu.cwru.eecs.rl.basisfunctions.FakeBasis;
+import edu.cwru.eecs.rl.domains.Binary;
+import edu.cwru.eecs.rl.domains.Chain;
+import edu.cwru.eecs.rl.domains.Simulator;
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Vector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EncodedTrajectoryBatchTest {
+
+    @Test
+    public void testChainRoundTrip() {
+        Simulator simulator = new Chain(20, .9, 0);
+        Policy randomPolicy = new Policy(1, simulator.numActions(), new FakeBasis());
+        List<Sample> samples = PolicySampler.sample(simulator, 10, 100, randomPolicy);
+
+        EncodedTrajectoryBatch batch = EncodedTrajectoryBatch.of(samples);
+        assertEquals(samples.size(), batch.size());
+        // a reset to the state the last episode ended in continues that trajectory
+        assertTrue(batch.numEpisodes() <= 10);
+        // flags, action, reward and one state delta per step plus each episode's first state
+        assertTrue(batch.encodedBytes() <= 4 * samples.size() + 10);
+        assertSamples(samples, batch);
+    }
+
+    @Test
+    public void testBinaryRoundTrip() {
+        Simulator simulator = new Binary(8);
+        Policy randomPolicy = new Policy(1, simulator.numActions(), new FakeBasis());
+        List<Sample> samples = PolicySampler.sample(simulator, 10, 50, randomPolicy);
+
+        EncodedTrajectoryBatch batch = EncodedTrajectoryBatch.of(samples);
+        assertEquals(samples.size(), batch.size());
+        assertEquals(8, batch.stateDimension());
+        assertSamples(samples, batch);
+    }
+
+    @Test
+    public void testRawRewardsAndNegativeStates() {
+        EncodedTrajectoryBatch batch = new EncodedTrajectoryBatch(2);
+        Vector state0 = new DenseVector(new double[]{-3, 1000000});
+        Vector state1 = new DenseVector(new double[]{4, -1000000});
+        batch.add(new Sample(state0, 7, state1, .25));
+        batch.add(new Sample(state1, 0, state0, -2, true));
+        batch.add(new Sample(state1, 1, state1, Double.NaN));
+
+        Iterator<Sample> iterator = batch.iterator();
+        Sample sample = iterator.next();
+        assertEquals(-3, sample.currState.get(0), 0);
+        assertEquals(-1000000, sample.nextState.get(1), 0);
+        assertEquals(7, sample.action);
+        assertEquals(.25, sample.reward, 0);
+        assertSame(sample, iterator.next());
+        assertEquals(-2, sample.reward, 0);
+        assertTrue(sample.absorb);
+        sample = iterator.next();
+        assertEquals(4, sample.currState.get(0), 0);
+        assertTrue(Double.isNaN(sample.reward));
+        assertFalse(iterator.hasNext());
+        assertEquals(2, batch.numEpisodes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsFractionalStates() {
+        EncodedTrajectoryBatch batch = new EncodedTrajectoryBatch(1);
+        batch.add(new Sample(new DenseVector(new double[]{.5}), 0,
+                new DenseVector(new double[]{1}), 0));
+    }
+
+    private static void assertSamples(List<Sample> expected, EncodedTrajectoryBatch batch) {
+        int i = 0;
+        for (Sample actual : batch) {
+            Sample sample = expected.get(i++);
+            for (int j = 0; j < batch.stateDimension(); j++) {
+                assertEquals(sample.currState.get(j), actual.currState.get(j), 0);
+                assertEquals(sample.nextState.get(j), actual.nextState.get(j), 0);
+            }
+            assertEquals(sample.action, actual.action);
+            assertEquals(sample.reward, actual.reward, 0);
+            assertEquals(sample.absorb, actual.absorb);
+            assertEquals(sample.type, actual.type);
+        }
+        assertEquals(expected.size(), i);
+    }
+}
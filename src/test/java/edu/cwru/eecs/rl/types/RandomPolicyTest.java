@@ -6,8 +6,15 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+import edu.cwru.eecs.rl.basisfunctions.ExactBasis;
 import edu.cwru.eecs.rl.basisfunctions.FakeBasis;
+import edu.cwru.eecs.rl.basisfunctions.GaussianRbf;
+import edu.cwru.eecs.rl.basisfunctions.PolynomialBasis;
 import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Matrices;
 import no.uib.cipr.matrix.Vector;
 
 @SuppressWarnings("deprecation")
@@ -53,6 +60,119 @@ public class RandomPolicyTest {
         Assert.assertTrue(differentAction);
     }
 
+    @Test
+    public void testSeededRandomIsRepeatable() throws Exception {
+        Policy policy = new Policy(.5, 4, new FakeBasis(), new DenseVector(new double[]{2}));
+        Vector state = new DenseVector(new double[]{1});
+
+        policy.setRandom(new Random(3));
+        int[] first = new int[50];
+        for (int i = 0; i < first.length; i++) {
+            first[i] = policy.evaluate(state);
+        }
+
+        // the copy shares the random source, so reseeding it replays the same actions
+        Policy copy = new Policy(policy);
+        Assert.assertSame(policy.getRandom(), copy.getRandom());
+        policy.getRandom().setSeed(3);
+        for (int i = 0; i < first.length; i++) {
+            Assert.assertEquals(first[i], copy.evaluate(state));
+        }
+
+        copy.setRandom(null);
+        Assert.assertSame(ThreadLocalRandom.current(), copy.getRandom());
+    }
+
+    @Test
+    public void testArrayPathMatchesVectorPath() throws Exception {
+        BasisFunctions basis = new GaussianRbf(3, 3, 3);
+        Vector weights = Matrices.random(basis.size());
+        for (int i = 0; i < weights.size(); i++) {
+            weights.add(i, -.5);
+        }
+        Policy policy = new Policy(0, 3, basis, weights);
+
+        for (double[] state : new double[][]{{0, 0}, {.4, -1}, {-1.2, 2}, {3, 0}}) {
+            Vector vectorState = new DenseVector(state);
+            Assert.assertEquals(policy.evaluate(vectorState), policy.evaluate(state));
+            Assert.assertEquals(policy.evaluate(vectorState), policy.greedyAction(state));
+            for (int action = 0; action < 3; action++) {
+                Assert.assertEquals(policy.stateActionValue(vectorState, action),
+                        policy.stateActionValue(state, action), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testGreedyActionsMatchGreedyAction() {
+        Random random = new Random(1);
+        BasisFunctions[] bases = {new GaussianRbf(3, 3, 3), new PolynomialBasis(4, 3)};
+        for (BasisFunctions basis : bases) {
+            Vector weights = new DenseVector(basis.size());
+            for (int i = 0; i < weights.size(); i++) {
+                weights.set(i, random.nextGaussian());
+            }
+            Policy policy = new Policy(0, 3, basis, weights);
+
+            // enough states for several blocks, with a partial block at the end
+            int numStates = 3 * Policy.FEATURE_BLOCK_SIZE / (basis.size() / 3) + 17;
+            double[][] states = new double[numStates][];
+            double[] packed = new double[2 * numStates];
+            for (int i = 0; i < numStates; i++) {
+                states[i] = new double[]{4 * random.nextDouble() - 2, 4 * random.nextDouble() - 2};
+                System.arraycopy(states[i], 0, packed, 2 * i, 2);
+            }
+
+            int[] actions = policy.greedyActions(states);
+            int[] packedActions = policy.greedyActions(packed, 2);
+            Assert.assertEquals(numStates, actions.length);
+            for (int i = 0; i < numStates; i++) {
+                Assert.assertEquals(policy.greedyAction(states[i]), actions[i]);
+                Assert.assertEquals(actions[i], packedActions[i]);
+            }
+        }
+
+        // not action-blocked, so each state is evaluated on its own
+        BasisFunctions exact = new ExactBasis(new int[]{20000}, 2);
+        Policy exactPolicy = new Policy(0, 2, exact, Matrices.random(exact.size()));
+        double[] chainStates = {0, 19999, 123, 4567};
+        int[] chainActions = exactPolicy.greedyActions(chainStates, 1);
+        for (int i = 0; i < chainStates.length; i++) {
+            Assert.assertEquals(exactPolicy.greedyAction(new double[]{chainStates[i]}),
+                    chainActions[i]);
+        }
+    }
+
+    @Test
+    public void testGreedyActionsWithHugeBasis() {
+        // features times actions overflows an int, so each state must be evaluated on its own
+        BasisFunctions huge = new BasisFunctions() {
+            @Override
+            public Vector evaluate(Vector state, int action) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public int size() {
+                return 1 << 30;
+            }
+
+            @Override
+            public double dot(double[] state, int action, double[] weights) {
+                return weights[((int) state[0] + action) % weights.length];
+            }
+        };
+        Policy policy = new Policy(0, 4, huge, new DenseVector(new double[]{0, 3, 1, 2, 0}));
+        double[] states = {0, 1, 2};
+        int[] actions = policy.greedyActions(states, 1);
+        Assert.assertArrayEquals(new int[]{1, 0, 1}, actions);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGreedyActionsRejectsPartialState() {
+        randomPolicy.greedyActions(new double[]{1, 2, 3}, 2);
+    }
+
     @Test
     public void testQValue() {
         double qValue = 0;
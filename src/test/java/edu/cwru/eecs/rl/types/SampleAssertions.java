@@ -0,0 +1,33 @@
+package edu.cwru.eecs.rl.types;
+
+import no.uib.cipr.matrix.Vector;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Assertions shared by the tests of the sample stores.
+ */
+final class SampleAssertions {
+
+    private SampleAssertions() {
+    }
+
+    /**
+     * Checks a store returned the sample, with its states padded with zeros to the store's state
+     * dimension.
+     */
+    static void assertPadded(Sample expected, Sample actual) {
+        assertPadded(expected.currState, actual.currState);
+        assertPadded(expected.nextState, actual.nextState);
+        assertEquals(expected.action, actual.action);
+        assertEquals(expected.reward, actual.reward, 0);
+        assertEquals(expected.absorb, actual.absorb);
+        assertEquals(expected.type, actual.type);
+    }
+
+    static void assertPadded(Vector expected, Vector actual) {
+        for (int i = 0; i < actual.size(); i++) {
+            assertEquals(i < expected.size() ? expected.get(i) : 0, actual.get(i), 0);
+        }
+    }
+}
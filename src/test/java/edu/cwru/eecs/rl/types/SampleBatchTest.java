@@ -0,0 +1,115 @@
+package edu.cwru.eecs.rl.types;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import edu.cwru.eecs.rl.agent.PolicySampler;
+import edu.cwru.eecs.rl.basisfunctions.FakeBasis;
+import edu.cwru.eecs.rl.domains.Binary;
+import edu.cwru.eecs.rl.domains.Pendulum;
+import edu.cwru.eecs.rl.domains.Simulator;
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Vector;
+
+import static edu.cwru.eecs.rl.types.SampleAssertions.assertPadded;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SampleBatchTest {
+
+    private List<Sample> samples;
+
+    /**
+     * Collect some random pendulum samples.
+     */
+    @Before
+    public void setUp() {
+        Simulator simulator = new Pendulum(0);
+        Policy randomPolicy = new Policy(1, simulator.numActions(), new FakeBasis());
+        samples = PolicySampler.sample(simulator, 5, 50, randomPolicy);
+    }
+
+    @Test
+    public void testRoundTrip() {
+        // grow from a capacity of one to check the arrays are copied correctly
+        // the reset state has no control input, every later state does
+        int stateDimension = 3;
+        assertEquals(2, samples.get(0).currState.size());
+        SampleBatch batch = new SampleBatch(stateDimension, 1);
+        for (Sample sample : samples) {
+            batch.add(sample);
+        }
+
+        assertEquals(samples.size(), batch.size());
+        assertEquals(stateDimension, batch.stateDimension());
+        for (int i = 0; i < samples.size(); i++) {
+            Sample expected = samples.get(i);
+            assertPadded(expected, batch.get(i));
+            assertEquals(expected.absorb, batch.absorb(i));
+            assertEquals(expected.reward, batch.reward(i), 0);
+            assertEquals(expected.action, batch.action(i));
+            assertEquals(expected.currState.get(1), batch.currState(i, 1), 0);
+            assertEquals(expected.nextState.get(0), batch.nextState(i, 0), 0);
+        }
+        assertEquals(samples.size(), batch.asList().size());
+        assertPadded(samples.get(7), batch.asList().get(7));
+    }
+
+    @Test
+    public void testIteratorReusesSample() {
+        SampleBatch batch = SampleBatch.of(samples);
+
+        Iterator<Sample> iterator = batch.iterator();
+        Sample first = iterator.next();
+        assertPadded(samples.get(0), first);
+        Sample second = iterator.next();
+        assertSame(first, second);
+        assertPadded(samples.get(1), second);
+
+        int count = 2;
+        while (iterator.hasNext()) {
+            assertPadded(samples.get(count++), iterator.next());
+        }
+        assertEquals(samples.size(), count);
+    }
+
+    @Test
+    public void testAbsorbAndSparseStates() {
+        Vector state = new Binary(3).getState();
+        Vector nextState = state.copy();
+        nextState.set(1, 1);
+        SampleBatch batch = new SampleBatch(3);
+        batch.add(new Sample(state, 1, nextState, -1, true));
+        batch.add(new double[]{0, 1, 0}, 2, new double[]{0, 1, 1}, -1, false);
+
+        assertTrue(batch.absorb(0));
+        assertFalse(batch.absorb(1));
+        assertEquals(1, batch.nextState(0, 1), 0);
+        assertEquals(0, batch.nextState(0, 2), 0);
+        assertEquals(1, batch.nextState(1, 2), 0);
+    }
+
+    @Test
+    public void testModelAddSamples() {
+        Vector state0 = new DenseVector(new double[]{0});
+        Vector state1 = new DenseVector(new double[]{1});
+        List<Sample> modelSamples = new ArrayList<>();
+        modelSamples.add(new Sample(state0, 0, state1, 1));
+        modelSamples.add(new Sample(state0, 0, state0, -1));
+        modelSamples.add(new Sample(state1, 1, state0, 3));
+
+        Model model = new Model();
+        model.addSamples(SampleBatch.of(modelSamples));
+
+        assertEquals(.5, model.getTransitionProbability(state0, 0, state1), 0);
+        assertEquals(0, model.getReward(state0, 0), 0);
+        assertEquals(3, model.getReward(state1, 1), 0);
+        assertEquals(2, model.getAllStateActions().size());
+    }
+}
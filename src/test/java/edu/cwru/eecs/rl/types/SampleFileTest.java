@@ -0,0 +1,188 @@
+package edu.cwru.eecs.rl.types;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+
+import edu.cwru.eecs.rl.agent.PolicySampler;
+import edu.cwru.eecs.rl.basisfunctions.FakeBasis;
+import edu.cwru.eecs.rl.basisfunctions.PolynomialBasis;
+import edu.cwru.eecs.rl.core.lspi.Lspi;
+import edu.cwru.eecs.rl.domains.Pendulum;
+import edu.cwru.eecs.rl.domains.Simulator;
+
+import static edu.cwru.eecs.rl.types.SampleAssertions.assertPadded;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SampleFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private List<Sample> samples;
+    private Path path;
+
+    /**
+     * Collect some random pendulum samples and write them to a file.
+     */
+    @Before
+    public void setUp() throws IOException {
+        Policy randomPolicy = new Policy(1, 3, new FakeBasis());
+        samples = PolicySampler.sample(new Pendulum(0), 5, 50, randomPolicy);
+
+        path = folder.newFile("samples.bin").toPath();
+        try (SampleFileWriter writer = new SampleFileWriter(path, 3)) {
+            writer.writeAll(samples);
+            assertEquals(samples.size(), writer.getCount());
+        }
+        assertEquals(24 + samples.size() * SampleFile.recordSize(3), Files.size(path));
+    }
+
+    @Test
+    public void testPolicySamplerWritesEpisodes() throws IOException {
+        Path sampled = folder.newFile("sampled.bin").toPath();
+        long count;
+        try (SampleFileWriter writer = new SampleFileWriter(sampled, 3)) {
+            count = PolicySampler.sample(new Pendulum(0), 5, 50,
+                    new Policy(1, 3, new FakeBasis()), writer);
+        }
+
+        try (SampleFile file = SampleFile.open(sampled)) {
+            assertEquals(count, file.size());
+            int episodes = 0;
+            for (Sample sample : file) {
+                assertTrue(sample.action >= 0 && sample.action < 3);
+                // only the reset states lack the control input and are padded with zero
+                if (sample.currState.get(2) == 0) {
+                    episodes++;
+                }
+            }
+            assertEquals(5, episodes);
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        try (SampleFile file = SampleFile.open(path)) {
+            assertEquals(samples.size(), file.size());
+            assertEquals(3, file.stateDimension());
+
+            Iterator<Sample> iterator = file.iterator();
+            Sample first = iterator.next();
+            assertPadded(samples.get(0), first);
+            Sample second = iterator.next();
+            assertSame(first, second);
+
+            int count = 1;
+            assertPadded(samples.get(count++), second);
+            while (iterator.hasNext()) {
+                assertPadded(samples.get(count++), iterator.next());
+            }
+            assertEquals(samples.size(), count);
+            assertPadded(samples.get(7), file.asList().get(7));
+        }
+    }
+
+    @Test
+    public void testRecordsSpanSeveralChunks() throws IOException {
+        // map 10 records per chunk so the samples cross several mappings
+        try (SampleFile file = SampleFile.open(path, 10 * SampleFile.recordSize(3) + 5)) {
+            int count = 0;
+            for (Sample sample : file) {
+                assertPadded(samples.get(count++), sample);
+            }
+            assertEquals(samples.size(), count);
+            assertPadded(samples.get(samples.size() - 1), file.get(samples.size() - 1));
+        }
+    }
+
+    @Test
+    public void testWriteBatchAndArrays() throws IOException {
+        Path batchPath = folder.newFile("batch.bin").toPath();
+        try (SampleFileWriter writer = new SampleFileWriter(batchPath, 3)) {
+            writer.writeAll(SampleBatch.of(samples));
+            writer.write(new double[]{1, 2}, 1, new double[]{3, 4, 5}, -1, true);
+        }
+
+        try (SampleFile file = SampleFile.open(batchPath)) {
+            assertEquals(samples.size() + 1, file.size());
+            assertPadded(samples.get(3), file.get(3));
+            Sample last = file.get(samples.size());
+            assertEquals(0, last.currState.get(2), 0);
+            assertEquals(5, last.nextState.get(2), 0);
+            assertEquals(1, last.action);
+            assertEquals(-1, last.reward, 0);
+            assertTrue(last.absorb);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsOtherFiles() throws IOException {
+        Path other = folder.newFile("other.bin").toPath();
+        Files.write(other, new byte[64]);
+        SampleFile.open(other);
+    }
+
+    @Test
+    public void testRejectsCorruptHeaders() throws IOException {
+        // state dimension, then sample count
+        long[][] headers = {{0, 1}, {-3, 1}, {3, -1}, {3, Long.MAX_VALUE}, {3, 1L << 60},
+            {3, samples.size() + 1}};
+        for (long[] header : headers) {
+            ByteBuffer buffer =
+                    ByteBuffer.wrap(Files.readAllBytes(path)).order(SampleFile.BYTE_ORDER);
+            buffer.putInt(8, (int) header[0]);
+            buffer.putLong(SampleFile.COUNT_OFFSET, header[1]);
+            Path corrupt = folder.newFile().toPath();
+            Files.write(corrupt, buffer.array());
+            try (SampleFile file = SampleFile.open(corrupt)) {
+                fail("Opened a file with dimension " + header[0] + " and count " + header[1]);
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRejectsInvalidSampleType() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path)).order(SampleFile.BYTE_ORDER);
+        int flagsOffset = SampleFile.HEADER_SIZE + SampleFile.recordSize(3) - 4;
+        buffer.putInt(flagsOffset, 1000);
+        Files.write(path, buffer.array());
+        try (SampleFile file = SampleFile.open(path)) {
+            file.get(0);
+        }
+    }
+
+    @Test
+    public void testLearnFromFileVsList() throws IOException {
+        Simulator simulator = new Pendulum();
+        BasisFunctions polyBasis = new PolynomialBasis(3, simulator.numActions());
+        Policy initialPolicy = new Policy(0, simulator.numActions(), polyBasis);
+
+        try (SampleFile file = SampleFile.open(path)) {
+            for (Lspi.PolicyImprover improver : new Lspi.PolicyImprover[]{
+                    Lspi.PolicyImprover.LSTDQ_MTJ, Lspi.PolicyImprover.LSTDQ_MTJ_CACHED}) {
+                Policy listPolicy = Lspi.learn(SampleBatch.of(samples).asList(),
+                        new Policy(initialPolicy), .9, 1e-5, 10, improver);
+                Policy filePolicy =
+                        Lspi.learn(file, new Policy(initialPolicy), .9, 1e-5, 10, improver);
+
+                for (int i = 0; i < listPolicy.weights.size(); i++) {
+                    assertEquals(listPolicy.weights.get(i), filePolicy.weights.get(i), 0);
+                }
+            }
+        }
+    }
+}
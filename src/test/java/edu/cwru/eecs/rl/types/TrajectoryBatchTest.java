@@ -0,0 +1,115 @@
+package edu.cwru.eecs.rl.types;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.List;
+
+import edu.cwru.eecs.rl.agent.PolicySampler;
+import edu.cwru.eecs.rl.basisfunctions.FakeBasis;
+import edu.cwru.eecs.rl.basisfunctions.PolynomialBasis;
+import edu.cwru.eecs.rl.core.lspi.Lspi;
+import edu.cwru.eecs.rl.domains.Pendulum;
+
+import static edu.cwru.eecs.rl.types.SampleAssertions.assertPadded;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TrajectoryBatchTest {
+
+    private List<Sample> samples;
+
+    /**
+     * Collect some random pendulum samples.
+     */
+    @Before
+    public void setUp() {
+        Policy randomPolicy = new Policy(1, 3, new FakeBasis());
+        samples = PolicySampler.sample(new Pendulum(0), 5, 50, randomPolicy);
+    }
+
+    @Test
+    public void testStatesAreShared() {
+        // grow from a capacity of one to check the arrays are copied correctly
+        TrajectoryBatch batch = new TrajectoryBatch(3, 1);
+        for (Sample sample : samples) {
+            batch.add(sample);
+        }
+
+        assertEquals(samples.size(), batch.size());
+        assertEquals(5, batch.numEpisodes());
+        assertEquals(samples.size() + 5, batch.numStates());
+        for (int i = 0; i < samples.size(); i++) {
+            assertPadded(samples.get(i), batch.get(i));
+        }
+
+        double[] state = new double[3];
+        // the pendulum cannot fall in a single step, so the first two samples share a state
+        batch.nextState(0, state);
+        assertEquals(samples.get(0).nextState.get(1), state[1], 0);
+        batch.currState(1, state);
+        assertEquals(samples.get(0).nextState.get(1), state[1], 0);
+    }
+
+    @Test
+    public void testIteratorReusesSample() {
+        TrajectoryBatch batch = TrajectoryBatch.of(samples);
+
+        Iterator<Sample> iterator = batch.iterator();
+        Sample first = iterator.next();
+        assertPadded(samples.get(0), first);
+        Sample second = iterator.next();
+        assertSame(first, second);
+        assertPadded(samples.get(1), second);
+
+        int count = 2;
+        while (iterator.hasNext()) {
+            assertPadded(samples.get(count++), iterator.next());
+        }
+        assertEquals(samples.size(), count);
+    }
+
+    @Test
+    public void testUnrelatedSamplesStartEpisodes() {
+        TrajectoryBatch batch = new TrajectoryBatch(2);
+        batch.add(new double[]{0, 0}, 0, new double[]{1, 0}, 1, false);
+        batch.add(new double[]{1, 0}, 1, new double[]{2, 0}, 2, false);
+        batch.add(new double[]{5, 0}, 0, new double[]{5}, 3, true);
+        batch.add(new double[]{5, 0}, 1, new double[]{6, 1}, 4, false);
+
+        assertEquals(2, batch.numEpisodes());
+        assertEquals(6, batch.numStates());
+        double[] state = new double[2];
+        int i = 0;
+        for (Sample sample : batch) {
+            batch.currState(i, state);
+            assertEquals(state[0], sample.currState.get(0), 0);
+            assertEquals(i + 1, sample.reward, 0);
+            i++;
+        }
+        assertEquals(5, batch.get(2).currState.get(0), 0);
+        assertEquals(6, batch.get(3).nextState.get(0), 0);
+        assertTrue(batch.absorb(2));
+    }
+
+    @Test
+    public void testLearnFromTrajectoriesVsList() {
+        Policy initialPolicy = new Policy(0, 3, new PolynomialBasis(3, 3));
+        TrajectoryBatch batch = TrajectoryBatch.of(samples);
+        List<Sample> padded = SampleBatch.of(samples).asList();
+
+        for (Lspi.PolicyImprover improver : new Lspi.PolicyImprover[]{
+                Lspi.PolicyImprover.LSTDQ_MTJ, Lspi.PolicyImprover.LSTDQ_MTJ_CACHED}) {
+            Policy listPolicy =
+                    Lspi.learn(padded, new Policy(initialPolicy), .9, 1e-5, 10, improver);
+            Policy batchPolicy =
+                    Lspi.learn(batch, new Policy(initialPolicy), .9, 1e-5, 10, improver);
+
+            for (int i = 0; i < listPolicy.weights.size(); i++) {
+                assertEquals(listPolicy.weights.get(i), batchPolicy.weights.get(i), 0);
+            }
+        }
+    }
+}